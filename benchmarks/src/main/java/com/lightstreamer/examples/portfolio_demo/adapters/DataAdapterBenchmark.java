@@ -0,0 +1,123 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.lightstreamer.examples.portfolio_demo.adapters;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.lightstreamer.examples.portfolio_demo.feed_simulator.Portfolio;
+import com.lightstreamer.examples.portfolio_demo.feed_simulator.PortfolioFeedSimulator;
+import com.lightstreamer.interfaces.data.SmartDataProvider;
+
+/**
+ * Round trip from an order on a subscribed portfolio to the delivery
+ * of the resulting update to the Kernel (here a stub), through the
+ * dispatch threads and either Data Adapter.
+ * Other portfolios can also be subscribed, to show that the cost
+ * of each update doesn't depend on the number of subscriptions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DataAdapterBenchmark {
+
+    /**
+     * COMMAND for PortfolioDataAdapter, JSON for PortfolioDataAdapterJsonVersion,
+     * JSON_PATCH for the latter with precomputed patches.
+     */
+    @Param({"COMMAND", "JSON", "JSON_PATCH"})
+    public String adapter;
+
+    /**
+     * Number of subscribed portfolios, including the one receiving the orders.
+     */
+    @Param({"1", "10000"})
+    public int subscriptions;
+
+    private StubItemEventListener listener;
+
+    private SmartDataProvider dataAdapter;
+
+    private Portfolio portfolio;
+
+    private long expectedUpdates;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        // a dedicated feed for each trial
+        String adapterSetId = "BENCHMARK_" + adapter + "_" + subscriptions;
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("adapters_conf.id", adapterSetId);
+        params.put("portfolio_count", String.valueOf(Math.max(10, subscriptions)));
+        if (adapter.equals("COMMAND")) {
+            dataAdapter = new PortfolioDataAdapter();
+        } else {
+            dataAdapter = new PortfolioDataAdapterJsonVersion();
+            if (adapter.equals("JSON_PATCH")) {
+                params.put("precomputed_patches", "Y");
+            }
+        }
+        dataAdapter.init(params, new File("."));
+        listener = new StubItemEventListener();
+        dataAdapter.setListener(listener);
+
+        for (int i = 1; i <= subscriptions; i++) {
+            dataAdapter.subscribe("portfolio" + i, new Object(), false);
+        }
+        while (listener.getSnapshotCount() < subscriptions) {
+            Thread.yield();
+        }
+        expectedUpdates = listener.getUpdateCount();
+        portfolio = PortfolioFeedSimulator.feedMap.get(adapterSetId).getPortfolio("portfolio1");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        for (int i = 1; i <= subscriptions; i++) {
+            dataAdapter.unsubscribe("portfolio" + i);
+        }
+    }
+
+    @Benchmark
+    public void orderToUpdate() throws Exception {
+        // an ADD (or UPDATE) followed by a DELETE (or UPDATE)
+        portfolio.buy("item30", 100);
+        portfolio.sell("item30", 100);
+        expectedUpdates += 2;
+        listener.awaitUpdates(expectedUpdates);
+    }
+
+}
@@ -0,0 +1,139 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.lightstreamer.examples.portfolio_demo.adapters;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.lightstreamer.examples.portfolio_demo.feed_simulator.BenchmarkSupport;
+import com.lightstreamer.examples.portfolio_demo.feed_simulator.SymbolRegistry;
+
+/**
+ * Rendering of the JSON document of a portfolio upon each change of a
+ * stock quantity, for portfolios of different sizes: by the original
+ * toJson of PortfolioDataAdapterJsonVersion, which sorted the whole
+ * contents and concatenated the document, by PortfolioJsonEncoder,
+ * and as a JSON Patch by PortfolioJsonEncoder.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonEncoderBenchmark {
+
+    /**
+     * Number of stocks in the portfolio.
+     */
+    @Param({"8", "64", "512"})
+    public int stocks;
+
+    private String[] symbols;
+
+    private Map<String, Integer> contents;
+
+    private PortfolioJsonEncoder encoder;
+
+    private int next = 0;
+
+    private int qty = 100;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        SymbolRegistry registry = SymbolRegistry.ofRange("item", 1, stocks);
+        int[] ordinals = new int[stocks];
+        symbols = new String[stocks];
+        contents = new HashMap<String, Integer>();
+        for (int i = 0; i < stocks; i++) {
+            ordinals[i] = i;
+            symbols[i] = registry.symbolOf(i);
+            contents.put(symbols[i], 100);
+        }
+        encoder = new PortfolioJsonEncoder("portfolio1");
+        encoder.reset(BenchmarkSupport.snapshotOf(registry, ordinals, 100));
+    }
+
+    private String nextSymbol() {
+        next = (next + 7) % stocks;
+        return symbols[next];
+    }
+
+    private int nextQty() {
+        qty = qty == 100 ? 200 : 100;
+        return qty;
+    }
+
+    @Benchmark
+    public String legacyToJson() {
+        contents.put(nextSymbol(), nextQty());
+        return toJson("portfolio1", contents);
+    }
+
+    @Benchmark
+    public String encoderToJson() {
+        encoder.apply(nextSymbol(), nextQty());
+        return encoder.toJson();
+    }
+
+    @Benchmark
+    public String encoderPatch() {
+        return encoder.applyAsPatch(nextSymbol(), nextQty());
+    }
+
+    /**
+     * The original rendering, as the baseline.
+     */
+    private static String toJson(String portfolioId, Map<String, Integer> currentStatus) {
+        // create json from portfolio
+        String portfolioJson = "{ \"" + portfolioId + "\": [";
+
+        Set<String> keys = currentStatus.keySet();
+        // order by item name (optional step)
+        List<String> keyList = new ArrayList<>(keys);
+        Collections.sort(keyList);
+        // Iterates through the Hash representing the actual status
+        for (String key : keyList) {
+            Integer qty = currentStatus.get(key);
+            portfolioJson += "{ \"symbol\": \"" + key + "\", \"quantity\": " + qty.intValue() + " },";
+        }
+        if (! keyList.isEmpty()) {
+            portfolioJson = portfolioJson.substring(0, portfolioJson.length() - 1);
+        }
+        portfolioJson += "]}";
+        return portfolioJson;
+    }
+
+}
@@ -0,0 +1,182 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.lightstreamer.examples.portfolio_demo.adapters;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.lightstreamer.examples.portfolio_demo.feed_simulator.BenchmarkSupport;
+import com.lightstreamer.examples.portfolio_demo.feed_simulator.LoadProfile;
+import com.lightstreamer.examples.portfolio_demo.feed_simulator.OrderFlowGenerator;
+import com.lightstreamer.examples.portfolio_demo.feed_simulator.OrderSink;
+import com.lightstreamer.examples.portfolio_demo.feed_simulator.PortfolioFeedSimulator;
+import com.lightstreamer.examples.portfolio_demo.metrics.Histogram;
+import com.lightstreamer.examples.portfolio_demo.metrics.Metrics;
+import com.lightstreamer.interfaces.data.SmartDataProvider;
+
+/**
+ * Applies a synthetic order flow (see OrderFlowGenerator) on a feed whose
+ * portfolios are subscribed through one of the Data Adapters, with a stub
+ * in place of the Kernel, then reports the throughput and the latencies,
+ * including the delivery latency, from the scheduled time of an order to
+ * the return of the resulting smartUpdate call, for the traced orders.
+ * The arguments are adapter parameters, in the form name=value, supplied
+ * to both the Data and the Metadata Adapter; the "load_*" parameters
+ * describe the order flow (see LoadProfile), whereas the other ones
+ * configure the feed as usual. In addition:
+ * <ul>
+ * <li>"adapter": COMMAND (the default) for PortfolioDataAdapter, JSON for
+ * PortfolioDataAdapterJsonVersion, or JSON_PATCH for the latter with
+ * precomputed patches;</li>
+ * <li>"target": FEED (the default) to apply the orders directly on the
+ * portfolios, or MESSAGES to send them as client messages through
+ * PortfolioMetadataAdapter;</li>
+ * <li>"subscriptions": the number of portfolios subscribed, starting from
+ * the first one; by default, all of them.</li>
+ * </ul>
+ * For instance:
+ * java -cp target/benchmarks.jar com.lightstreamer.examples.portfolio_demo.adapters.LoadTest
+ * portfolio_count=1000 load_orders_per_second=50000 load_burst_factor=4
+ * load_burst_millis=200 load_burst_period_millis=2000 target=MESSAGES
+ */
+public class LoadTest {
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("adapters_conf.id", "LOAD_TEST");
+        params.put("portfolio_count", "1000");
+        params.put("load_orders_per_second", "10000");
+        params.put("load_duration_millis", "10000");
+        params.put("order_trace_sampling", "16");
+        for (String arg : args) {
+            int sep = arg.indexOf('=');
+            if (sep <= 0) {
+                throw new IllegalArgumentException("Wrong argument, name=value expected: " + arg);
+            }
+            params.put(arg.substring(0, sep).trim(), arg.substring(sep + 1).trim());
+        }
+        LoadProfile profile = LoadProfile.fromParams(params);
+        if (profile == null || profile.getDurationMillis() == 0) {
+            throw new IllegalArgumentException("Both load_orders_per_second and load_duration_millis are needed");
+        }
+        String target = params.containsKey("target") ? params.get("target").toUpperCase() : "FEED";
+        String adapter = params.containsKey("adapter") ? params.get("adapter").toUpperCase() : "COMMAND";
+
+        // the order flow is started here, rather than by the feed,
+        // only after the subscriptions
+        Map<String, String> adapterParams = new HashMap<String, String>(params);
+        adapterParams.remove("load_orders_per_second");
+
+        SmartDataProvider dataAdapter;
+        if (adapter.equals("COMMAND")) {
+            dataAdapter = new PortfolioDataAdapter();
+        } else if (adapter.equals("JSON") || adapter.equals("JSON_PATCH")) {
+            dataAdapter = new PortfolioDataAdapterJsonVersion();
+            if (adapter.equals("JSON_PATCH")) {
+                adapterParams.put("precomputed_patches", "Y");
+            }
+        } else {
+            throw new IllegalArgumentException("Wrong adapter: " + adapter);
+        }
+        dataAdapter.init(adapterParams, new File("."));
+        StubItemEventListener listener = new StubItemEventListener();
+        dataAdapter.setListener(listener);
+        PortfolioFeedSimulator feed = PortfolioFeedSimulator.feedMap.get(params.get("adapters_conf.id"));
+
+        int portfolioCount = feed.getUniverse().getPortfolios().size();
+        int subscriptions = portfolioCount;
+        if (params.containsKey("subscriptions")) {
+            subscriptions = Math.min(portfolioCount, Integer.parseInt(params.get("subscriptions")));
+        }
+        for (int i = 0; i < subscriptions; i++) {
+            dataAdapter.subscribe(feed.getUniverse().getPortfolios().symbolOf(i), new Object(), false);
+        }
+        while (listener.getSnapshotCount() < subscriptions) {
+            Thread.yield();
+        }
+        long snapshotUpdates = listener.getUpdateCount();
+
+        OrderSink sink;
+        if (target.equals("MESSAGES")) {
+            final PortfolioMetadataAdapter metadataAdapter = new PortfolioMetadataAdapter();
+            metadataAdapter.init(adapterParams, new File("."));
+            sink = (side, portfolio, stock, qty, scheduledNanos) -> {
+                // the reception time is taken by the adapter
+                metadataAdapter.notifyUserMessage("load", "load", side + "|"
+                        + feed.getUniverse().getPortfolios().symbolOf(portfolio) + "|"
+                        + feed.getUniverse().getStocks().symbolOf(stock) + "|" + qty);
+            };
+        } else if (target.equals("FEED")) {
+            sink = OrderSink.toFeed(feed);
+        } else {
+            throw new IllegalArgumentException("Wrong target: " + target);
+        }
+
+        Metrics metrics = feed.getMetrics();
+        OrderFlowGenerator generator = new OrderFlowGenerator(profile, feed.getUniverse(), sink,
+                metrics, BenchmarkSupport.LOGGER);
+        System.out.println("Adapter " + adapter + ", target " + target + ", " + subscriptions
+                + " subscriptions, " + profile);
+        long start = System.nanoTime();
+        generator.start();
+
+        // sample the update rate on each second of the flow
+        List<Long> rates = new ArrayList<Long>();
+        long lastCount = listener.getUpdateCount();
+        long deadline = System.nanoTime() + (profile.getDurationMillis() + 60000) * 1000000L;
+        while (! generator.awaitTermination(1000) && System.nanoTime() < deadline) {
+            long count = listener.getUpdateCount();
+            rates.add(count - lastCount);
+            lastCount = count;
+        }
+        long elapsedNanos = System.nanoTime() - start;
+
+        // let the pending updates be delivered
+        long updates = -1;
+        while (updates != listener.getUpdateCount()) {
+            updates = listener.getUpdateCount();
+            Thread.sleep(200);
+        }
+        updates -= snapshotUpdates;
+
+        double seconds = elapsedNanos / 1e9;
+        System.out.printf("Orders sent:     %d (%.0f/s), refused: %d%n", generator.getSentCount(),
+                generator.getSentCount() / seconds, generator.getFailedCount());
+        long minRate = Long.MAX_VALUE;
+        for (long rate : rates) {
+            minRate = Math.min(minRate, rate);
+        }
+        System.out.printf("Updates:         %d (%.0f/s, lowest %d/s over %d full seconds)%n", updates,
+                updates / seconds, rates.isEmpty() ? 0 : minRate, rates.size());
+        print("Send delay", metrics.getHistograms().get("load.sendDelayNanos"));
+        print("Order latency", metrics.getHistograms().get("orders.latencyNanos"));
+        print("Dispatch lag", metrics.getHistograms().get("listeners.dispatchLagNanos"));
+        print("Delivery", metrics.getHistograms().get("trace.totalNanos"));
+        System.out.println("Listener overflows: " + metrics.getGaugeValues().get("listeners.overflows"));
+        System.exit(0);
+    }
+
+    private static void print(String name, Histogram histogram) {
+        System.out.printf("%-16s p50 %8.1f us, p99 %8.1f us, max %8.1f us (%d samples)%n", name + ":",
+                histogram.getValueAtPercentile(50) / 1e3, histogram.getValueAtPercentile(99) / 1e3,
+                histogram.getMax() / 1e3, histogram.getCount());
+    }
+
+}
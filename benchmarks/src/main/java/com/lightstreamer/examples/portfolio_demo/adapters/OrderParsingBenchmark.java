@@ -0,0 +1,121 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.lightstreamer.examples.portfolio_demo.adapters;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.lightstreamer.examples.portfolio_demo.feed_simulator.Universe;
+
+/**
+ * Parsing of the order messages received by PortfolioMetadataAdapter,
+ * up to the resolution of the portfolio and the stock: by the original
+ * split based parsing and by OrderCodec.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+public class OrderParsingBenchmark {
+
+    private Universe universe;
+
+    private OrderCodec codec;
+
+    private final OrderCodec.ParsedOrder parsed = new OrderCodec.ParsedOrder();
+
+    private String[] messages;
+
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        universe = Universe.getDefault();
+        codec = new OrderCodec(universe);
+        Random random = new Random(42);
+        messages = new String[1024];
+        for (int i = 0; i < messages.length; i++) {
+            // new instances, as received from the network
+            messages[i] = new StringBuilder()
+                    .append(random.nextBoolean() ? "BUY" : "SELL").append('|')
+                    .append(universe.getPortfolios().symbolOf(random.nextInt(universe.getPortfolios().size()))).append('|')
+                    .append(universe.getStocks().symbolOf(random.nextInt(universe.getStocks().size()))).append('|')
+                    .append(100 * (1 + random.nextInt(25)))
+                    .toString();
+        }
+    }
+
+    private String nextMessage() {
+        return messages[next++ & (messages.length - 1)];
+    }
+
+    @Benchmark
+    public int splitParsing() {
+        String message = nextMessage();
+        String[] operation = message.split("\\|");
+        if (operation.length != 4) {
+            return -1;
+        }
+        int qty;
+        try {
+            qty = Integer.parseInt(operation[3]);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+        int portfolio = universe.getPortfolios().ordinalOf(operation[1]);
+        if (portfolio < 0) {
+            return -1;
+        }
+        int side;
+        if (operation[0].equals("BUY")) {
+            side = 0;
+        } else if (operation[0].equals("SELL")) {
+            side = 1;
+        } else {
+            return -1;
+        }
+        int stock = universe.getStocks().ordinalOf(operation[2]);
+        if (stock < 0) {
+            return -1;
+        }
+        return qty + portfolio + side + stock;
+    }
+
+    @Benchmark
+    public int codecParsing() {
+        String message = nextMessage();
+        if (codec.parse(message, 0, message.length(), parsed) != OrderCodec.OK) {
+            return -1;
+        }
+        return parsed.qty + parsed.portfolio + parsed.side.ordinal() + parsed.stock;
+    }
+
+}
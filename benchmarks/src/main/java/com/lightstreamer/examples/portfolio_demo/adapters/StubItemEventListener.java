@@ -0,0 +1,128 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.lightstreamer.examples.portfolio_demo.adapters;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.lightstreamer.interfaces.data.DiffAlgorithm;
+import com.lightstreamer.interfaces.data.IndexedItemEvent;
+import com.lightstreamer.interfaces.data.ItemEvent;
+import com.lightstreamer.interfaces.data.ItemEventListener;
+import com.lightstreamer.interfaces.data.OldItemEvent;
+
+/**
+ * Takes the place of the Lightstreamer Kernel in the benchmarks:
+ * it reads the fields of each update, as the Kernel would do,
+ * and counts the updates, so that the callers can wait for them.
+ * Only the Map based smart calls are expected by the Portfolio adapters.
+ */
+public class StubItemEventListener implements ItemEventListener {
+
+    private final AtomicLong updates = new AtomicLong();
+
+    private final AtomicLong snapshots = new AtomicLong();
+
+    /**
+     * Accumulates the field lengths, to keep the reads alive.
+     */
+    private volatile long sink;
+
+    public long getUpdateCount() {
+        return updates.get();
+    }
+
+    public long getSnapshotCount() {
+        return snapshots.get();
+    }
+
+    /**
+     * Waits, by yielding, until the specified number of updates
+     * has been received.
+     */
+    public void awaitUpdates(long count) {
+        while (updates.get() < count) {
+            Thread.yield();
+        }
+    }
+
+    public void smartUpdate(Object handle, Map event, boolean isSnapshot) {
+        long length = 0;
+        for (Object value : event.values()) {
+            if (value != null) {
+                length += value.toString().length();
+            }
+        }
+        sink += length;
+        updates.incrementAndGet();
+    }
+
+    public void smartEndOfSnapshot(Object handle) {
+        snapshots.incrementAndGet();
+    }
+
+    public void smartClearSnapshot(Object handle) {
+    }
+
+    public void smartDeclareFieldDiffOrder(Object handle, Map<String, DiffAlgorithm[]> algorithmsMap) {
+    }
+
+    public void failure(Throwable e) {
+        throw new IllegalStateException(e);
+    }
+
+    public void update(String itemName, ItemEvent event, boolean isSnapshot) {
+        throw new UnsupportedOperationException();
+    }
+
+    public void update(String itemName, OldItemEvent event, boolean isSnapshot) {
+        throw new UnsupportedOperationException();
+    }
+
+    public void update(String itemName, Map event, boolean isSnapshot) {
+        throw new UnsupportedOperationException();
+    }
+
+    public void update(String itemName, IndexedItemEvent event, boolean isSnapshot) {
+        throw new UnsupportedOperationException();
+    }
+
+    public void smartUpdate(Object handle, ItemEvent event, boolean isSnapshot) {
+        throw new UnsupportedOperationException();
+    }
+
+    public void smartUpdate(Object handle, OldItemEvent event, boolean isSnapshot) {
+        throw new UnsupportedOperationException();
+    }
+
+    public void smartUpdate(Object handle, IndexedItemEvent event, boolean isSnapshot) {
+        throw new UnsupportedOperationException();
+    }
+
+    public void endOfSnapshot(String itemName) {
+        throw new UnsupportedOperationException();
+    }
+
+    public void clearSnapshot(String itemName) {
+        throw new UnsupportedOperationException();
+    }
+
+    public void declareFieldDiffOrder(String itemName, Map<String, DiffAlgorithm[]> algorithmsMap) {
+        throw new UnsupportedOperationException();
+    }
+
+}
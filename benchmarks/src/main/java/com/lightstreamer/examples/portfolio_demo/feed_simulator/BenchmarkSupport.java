@@ -0,0 +1,54 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.lightstreamer.examples.portfolio_demo.feed_simulator;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Gives the benchmarks access to the package-private parts of the feed.
+ */
+public class BenchmarkSupport {
+
+    public static final Logger LOGGER = LogManager.getLogger("LS_demos_Logger.Portfolio");
+
+    /**
+     * Builds a snapshot of the specified stocks, which should be
+     * in ascending order of ordinal, with the same quantity.
+     */
+    public static PortfolioSnapshot snapshotOf(SymbolRegistry stocks, int[] ordinals, int qty) {
+        int[] quantities = new int[ordinals.length];
+        java.util.Arrays.fill(quantities, qty);
+        return new PortfolioSnapshot(1, stocks, ordinals.clone(), quantities);
+    }
+
+    /**
+     * A listener that ignores all notifications.
+     */
+    public static class NullListener implements PortfolioListener {
+        public void onActualStatus(PortfolioSnapshot currentStatus) {
+        }
+        public void update(String stock, int qty, int oldQty, PortfolioSnapshot currentStatus) {
+        }
+        public void empty() {
+        }
+
+        public void onDisconnected() {
+        }
+    }
+
+}
@@ -0,0 +1,90 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.lightstreamer.examples.portfolio_demo.feed_simulator;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.config.Configurator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of the debug logging of an order when debug is disabled, as with
+ * the production log levels: the message built by concatenation before
+ * the call, as was done on the order path, against the guarded message
+ * and the parameterized message, which defer the formatting.
+ * Run with "-prof gc" to also compare the allocation per order.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DebugLoggingBenchmark {
+
+    /**
+     * The level of the demo logger, which excludes debug.
+     */
+    @Param({"INFO", "WARN"})
+    public String level;
+
+    private final Logger logger = BenchmarkSupport.LOGGER;
+
+    private final String id = "portfolio1";
+
+    private final String[] stocks = { "item1", "item2", "item3", "item4" };
+
+    private int qty;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Configurator.setLevel(logger.getName(), org.apache.logging.log4j.Level.valueOf(level));
+    }
+
+    @Benchmark
+    public void concatenated() {
+        int q = ++qty;
+        logger.debug("Buying " + q + " " + stocks[q & 3] + " for " + this.id);
+    }
+
+    @Benchmark
+    public void guarded() {
+        int q = ++qty;
+        if (logger.isDebugEnabled()) {
+            logger.debug("Buying " + q + " " + stocks[q & 3] + " for " + this.id);
+        }
+    }
+
+    @Benchmark
+    public void parameterized() {
+        int q = ++qty;
+        logger.debug("Buying {} {} for {}", q, stocks[q & 3], this.id);
+    }
+
+}
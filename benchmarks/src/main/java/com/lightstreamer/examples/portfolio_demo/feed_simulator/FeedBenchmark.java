@@ -0,0 +1,102 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.lightstreamer.examples.portfolio_demo.feed_simulator;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Portfolio lookup on the feed, as performed for each order message
+ * and each subscription; all portfolios are already created.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FeedBenchmark {
+
+    private PortfolioFeedSimulator feed;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        feed = new PortfolioFeedSimulator(new FeedConfiguration());
+        SymbolRegistry portfolios = feed.getUniverse().getPortfolios();
+        for (int i = 0; i < portfolios.size(); i++) {
+            feed.getPortfolio(portfolios.symbolOf(i));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        feed.shutdown();
+    }
+
+    /**
+     * The portfolio ids requested by a single thread; they are not
+     * the instances held by the universe, as for ids got from messages.
+     */
+    @State(Scope.Thread)
+    public static class Requests {
+
+        private String[] ids;
+
+        private int next = 0;
+
+        @Setup(Level.Trial)
+        public void setup(FeedBenchmark benchmark) {
+            Random random = new Random(42);
+            SymbolRegistry portfolios = benchmark.feed.getUniverse().getPortfolios();
+            ids = new String[1024];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = new String(portfolios.symbolOf(random.nextInt(portfolios.size())));
+            }
+        }
+
+        String nextId() {
+            return ids[next++ & (ids.length - 1)];
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Portfolio getPortfolio(Requests requests) {
+        return feed.getPortfolio(requests.nextId());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Portfolio getPortfolioContended4(Requests requests) {
+        return feed.getPortfolio(requests.nextId());
+    }
+
+}
@@ -0,0 +1,156 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.lightstreamer.examples.portfolio_demo.feed_simulator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.lightstreamer.examples.portfolio_demo.metrics.Metrics;
+
+/**
+ * Order application on a single portfolio, by one thread and by many
+ * concurrent threads, as when many order messages are processed together.
+ * Each invocation buys and then sells the same quantity, so that the
+ * portfolio contents stay bounded; the quantity changes go through
+ * changeQty and, if a listener is attached, are dispatched to it.
+ * The contents are kept as configured through PositionStorage.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PortfolioBenchmark {
+
+    /**
+     * Number of listeners attached to the portfolio.
+     */
+    @Param({"0", "1"})
+    public int listeners;
+
+    @Param({"HEAP", "OFF_HEAP"})
+    public PositionStorage storage;
+
+    private DispatchScheduler scheduler;
+
+    private Portfolio portfolio;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        FeedConfiguration config = new FeedConfiguration();
+        scheduler = new DispatchScheduler("Benchmark dispatch", config.getThreadMode());
+        SymbolRegistry stocks = config.getUniverse().getStocks();
+        Positions positions;
+        if (storage == PositionStorage.OFF_HEAP) {
+            positions = new OffHeapPositionTable(1, stocks.size()).rowOf(0);
+        } else {
+            positions = new PositionTable();
+        }
+        portfolio = new Portfolio("portfolio1", stocks, scheduler, config,
+                new FeedMetrics(new Metrics()), positions, BenchmarkSupport.LOGGER);
+        for (int i = 0; i < listeners; i++) {
+            portfolio.addListener(new BenchmarkSupport.NullListener());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        scheduler.shutdown();
+    }
+
+    /**
+     * The orders of a single submitter.
+     */
+    @State(Scope.Thread)
+    public static class Orders {
+
+        private final Random random = new Random(42);
+
+        private String[] stocks;
+
+        private int next = 0;
+
+        private List<Order> batch;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            SymbolRegistry registry = Universe.getDefault().getStocks();
+            stocks = new String[1024];
+            for (int i = 0; i < stocks.length; i++) {
+                stocks[i] = registry.symbolOf(random.nextInt(registry.size()));
+            }
+            batch = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                batch.add(new Order(Order.Side.BUY, stocks[i], 100));
+                batch.add(new Order(Order.Side.SELL, stocks[i], 100));
+            }
+        }
+
+        String nextStock() {
+            return stocks[next++ & (stocks.length - 1)];
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void buySell(Orders orders) throws Exception {
+        String stock = orders.nextStock();
+        portfolio.buy(stock, 100);
+        portfolio.sell(stock, 100);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void buySellContended4(Orders orders) throws Exception {
+        String stock = orders.nextStock();
+        portfolio.buy(stock, 100);
+        portfolio.sell(stock, 100);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void buySellContended16(Orders orders) throws Exception {
+        String stock = orders.nextStock();
+        portfolio.buy(stock, 100);
+        portfolio.sell(stock, 100);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public OrderOutcome[] applyBatchContended4(Orders orders) {
+        return portfolio.applyBatch(orders.batch);
+    }
+
+}
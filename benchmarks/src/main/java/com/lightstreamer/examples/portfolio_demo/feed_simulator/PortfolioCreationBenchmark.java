@@ -0,0 +1,98 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.lightstreamer.examples.portfolio_demo.feed_simulator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Creation of all the portfolios of a fresh feed of 10000 portfolios:
+ * on first use, by one thread or by many threads at once, as in a
+ * subscription storm, and through a preload.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class PortfolioCreationBenchmark {
+
+    private static final int PORTFOLIOS = 10000;
+
+    private PortfolioFeedSimulator feed;
+
+    private List<String> ids;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        FeedConfiguration config = new FeedConfiguration();
+        config.setUniverse(Universe.ofCounts(PORTFOLIOS, 30));
+        config.setMetricsJmx(false);
+        feed = new PortfolioFeedSimulator(config);
+        SymbolRegistry portfolios = config.getUniverse().getPortfolios();
+        ids = new ArrayList<>();
+        for (int i = 0; i < portfolios.size(); i++) {
+            ids.add(portfolios.symbolOf(i));
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        feed.shutdown();
+    }
+
+    private void getAll() {
+        for (String id : ids) {
+            feed.getPortfolio(id);
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void firstUse() {
+        getAll();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void firstUseContended4() {
+        getAll();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void preload() {
+        feed.preload(ids);
+    }
+
+}
@@ -0,0 +1,150 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.lightstreamer.examples.portfolio_demo.adapters;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A tiny immutable Map with the fixed schema of the portfolio updates
+ * in COMMAND mode: "key", "command" and, unless the command is DELETE, "qty".
+ * It takes the place of a HashMap, so that each update costs a single
+ * small allocation; moreover, the decimal renderings of the quantities
+ * are cached, as only a limited set of values is common.
+ */
+final class CommandUpdate extends AbstractMap<String, String> {
+
+    static final String KEY_FIELD = "key";
+    static final String COMMAND_FIELD = "command";
+    static final String QTY_FIELD = "qty";
+
+    static final String ADD = "ADD";
+    static final String UPDATE = "UPDATE";
+    static final String DELETE = "DELETE";
+
+    /**
+     * Quantities from 0 up to this limit (excluded) have a cached rendering.
+     */
+    private static final int CACHED_QUANTITIES = 1 << 16;
+
+    /**
+     * Lazily filled; a racy publication is harmless, as Strings are immutable.
+     */
+    private static final String[] quantityStrings = new String[CACHED_QUANTITIES];
+
+    private final String key;
+
+    private final String command;
+
+    /**
+     * The quantity, already rendered; null for a DELETE.
+     */
+    private final String qty;
+
+    private CommandUpdate(String key, String command, String qty) {
+        this.key = key;
+        this.command = command;
+        this.qty = qty;
+    }
+
+    static CommandUpdate add(String key, int qty) {
+        return new CommandUpdate(key, ADD, toDecimal(qty));
+    }
+
+    static CommandUpdate update(String key, int qty) {
+        return new CommandUpdate(key, UPDATE, toDecimal(qty));
+    }
+
+    static CommandUpdate delete(String key) {
+        return new CommandUpdate(key, DELETE, null);
+    }
+
+    /**
+     * Renders a quantity, reusing the cached String where possible.
+     */
+    static String toDecimal(int qty) {
+        if (qty < 0 || qty >= CACHED_QUANTITIES) {
+            return String.valueOf(qty);
+        }
+        String cached = quantityStrings[qty];
+        if (cached == null) {
+            cached = String.valueOf(qty);
+            quantityStrings[qty] = cached;
+        }
+        return cached;
+    }
+
+    @Override
+    public int size() {
+        return qty == null ? 2 : 3;
+    }
+
+    @Override
+    public String get(Object field) {
+        if (KEY_FIELD.equals(field)) {
+            return key;
+        } else if (COMMAND_FIELD.equals(field)) {
+            return command;
+        } else if (QTY_FIELD.equals(field)) {
+            return qty;
+        } else {
+            return null;
+        }
+    }
+
+    @Override
+    public boolean containsKey(Object field) {
+        return KEY_FIELD.equals(field) || COMMAND_FIELD.equals(field)
+                || (qty != null && QTY_FIELD.equals(field));
+    }
+
+    @Override
+    public Set<Map.Entry<String, String>> entrySet() {
+        // only needed by generic Map clients; not used on the update path
+        return new AbstractSet<Map.Entry<String, String>>() {
+            public int size() {
+                return CommandUpdate.this.size();
+            }
+            public Iterator<Map.Entry<String, String>> iterator() {
+                return new Iterator<Map.Entry<String, String>>() {
+                    private int next = 0;
+                    public boolean hasNext() {
+                        return next < size();
+                    }
+                    public Map.Entry<String, String> next() {
+                        if (! hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        switch (next++) {
+                        case 0:
+                            return new AbstractMap.SimpleImmutableEntry<String, String>(KEY_FIELD, key);
+                        case 1:
+                            return new AbstractMap.SimpleImmutableEntry<String, String>(COMMAND_FIELD, command);
+                        default:
+                            return new AbstractMap.SimpleImmutableEntry<String, String>(QTY_FIELD, qty);
+                        }
+                    }
+                };
+            }
+        };
+    }
+
+}
@@ -0,0 +1,171 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.lightstreamer.examples.portfolio_demo.adapters;
+
+import com.lightstreamer.examples.portfolio_demo.feed_simulator.Order;
+import com.lightstreamer.examples.portfolio_demo.feed_simulator.SymbolRegistry;
+import com.lightstreamer.examples.portfolio_demo.feed_simulator.Universe;
+
+/**
+ * Parses the orders sent by the clients, in the form
+ * "BUY|portfolio1|item2|100" (or "SELL|..."), by scanning the message
+ * in place: the portfolio and the stock are resolved to their ordinals
+ * in the universe and the quantity is parsed directly, so that no
+ * intermediate array or substring is created.
+ * Thread safe, as it holds no state other than the universe.
+ */
+final class OrderCodec {
+
+    static final int OK = 0;
+    static final int WRONG_FORMAT = 1;
+    static final int WRONG_QUANTITY = 2;
+    static final int UNKNOWN_PORTFOLIO = 3;
+    static final int WRONG_OPERATION = 4;
+    static final int UNKNOWN_STOCK = 5;
+    static final int NOT_POSITIVE_QUANTITY = 6;
+
+    /**
+     * Receives the parsed fields of an order; reusable.
+     */
+    static final class ParsedOrder {
+        Order.Side side;
+        int portfolio;
+        int stock;
+        int qty;
+        // bounds of the stock field, for diagnostic purpose
+        int stockStart;
+        int stockEnd;
+    }
+
+    private final SymbolRegistry portfolios;
+
+    private final SymbolRegistry stocks;
+
+    OrderCodec(Universe universe) {
+        this.portfolios = universe.getPortfolios();
+        this.stocks = universe.getStocks();
+    }
+
+    SymbolRegistry getPortfolios() {
+        return portfolios;
+    }
+
+    SymbolRegistry getStocks() {
+        return stocks;
+    }
+
+    /**
+     * Parses the order found in the specified region of a message.
+     * The checks are performed in the same sequence as in the original
+     * parsing by String.split: number of fields, quantity, portfolio,
+     * operation, stock.
+     * A quantity not greater than 0 is reported as soon as the quantity
+     * is parsed, before the other checks, as the original parsing would
+     * ignore such an order at that point; then only the quantity is set.
+     *
+     * @return OK or the code of the first error found.
+     */
+    int parse(String message, int start, int end, ParsedOrder order) {
+        // trailing empty fields are ignored, as String.split would do
+        while (end > start && message.charAt(end - 1) == '|') {
+            end--;
+        }
+        int sep1 = indexOf(message, '|', start, end);
+        int sep2 = sep1 < 0 ? -1 : indexOf(message, '|', sep1 + 1, end);
+        int sep3 = sep2 < 0 ? -1 : indexOf(message, '|', sep2 + 1, end);
+        if (sep3 < 0 || indexOf(message, '|', sep3 + 1, end) >= 0) {
+            return WRONG_FORMAT;
+        }
+
+        if (! parseQuantity(message, sep3 + 1, end, order)) {
+            return WRONG_QUANTITY;
+        }
+        if (order.qty <= 0) {
+            return NOT_POSITIVE_QUANTITY;
+        }
+
+        order.portfolio = portfolios.ordinalOf(message, sep1 + 1, sep2);
+        if (order.portfolio < 0) {
+            return UNKNOWN_PORTFOLIO;
+        }
+
+        int verbLength = sep1 - start;
+        if (verbLength == 3 && message.startsWith("BUY", start)) {
+            order.side = Order.Side.BUY;
+        } else if (verbLength == 4 && message.startsWith("SELL", start)) {
+            order.side = Order.Side.SELL;
+        } else {
+            return WRONG_OPERATION;
+        }
+
+        order.stockStart = sep2 + 1;
+        order.stockEnd = sep3;
+        order.stock = stocks.ordinalOf(message, sep2 + 1, sep3);
+        if (order.stock < 0) {
+            return UNKNOWN_STOCK;
+        }
+        return OK;
+    }
+
+    private static int indexOf(String message, char c, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (message.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Parses a decimal int, with an optional sign, as Integer.parseInt does.
+     */
+    private static boolean parseQuantity(String message, int start, int end, ParsedOrder order) {
+        if (start >= end) {
+            return false;
+        }
+        boolean negative = false;
+        int i = start;
+        char first = message.charAt(i);
+        if (first == '-' || first == '+') {
+            negative = (first == '-');
+            i++;
+            if (i == end) {
+                return false;
+            }
+        }
+        // accumulate negatively, to cover Integer.MIN_VALUE
+        int limit = negative ? Integer.MIN_VALUE : -Integer.MAX_VALUE;
+        int result = 0;
+        for (; i < end; i++) {
+            int digit = message.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return false;
+            }
+            if (result < limit / 10) {
+                return false;
+            }
+            result *= 10;
+            if (result < limit + digit) {
+                return false;
+            }
+            result -= digit;
+        }
+        order.qty = negative ? result : -result;
+        return true;
+    }
+
+}
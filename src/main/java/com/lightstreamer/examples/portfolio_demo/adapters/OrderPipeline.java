@@ -0,0 +1,100 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.lightstreamer.examples.portfolio_demo.adapters;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.lightstreamer.examples.portfolio_demo.feed_simulator.ThreadMode;
+
+/**
+ * Runs the processing of the orders on a fixed set of workers, each one
+ * with a bounded queue of pending orders. All the orders for a portfolio
+ * are routed to the same worker, hence they are processed one at a time
+ * and in arrival order. When the queue of a worker is full, further
+ * orders for its portfolios are refused, rather than accumulated.
+ */
+final class OrderPipeline {
+
+    private static final long WORKER_KEEP_ALIVE_SECONDS = 60;
+
+    private final ThreadPoolExecutor[] workers;
+
+    private final int queueDepth;
+
+    OrderPipeline(String name, ThreadMode threadMode, int workerCount, int queueDepth) {
+        if (workerCount <= 0 || queueDepth <= 0) {
+            throw new IllegalArgumentException("At least one worker and one queue slot are needed");
+        }
+        this.queueDepth = queueDepth;
+        workers = new ThreadPoolExecutor[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            // a single thread ensures the ordering; it is allowed to expire
+            // when the worker is idle; a full queue causes a rejection
+            workers[i] = new ThreadPoolExecutor(1, 1,
+                    WORKER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(queueDepth),
+                    threadMode.newThreadFactory(name + " worker " + (i + 1)),
+                    new ThreadPoolExecutor.AbortPolicy());
+            workers[i].allowCoreThreadTimeOut(true);
+        }
+    }
+
+    int getWorkerCount() {
+        return workers.length;
+    }
+
+    int getQueueDepth() {
+        return queueDepth;
+    }
+
+    /**
+     * Enqueues a task for the worker of the specified portfolio.
+     *
+     * @throws RejectedExecutionException if the worker queue is full.
+     */
+    void submit(String portfolioId, Runnable task) throws RejectedExecutionException {
+        int hash = portfolioId.hashCode();
+        // spread the higher bits, as similar ids tend to differ in the last chars only
+        hash ^= (hash >>> 16);
+        workers[(hash & 0x7FFFFFFF) % workers.length].execute(task);
+    }
+
+    /**
+     * Stops the workers; the orders already enqueued are still processed,
+     * whereas new ones are refused.
+     */
+    void shutdown() {
+        for (ThreadPoolExecutor worker : workers) {
+            worker.shutdown();
+        }
+    }
+
+    /**
+     * Returns the number of orders waiting in all the queues.
+     */
+    int getPendingCount() {
+        int count = 0;
+        for (ThreadPoolExecutor worker : workers) {
+            count += worker.getQueue().size();
+        }
+        return count;
+    }
+
+}
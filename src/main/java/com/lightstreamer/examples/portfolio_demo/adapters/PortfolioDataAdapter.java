@@ -17,17 +17,20 @@
 package com.lightstreamer.examples.portfolio_demo.adapters;
 
 import java.io.File;
-import java.util.HashMap;
+import java.io.IOException;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import com.lightstreamer.examples.portfolio_demo.feed_simulator.FeedConfiguration;
+import com.lightstreamer.examples.portfolio_demo.feed_simulator.OrderTrace;
 import com.lightstreamer.examples.portfolio_demo.feed_simulator.Portfolio;
 import com.lightstreamer.examples.portfolio_demo.feed_simulator.PortfolioFeedSimulator;
 import com.lightstreamer.examples.portfolio_demo.feed_simulator.PortfolioListener;
+import com.lightstreamer.examples.portfolio_demo.feed_simulator.PortfolioSnapshot;
 
 import com.lightstreamer.interfaces.data.DataProviderException;
 import com.lightstreamer.interfaces.data.FailureException;
@@ -60,14 +63,9 @@ public class PortfolioDataAdapter implements SmartDataProvider {
 
     /**
      * A map containing every active subscriptions;
-     * It associates each item name with the item handle to be used
-     * to identify the item towards Lightstreamer Kernel.
-     */
-    private final ConcurrentHashMap<String, Object> subscriptions =
-        new ConcurrentHashMap<String, Object>();
-    /**
-     * A map containing every active subscriptions;
-     * It associates each item name with the listener supplied to the feed.
+     * It associates each item name with the listener supplied to the feed,
+     * which holds the item handle to be used to identify the item towards
+     * Lightstreamer Kernel.
      */
     private final ConcurrentHashMap<String, MyPortfolioListener> listeners =
         new ConcurrentHashMap<String, MyPortfolioListener>();
@@ -77,6 +75,12 @@ public class PortfolioDataAdapter implements SmartDataProvider {
      */
     private PortfolioFeedSimulator feed;
 
+    /**
+     * Counts the updates sent to the kernel, as the metric
+     * "[adapter name].smartUpdates" of the feed.
+     */
+    private LongAdder smartUpdates;
+
     public PortfolioDataAdapter() {
     }
 
@@ -92,8 +96,29 @@ public class PortfolioDataAdapter implements SmartDataProvider {
         // Read the Adapter Set name, which is supplied by the Server as a parameter
         String adapterSetId = (String) params.get("adapters_conf.id");
 
+        // Read the feed configuration (thread mode, universe, ...);
+        // this only matters for the first Data Adapter that starts the feed
+        FeedConfiguration config;
+        try {
+            config = FeedConfiguration.fromParams(params, configDir);
+        } catch (IllegalArgumentException | IOException e) {
+            throw new DataProviderException(e.getMessage());
+        }
+
         // "Bind" to the feed simulator
-        feed = PortfolioFeedSimulator.start(adapterSetId);
+        try {
+            feed = PortfolioFeedSimulator.start(adapterSetId, config);
+        } catch (IllegalStateException e) {
+            // the saved portfolios could not be recovered
+            throw new DataProviderException(e.getMessage());
+        }
+
+        // Account for the updates under the name of this Data Adapter
+        String adapterName = (String) params.get("data_provider.name");
+        if (adapterName == null) {
+            adapterName = "PortfolioDataAdapter";
+        }
+        smartUpdates = feed.getMetrics().counter(adapterName + ".smartUpdates");
 
         // Adapter ready
         logger.info("PortfolioDataAdapter ready");
@@ -113,7 +138,6 @@ public class PortfolioDataAdapter implements SmartDataProvider {
     public void subscribe(String portfolioId, Object handle, boolean arg2)
             throws SubscriptionException, FailureException {
 
-        assert(! subscriptions.containsKey(portfolioId));
         assert(! listeners.containsKey(portfolioId));
 
         Portfolio portfolio = feed.getPortfolio(portfolioId);
@@ -123,12 +147,11 @@ public class PortfolioDataAdapter implements SmartDataProvider {
                     + portfolioId);
         }
 
-        // Add the new item to the list of subscribed items
-        subscriptions.put(portfolioId, handle);
-
         // Create a new listener for the portfolio
         MyPortfolioListener listener = new MyPortfolioListener(
                 handle, portfolioId);
+
+        // Add the new item to the list of subscribed items
         listeners.put(portfolioId, listener);
 
         // Set the listener on the feed
@@ -140,77 +163,79 @@ public class PortfolioDataAdapter implements SmartDataProvider {
     public void unsubscribe(String portfolioId)
             throws SubscriptionException, FailureException {
 
-        assert(subscriptions.containsKey(portfolioId));
         assert(listeners.containsKey(portfolioId));
 
         Portfolio portfolio = feed.getPortfolio(portfolioId);
         assert(portfolio != null);
 
+        // Remove the item from the list of subscribed items and mark
+        // its listener, so that any late call from the feed is ignored
+        MyPortfolioListener listener = listeners.remove(portfolioId);
+        listener.subscribed = false;
+
         // Remove the listener from the feed to not receive new
         // updates
-        portfolio.removeListener(listeners.get(portfolioId));
-
-        // Remove the handle from the list of subscribed items
-        subscriptions.remove(portfolioId);
-        listeners.remove(portfolioId);
+        portfolio.removeListener(listener);
 
         logger.info(portfolioId + " unsubscribed");
     }
 
-    private final boolean isSubscribed(Object handle) {
-        // Just check if a given handle is in the map of subscribed items
-        return subscriptions.contains(handle);
+    private final boolean isSubscribed(MyPortfolioListener source) {
+        // Just check the flag of the listener, rather than looking
+        // for its handle among the subscribed items
+        return source.subscribed;
     }
 
-    private void onUpdate(Object handle, String key, int qty) {
+    private void attach(MyPortfolioListener source) {
+        // Attach the listener again, as it was detached by the feed;
+        // the current contents will follow as a new snapshot
+        feed.getPortfolio(source.portfolioId).addListener(source);
+    }
+
+    private void detach(MyPortfolioListener source) {
+        // A late attachment may have raced with the unsubscription
+        feed.getPortfolio(source.portfolioId).removeListener(source);
+    }
+
+    private void onUpdate(MyPortfolioListener source, String key, int qty) {
         // An update was received from the feed
         // Check for late calls
-        if (isSubscribed(handle)) {
-            // Create a new HashMap instance that will represent the update
-            HashMap<String, String> update = new HashMap<String, String>();
-            // We have to set the key
-            update.put("key", key);
-            // The UPDATE command
-            update.put("command", "UPDATE");
-            // And the new quantity value
-            update.put("qty", String.valueOf(qty));
+        if (isSubscribed(source)) {
+            // Create a lightweight map that will represent the update,
+            // made of the key, the UPDATE command and the new quantity value
+            CommandUpdate update = CommandUpdate.update(key, qty);
 
             // Pass everything to the kernel
-            listener.smartUpdate(handle, update, false);
+            smartUpdates.increment();
+            listener.smartUpdate(source.handle, update, false);
         }
     }
 
-    private void onDelete(Object handle, String key) {
+    private void onDelete(MyPortfolioListener source, String key) {
         // An update was received from the feed
         // Check for late calls
-        if (isSubscribed(handle)) {
-            // Create a new HashMap instance that will represent the update
-            HashMap<String, String> update = new HashMap<String, String>();
-            // We just need the key
-            update.put("key", key);
-            // And the DELETE command
-            update.put("command", "DELETE");
+        if (isSubscribed(source)) {
+            // Create a lightweight map that will represent the update;
+            // we just need the key and the DELETE command
+            CommandUpdate update = CommandUpdate.delete(key);
 
             // Pass everything to the kernel
-            listener.smartUpdate(handle, update, false);
+            smartUpdates.increment();
+            listener.smartUpdate(source.handle, update, false);
         }
     }
 
-    private void onAdd(Object handle, String key, int qty, boolean snapshot) {
+    private void onAdd(MyPortfolioListener source, String key, int qty, boolean snapshot) {
         // An update for a new stock was received from the feed or the snapshot was read
         // Check for late calls
-        if (isSubscribed(handle)) {
-            // Create a new HashMap instance that will represent the update
-            HashMap<String, String> update = new HashMap<String, String>();
-            // We have to set the key
-            update.put("key", key);
-            // The ADD command
-            update.put("command", "ADD");
-            // And the initial quantity
-            update.put("qty", String.valueOf(qty));
+        if (isSubscribed(source)) {
+            // Create a lightweight map that will represent the update,
+            // made of the key, the ADD command and the initial quantity
+            CommandUpdate update = CommandUpdate.add(key, qty);
 
             // Pass everything to the kernel
-            listener.smartUpdate(handle, update, snapshot);
+            smartUpdates.increment();
+            listener.smartUpdate(source.handle, update, snapshot);
         }
 
     }
@@ -224,45 +249,54 @@ public class PortfolioDataAdapter implements SmartDataProvider {
         private Object handle;
         // Id of the portfolio, used just for the log
         private String portfolioId;
+        // Cleared upon unsubscription, to detect the late calls
+        private volatile boolean subscribed = true;
 
         public MyPortfolioListener(Object handle, String portfolioId) {
             this.handle = handle;
             this.portfolioId = portfolioId;
         }
 
-        public void update(String stock, int qty, int oldQty, Map<String, Integer> currentStatus) {
+        public void update(String stock, int qty, int oldQty, PortfolioSnapshot currentStatus) {
             // An update was received from the feed
             if (qty <= 0) {
                 // If qty is 0 or less we have to delete the "row"
-                onDelete(this.handle, stock);
-                logger.debug(this.portfolioId + ": deleted " + stock);
+                onDelete(this, stock);
+                // the message is only formatted if debug logging is enabled
+                logger.debug("{}: deleted {}", this.portfolioId, stock);
 
             } else if (oldQty == 0) {
                 // If oldQty value is 0 then this is a new stock
                 // in the portfolio so that we have to add a "row"
-                onAdd(this.handle, stock, qty, false);
-                logger.debug(this.portfolioId + ": added " + stock);
+                onAdd(this, stock, qty, false);
+                logger.debug("{}: added {}", this.portfolioId, stock);
 
             } else {
                 // A simple update
-                onUpdate(this.handle, stock, qty);
-                logger.debug(this.portfolioId + ": updated " + stock);
+                onUpdate(this, stock, qty);
+                logger.debug("{}: updated {}", this.portfolioId, stock);
             }
+            // Close the trace of the order that caused the change, if any
+            OrderTrace.published();
         }
 
-        public void onActualStatus(Map<String, Integer> currentStatus) {
+        public void onActualStatus(PortfolioSnapshot currentStatus) {
+            if (! isSubscribed(this)) {
+                // A late call, possibly due to a reattachment
+                detach(this);
+                return;
+            }
             // The snapshot was received from the feed
-            Set<String> keys = currentStatus.keySet();
-            // Iterates through the Hash representing the actual status to send
+            // Iterates through the stocks in the actual status to send
             // the snapshot to
             // the kernel
-            for (String key : keys) {
-                onAdd(handle, key, currentStatus.get(key).intValue(), true);
+            for (int i = 0; i < currentStatus.size(); i++) {
+                onAdd(this, currentStatus.getStock(i), currentStatus.getQuantity(i), true);
             }
             
             // Notify the end of snapshot to the kernel
             // Check for late calls
-            if (isSubscribed(handle)) {
+            if (isSubscribed(this)) {
                 listener.smartEndOfSnapshot(handle);
             }
 
@@ -275,6 +309,19 @@ public class PortfolioDataAdapter implements SmartDataProvider {
             
             logger.info(this.portfolioId + ": snapshot cleared");
         }
+
+        public void onDisconnected() {
+            //we could not keep up with the feed, so no more updates will come;
+            //rather than leaving a stale status, tell the server to clean it,
+            //then attach again, as all the backlog has been discarded,
+            //to send the current contents as a new snapshot
+            if (isSubscribed(this)) {
+                listener.smartClearSnapshot(handle);
+                attach(this);
+            }
+
+            logger.warn(this.portfolioId + ": disconnected from the feed, snapshot cleared and requested again");
+        }
     }
 
     public void subscribe(String portfolioId, boolean arg1)
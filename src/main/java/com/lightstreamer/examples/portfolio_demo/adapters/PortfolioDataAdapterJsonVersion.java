@@ -17,20 +17,21 @@
 package com.lightstreamer.examples.portfolio_demo.adapters;
 
 import java.io.File;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.io.IOException;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import com.lightstreamer.examples.portfolio_demo.feed_simulator.FeedConfiguration;
+import com.lightstreamer.examples.portfolio_demo.feed_simulator.OrderTrace;
 import com.lightstreamer.examples.portfolio_demo.feed_simulator.Portfolio;
 import com.lightstreamer.examples.portfolio_demo.feed_simulator.PortfolioFeedSimulator;
 import com.lightstreamer.examples.portfolio_demo.feed_simulator.PortfolioListener;
+import com.lightstreamer.examples.portfolio_demo.feed_simulator.PortfolioSnapshot;
 
 import com.lightstreamer.interfaces.data.DataProviderException;
 import com.lightstreamer.interfaces.data.DiffAlgorithm;
@@ -48,6 +49,20 @@ import com.lightstreamer.interfaces.data.SubscriptionException;
  * This example demonstrates how a Data Adapter could interoperate with
  * an external feed; in this example, the feed provides a bean object
  * for each single portfolio instance.
+ *
+ * Optionally (see the "precomputed_patches" parameter), each update also
+ * carries a "patch" field, with the RFC 6902 JSON Patch that turns the
+ * previous document into the new one. As the feed tells which stock has
+ * changed, the patch is built directly and its size is constant; a client
+ * can subscribe to "patch" instead of "json" and apply the patches to the
+ * document received upon snapshot (in the snapshot, "patch" replaces the
+ * whole document), but only through an unfiltered subscription (in RAW
+ * mode, or in DISTINCT mode with unfiltered frequency): each patch only
+ * applies to the document left by the previous one, hence no update can
+ * be filtered or conflated, as may happen in MERGE mode; otherwise, the
+ * client has to use "json". Note that the Server still handles "json" as
+ * a whole, as the Data Adapter interface cannot supply a precomputed diff
+ * for it.
  */
 public class PortfolioDataAdapterJsonVersion implements SmartDataProvider {
 
@@ -64,14 +79,9 @@ public class PortfolioDataAdapterJsonVersion implements SmartDataProvider {
 
     /**
      * A map containing every active subscriptions;
-     * It associates each item name with the item handle to be used
-     * to identify the item towards Lightstreamer Kernel.
-     */
-    private final ConcurrentHashMap<String, Object> subscriptions =
-        new ConcurrentHashMap<String, Object>();
-    /**
-     * A map containing every active subscriptions;
-     * It associates each item name with the listener supplied to the feed.
+     * It associates each item name with the listener supplied to the feed,
+     * which holds the item handle to be used to identify the item towards
+     * Lightstreamer Kernel.
      */
     private final ConcurrentHashMap<String, MyPortfolioListener> listeners =
         new ConcurrentHashMap<String, MyPortfolioListener>();
@@ -81,6 +91,17 @@ public class PortfolioDataAdapterJsonVersion implements SmartDataProvider {
      */
     private PortfolioFeedSimulator feed;
 
+    /**
+     * Counts the updates sent to the kernel, as the metric
+     * "[adapter name].smartUpdates" of the feed.
+     */
+    private LongAdder smartUpdates;
+
+    /**
+     * Whether the "patch" field has to be supplied.
+     */
+    private boolean precomputedPatches;
+
     public PortfolioDataAdapterJsonVersion() {
     }
 
@@ -96,8 +117,32 @@ public class PortfolioDataAdapterJsonVersion implements SmartDataProvider {
         // Read the Adapter Set name, which is supplied by the Server as a parameter
         String adapterSetId = (String) params.get("adapters_conf.id");
 
+        // Read the feed configuration (thread mode, universe, ...);
+        // this only matters for the first Data Adapter that starts the feed
+        FeedConfiguration config;
+        try {
+            config = FeedConfiguration.fromParams(params, configDir);
+        } catch (IllegalArgumentException | IOException e) {
+            throw new DataProviderException(e.getMessage());
+        }
+
         // "Bind" to the feed simulator
-        feed = PortfolioFeedSimulator.start(adapterSetId);
+        try {
+            feed = PortfolioFeedSimulator.start(adapterSetId, config);
+        } catch (IllegalStateException e) {
+            // the saved portfolios could not be recovered
+            throw new DataProviderException(e.getMessage());
+        }
+
+        // Account for the updates under the name of this Data Adapter
+        String adapterName = (String) params.get("data_provider.name");
+        if (adapterName == null) {
+            adapterName = "PortfolioDataAdapterJsonVersion";
+        }
+        smartUpdates = feed.getMetrics().counter(adapterName + ".smartUpdates");
+
+        // Read whether to supply the JSON Patches in the "patch" field
+        precomputedPatches = "Y".equalsIgnoreCase((String) params.get("precomputed_patches"));
 
         // Adapter ready
         logger.info("PortfolioDataAdapter ready");
@@ -117,7 +162,6 @@ public class PortfolioDataAdapterJsonVersion implements SmartDataProvider {
     public void subscribe(String portfolioId, Object handle, boolean arg2)
             throws SubscriptionException, FailureException {
 
-        assert(! subscriptions.containsKey(portfolioId));
         assert(! listeners.containsKey(portfolioId));
 
         Portfolio portfolio = feed.getPortfolio(portfolioId);
@@ -137,7 +181,6 @@ public class PortfolioDataAdapterJsonVersion implements SmartDataProvider {
                 handle, portfolioId);
 
         // Add the new item to the list of subscribed items
-        subscriptions.put(portfolioId, handle);
         listeners.put(portfolioId, listener);
 
         // Set the listener on the feed
@@ -149,60 +192,56 @@ public class PortfolioDataAdapterJsonVersion implements SmartDataProvider {
     public void unsubscribe(String portfolioId)
             throws SubscriptionException, FailureException {
 
-        assert(subscriptions.containsKey(portfolioId));
         assert(listeners.containsKey(portfolioId));
 
         Portfolio portfolio = feed.getPortfolio(portfolioId);
         assert(portfolio != null);
 
+        // Remove the item from the list of subscribed items and mark
+        // its listener, so that any late call from the feed is ignored
+        MyPortfolioListener listener = listeners.remove(portfolioId);
+        listener.subscribed = false;
+
         // Remove the listener from the feed to not receive new
         // updates
-        portfolio.removeListener(listeners.get(portfolioId));
-
-        // Remove the handle from the list of subscribed items
-        subscriptions.remove(portfolioId);
-        listeners.remove(portfolioId);
+        portfolio.removeListener(listener);
 
         logger.info(portfolioId + " unsubscribed");
     }
 
-    private final boolean isSubscribed(Object handle) {
-        // Just check if a given handle is in the map of subscribed items
-        return subscriptions.contains(handle);
+    private final boolean isSubscribed(MyPortfolioListener source) {
+        // Just check the flag of the listener, rather than looking
+        // for its handle among the subscribed items
+        return source.subscribed;
+    }
+
+    private void attach(MyPortfolioListener source) {
+        // Attach the listener again, as it was detached by the feed;
+        // the current contents will follow as a new snapshot
+        feed.getPortfolio(source.portfolioId).addListener(source);
+    }
+
+    private void detach(MyPortfolioListener source) {
+        // A late attachment may have raced with the unsubscription
+        feed.getPortfolio(source.portfolioId).removeListener(source);
     }
 
-    private void onUpdate(Object handle, String portfolioJson, boolean isSnapshot) {
+    private void onUpdate(MyPortfolioListener source, String portfolioJson, String portfolioPatch, boolean isSnapshot) {
         // Check for late calls
-        if (isSubscribed(handle)) {
+        if (isSubscribed(source)) {
             // Create a new HashMap instance that will represent the update
             HashMap<String, String> update = new HashMap<String, String>();
             update.put("json", portfolioJson);
+            if (precomputedPatches) {
+                update.put("patch", portfolioPatch);
+            }
             // Pass everything to the kernel
-            listener.smartUpdate(handle, update, isSnapshot);
+            smartUpdates.increment();
+            listener.smartUpdate(source.handle, update, isSnapshot);
         }
 
     }
 
-    private String toJson(String portfolioId, Map<String, Integer> currentStatus) {
-        // create json from portfolio
-        String portfolioJson = "{ \"" + portfolioId + "\": [";
-
-        Set<String> keys = currentStatus.keySet();
-        // order by item name (optional step)
-        List<String> keyList = new ArrayList<>(keys);
-        Collections.sort(keyList);
-        // Iterates through the Hash representing the actual status
-        for (String key : keyList) {
-            Integer qty = currentStatus.get(key);
-            portfolioJson += "{ \"symbol\": \"" + key + "\", \"quantity\": " + qty.intValue() + " },";
-        }
-        if (! keyList.isEmpty()) {
-            portfolioJson = portfolioJson.substring(0, portfolioJson.length() - 1);
-        }
-        portfolioJson += "]}";
-        return portfolioJson;
-    }
-
     /**
      * Inner class that listens to a single Portfolio.
      */
@@ -212,28 +251,50 @@ public class PortfolioDataAdapterJsonVersion implements SmartDataProvider {
         private Object handle;
         // Id of the portfolio, used just for the log
         private String portfolioId;
+        // Cleared upon unsubscription, to detect the late calls
+        private volatile boolean subscribed = true;
+        // Keeps the json representation of the portfolio up to date;
+        // the calls to the listener are never concurrent
+        private final PortfolioJsonEncoder encoder;
 
         public MyPortfolioListener(Object handle, String portfolioId) {
             this.handle = handle;
             this.portfolioId = portfolioId;
+            this.encoder = new PortfolioJsonEncoder(portfolioId);
         }
 
-        public void update(String stock, int qty, int oldQty, Map<String, Integer> currentStatus) {
+        public void update(String stock, int qty, int oldQty, PortfolioSnapshot currentStatus) {
             // An update was received from the feed
-            // create json from portfolio
-            String portfolioJson = toJson(portfolioId, currentStatus);
-            onUpdate(handle, portfolioJson, false);
+            // re-render only the changed entry, then create json from portfolio
+            String portfolioPatch = null;
+            if (precomputedPatches) {
+                // also express the change as a JSON Patch
+                portfolioPatch = encoder.applyAsPatch(stock, qty);
+            } else {
+                encoder.apply(stock, qty);
+            }
+            String portfolioJson = encoder.toJson();
+            onUpdate(this, portfolioJson, portfolioPatch, false);
+            // Close the trace of the order that caused the change, if any
+            OrderTrace.published();
         }
 
-        public void onActualStatus(Map<String, Integer> currentStatus) {
+        public void onActualStatus(PortfolioSnapshot currentStatus) {
+            if (! isSubscribed(this)) {
+                // A late call, possibly due to a reattachment
+                detach(this);
+                return;
+            }
             // The snapshot was received from the feed
             // create json from portfolio
-            String portfolioJson = toJson(portfolioId, currentStatus);
-            onUpdate(handle, portfolioJson, true);
+            encoder.reset(currentStatus);
+            String portfolioJson = encoder.toJson();
+            String portfolioPatch = precomputedPatches ? encoder.toPatch() : null;
+            onUpdate(this, portfolioJson, portfolioPatch, true);
 
             // Notify the end of snapshot to the kernel
             // Check for late calls
-            if (isSubscribed(handle)) {
+            if (isSubscribed(this)) {
                 listener.smartEndOfSnapshot(handle);
             }
 
@@ -242,10 +303,25 @@ public class PortfolioDataAdapterJsonVersion implements SmartDataProvider {
 
         public void empty() {
             //tell the server to clean its status
+            encoder.clear();
             listener.smartClearSnapshot(handle);
             
             logger.info(this.portfolioId + ": snapshot cleared");
         }
+
+        public void onDisconnected() {
+            //we could not keep up with the feed, so no more updates will come;
+            //rather than leaving a stale status, tell the server to clean it,
+            //then attach again, as all the backlog has been discarded,
+            //to send the current contents as a new snapshot
+            encoder.clear();
+            if (isSubscribed(this)) {
+                listener.smartClearSnapshot(handle);
+                attach(this);
+            }
+
+            logger.warn(this.portfolioId + ": disconnected from the feed, snapshot cleared and requested again");
+        }
     }
 
     public void subscribe(String portfolioId, boolean arg1)
@@ -0,0 +1,216 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.lightstreamer.examples.portfolio_demo.adapters;
+
+import java.util.Arrays;
+
+import com.lightstreamer.examples.portfolio_demo.feed_simulator.PortfolioSnapshot;
+
+/**
+ * Builds the JSON representation of a portfolio, in the form
+ * { "portfolio1": [{ "symbol": "item1", "quantity": 100 }, ...]},
+ * with the entries ordered by symbol.
+ * The encoder keeps the ordered symbols and the rendered entries across
+ * updates, so that each update only re-renders the changed entry and the
+ * document is then written in a single pass on a reusable buffer.
+ * As it knows the position of each entry, the encoder can also express
+ * each change as a RFC 6902 JSON Patch, whose size doesn't depend on the
+ * size of the portfolio.
+ * Not thread safe; each portfolio listener owns its encoder.
+ */
+class PortfolioJsonEncoder {
+
+    private static final int MIN_CAPACITY = 16;
+
+    /**
+     * The document header, which contains the portfolio id.
+     */
+    private final String header;
+
+    /**
+     * The JSON Pointer to the array of entries, followed by a "/",
+     * already escaped as a JSON string content.
+     */
+    private final String pathPrefix;
+
+    /**
+     * The symbols currently in the portfolio, in ascending order.
+     */
+    private String[] symbols = new String[MIN_CAPACITY];
+
+    /**
+     * The rendered entries, in the same order.
+     */
+    private String[] entries = new String[MIN_CAPACITY];
+
+    private int count = 0;
+
+    private final StringBuilder buffer = new StringBuilder();
+
+    public PortfolioJsonEncoder(String portfolioId) {
+        header = "{ \"" + escape(portfolioId) + "\": [";
+        pathPrefix = escape("/" + portfolioId.replace("~", "~0").replace("/", "~1") + "/");
+    }
+
+    /**
+     * Replaces the whole contents with the supplied snapshot,
+     * which is already ordered by symbol.
+     */
+    public void reset(PortfolioSnapshot snapshot) {
+        count = 0;
+        ensureCapacity(snapshot.size());
+        for (int i = 0; i < snapshot.size(); i++) {
+            symbols[i] = snapshot.getStock(i);
+            entries[i] = renderEntry(symbols[i], snapshot.getQuantity(i));
+        }
+        Arrays.fill(symbols, snapshot.size(), symbols.length, null);
+        Arrays.fill(entries, snapshot.size(), entries.length, null);
+        count = snapshot.size();
+    }
+
+    /**
+     * Removes all the contents.
+     */
+    public void clear() {
+        Arrays.fill(symbols, 0, count, null);
+        Arrays.fill(entries, 0, count, null);
+        count = 0;
+    }
+
+    /**
+     * Applies the change of a single stock; a 0 quantity means that the
+     * stock was removed.
+     *
+     * @return the position of the changed entry in the array of entries.
+     */
+    public int apply(String symbol, int qty) {
+        int index = Arrays.binarySearch(symbols, 0, count, symbol);
+        if (qty <= 0) {
+            if (index >= 0) {
+                // remove the entry
+                System.arraycopy(symbols, index + 1, symbols, index, count - index - 1);
+                System.arraycopy(entries, index + 1, entries, index, count - index - 1);
+                count--;
+                symbols[count] = null;
+                entries[count] = null;
+            }
+            return index;
+        }
+
+        String entry = renderEntry(symbol, qty);
+        if (index >= 0) {
+            // just replace the entry
+            entries[index] = entry;
+            return index;
+        }
+
+        // insert the entry at its place
+        index = -(index + 1);
+        ensureCapacity(count + 1);
+        System.arraycopy(symbols, index, symbols, index + 1, count - index);
+        System.arraycopy(entries, index, entries, index + 1, count - index);
+        symbols[index] = symbol;
+        entries[index] = entry;
+        count++;
+        return index;
+    }
+
+    /**
+     * Applies the change of a single stock, as apply does, and returns
+     * the JSON Patch that turns the previous document into the new one:
+     * an "add" or a "remove" of the entry, or a "replace" of its quantity.
+     *
+     * @return the patch, or null if the document was not changed.
+     */
+    public String applyAsPatch(String symbol, int qty) {
+        boolean existing = Arrays.binarySearch(symbols, 0, count, symbol) >= 0;
+        int index = apply(symbol, qty);
+        if (qty <= 0) {
+            if (! existing) {
+                return null;
+            }
+            return "[{ \"op\": \"remove\", \"path\": \"" + pathPrefix + index + "\" }]";
+        } else if (existing) {
+            return "[{ \"op\": \"replace\", \"path\": \"" + pathPrefix + index
+                    + "/quantity\", \"value\": " + qty + " }]";
+        } else {
+            return "[{ \"op\": \"add\", \"path\": \"" + pathPrefix + index
+                    + "\", \"value\": " + entries[index] + " }]";
+        }
+    }
+
+    /**
+     * Returns a JSON Patch that replaces any document with the whole
+     * current document.
+     */
+    public String toPatch() {
+        return "[{ \"op\": \"replace\", \"path\": \"\", \"value\": " + toJson() + " }]";
+    }
+
+    /**
+     * Returns the whole document.
+     */
+    public String toJson() {
+        buffer.setLength(0);
+        buffer.append(header);
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                buffer.append(',');
+            }
+            buffer.append(entries[i]);
+        }
+        buffer.append("]}");
+        return buffer.toString();
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > symbols.length) {
+            int newLength = Math.max(capacity, symbols.length * 2);
+            symbols = Arrays.copyOf(symbols, newLength);
+            entries = Arrays.copyOf(entries, newLength);
+        }
+    }
+
+    private static String renderEntry(String symbol, int qty) {
+        return "{ \"symbol\": \"" + escape(symbol) + "\", \"quantity\": " + qty + " }";
+    }
+
+    /**
+     * Escapes the characters that cannot appear as such in a JSON string.
+     */
+    static String escape(String value) {
+        StringBuilder escaped = null;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\' || c < 0x20) {
+                if (escaped == null) {
+                    escaped = new StringBuilder(value.length() + 8);
+                    escaped.append(value, 0, i);
+                }
+                if (c == '"' || c == '\\') {
+                    escaped.append('\\').append(c);
+                } else {
+                    escaped.append(String.format("\\u%04x", (int) c));
+                }
+            } else if (escaped != null) {
+                escaped.append(c);
+            }
+        }
+        return escaped == null ? value : escaped.toString();
+    }
+
+}
@@ -18,16 +18,25 @@ package com.lightstreamer.examples.portfolio_demo.adapters;
 
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import com.lightstreamer.examples.portfolio_demo.feed_simulator.FeedConfiguration;
+import com.lightstreamer.examples.portfolio_demo.feed_simulator.Order;
+import com.lightstreamer.examples.portfolio_demo.feed_simulator.OrderOutcome;
+import com.lightstreamer.examples.portfolio_demo.feed_simulator.OrderTrace;
 import com.lightstreamer.examples.portfolio_demo.feed_simulator.Portfolio;
 import com.lightstreamer.examples.portfolio_demo.feed_simulator.PortfolioFeedSimulator;
+import com.lightstreamer.examples.portfolio_demo.feed_simulator.ThreadMode;
+import com.lightstreamer.examples.portfolio_demo.metrics.Metrics;
 
 import com.lightstreamer.adapters.metadata.LiteralBasedProvider;
 import com.lightstreamer.interfaces.metadata.CreditsException;
@@ -49,11 +58,37 @@ import com.lightstreamer.interfaces.metadata.NotificationException;
  */
 public class PortfolioMetadataAdapter extends LiteralBasedProvider {
 
+    /**
+     * Prefix of the messages that carry a batch of orders.
+     */
+    private static final String BATCH_PREFIX = "BATCH;";
+
     /**
      * The associated feed to which buy and sell operations will be forwarded.
      */
     private volatile PortfolioFeedSimulator portfolioFeed;
 
+    /**
+     * Parses the orders against the universe of the associated feed;
+     * set, once, when the feed is bound, after all the other
+     * feed-related fields, which it publishes.
+     */
+    private volatile OrderCodec orderCodec;
+
+    /**
+     * Metrics of the orders, taken from the registry of the feed;
+     * available together with the codec.
+     */
+    private LongAdder ordersReceived;
+
+    private LongAdder ordersRefused;
+
+    /**
+     * Runs the order processing, which is potentially blocking;
+     * shut down together with the feed.
+     */
+    private OrderPipeline orderPipeline;
+
     /**
      * Unique identification of the related Portfolio Data Adapter instance;
      * see feedMap on the PortfolioFeedSimulator.
@@ -90,6 +125,26 @@ public class PortfolioMetadataAdapter extends LiteralBasedProvider {
         // Read the Adapter Set name, which is supplied by the Server as a parameter
         this.adapterSetId = (String) params.get("adapters_conf.id");
 
+        // Read the kind of threads to be used for the order processing;
+        // with virtual threads, blocking order backends are cheaper;
+        // read also the number of workers and the maximum number of
+        // pending orders for each worker
+        ThreadMode threadMode;
+        int workerCount;
+        int queueDepth;
+        try {
+            threadMode = ThreadMode.fromParam((String) params.get("thread_mode"));
+            workerCount = FeedConfiguration.getInt(params, "order_workers",
+                    Runtime.getRuntime().availableProcessors(), 1);
+            queueDepth = FeedConfiguration.getInt(params, "order_queue_depth", 1000, 1);
+        } catch (IllegalArgumentException e) {
+            throw new MetadataProviderException(e.getMessage());
+        }
+        if (!threadMode.isSupported()) {
+            throw new MetadataProviderException("Thread mode " + threadMode + " requires Java 21 or later");
+        }
+        orderPipeline = new OrderPipeline("Portfolio orders", threadMode, workerCount, queueDepth);
+
         /*
          * Note: the PortfolioFeedSimulator instance cannot be looked for here
          * to initialize the "portfolioFeed" variable, because the Portfolio
@@ -98,42 +153,68 @@ public class PortfolioMetadataAdapter extends LiteralBasedProvider {
          * then we can store the reference for later use.
          */
 
-        logger.info("PortfolioMetadataAdapter ready");
+        logger.info("PortfolioMetadataAdapter ready (" + workerCount + " " + threadMode
+                + " order workers, " + queueDepth + " pending orders each)");
     }
 
-    private static ExecutorService messageProcessingPool = Executors.newCachedThreadPool();
-
     /**
      * Triggered by a client "sendMessage" call.
-     * The message encodes an order entry request by the client.
+     * The message encodes an order entry request by the client,
+     * in the form "BUY|portfolio1|item2|100" (or "SELL|...");
+     * the response is "SUBMITTED".
+     * A message can also carry a batch of orders, even for different
+     * portfolios, in the form "BATCH;BUY|portfolio1|item2|100;SELL|...";
+     * the orders for each portfolio are applied together and the response
+     * lists the outcome of each order, as in "EXECUTED;REJECTED;..."
+     * (see OrderOutcome).
      * In this basic implementation, the user is ignored,
      * we accept messages from any user to modify any portfolio;
      * session information is ignored too.
+     * The orders are accounted for in the metrics of the feed, as
+     * "orders.received" and "orders.refused", together with the gauge
+     * "orders.pending"; the order latency starts here.
+     * If configured on the feed, a sample of the orders is traced up to
+     * the resulting updates; see OrderTracer.
      */
     public CompletableFuture<String> notifyUserMessage(String user, String session, String message)
             throws NotificationException, CreditsException {
 
         //NOTE: since the order processing is potentially blocking (in a real scenario), we have 
-        //configured a dedicated ExecutorService. Moreover, to provide backpressure to the Server
-        //when the number of pending operations is too high, we have properly configured the
-        //messages thread pool in the adapters.xml configuration file for this adapter.
+        //configured a dedicated pipeline of workers. The pipeline is bounded, so, when the
+        //orders pile up, new orders are refused; moreover, to provide backpressure to the Server
+        //before this happens, we have properly configured the messages thread pool in the
+        //adapters.xml configuration file for this adapter.
+        //The parsing is performed here, as it is fast and it determines the portfolio,
+        //hence the worker in charge.
+
+        final long receivedNanos = System.nanoTime();
 
         if (message == null) {
             logger.warn("Null message received");
             throw new NotificationException("Null message received");
         }
 
-        CompletableFuture<String> future = new CompletableFuture<>();
-        messageProcessingPool.execute(() -> {
+        this.loadPortolioFeed();
+        if (message.startsWith(BATCH_PREFIX)) {
+            return this.handleBatchMessage(message, receivedNanos);
+        }
+
+        final OrderCodec.ParsedOrder order = this.parsePortfolioMessage(message);
+        if (order == null) {
+            // the order is ignored
+            return CompletableFuture.completedFuture("SUBMITTED");
+        }
+        final String portfolioId = this.orderCodec.getPortfolios().symbolOf(order.portfolio);
+        this.ordersReceived.increment();
+        final OrderTrace trace = this.portfolioFeed.getOrderTracer().sample(receivedNanos);
+
+        final CompletableFuture<String> future = new CompletableFuture<>();
+        this.submitToPipeline(portfolioId, 1, () -> {
             try {
-                String[] pieces = message.split("\\|");
-                this.loadPortolioFeed();
-                this.handlePortfolioMessage(pieces,message);
+                this.executeOrder(portfolioId, order, message, receivedNanos, trace);
                 future.complete("SUBMITTED");
             } catch (CreditsException e) {
                 future.completeExceptionally(e);
-            } catch (NotificationException e) {
-                future.completeExceptionally(e);
             } catch (Throwable t) {
                 future.completeExceptionally(t);
             }
@@ -143,82 +224,248 @@ public class PortfolioMetadataAdapter extends LiteralBasedProvider {
         return future;
     }
 
+    /**
+     * Hands a task to the pipeline worker in charge of the portfolio.
+     */
+    private void submitToPipeline(String portfolioId, int orderCount, Runnable task)
+            throws CreditsException {
+        try {
+            this.orderPipeline.submit(portfolioId, task);
+        } catch (RejectedExecutionException e) {
+            this.ordersRefused.add(orderCount);
+            logger.warn("Order for " + portfolioId + " refused, "
+                    + this.orderPipeline.getPendingCount() + " orders pending");
+            throw new CreditsException(2, "Too many pending orders",
+                    "Too many pending orders, please retry later");
+        }
+    }
+
     private void loadPortolioFeed() throws CreditsException {
-        if (this.portfolioFeed == null) {
-            try {
-                // Get the PortfolioFeedSimulator instance to bind it with this
-                // Metadata Adapter and call buy/sell operations on it
-                this.portfolioFeed = PortfolioFeedSimulator.feedMap
-                        .get(this.adapterSetId);
-            } catch (Throwable t) {
-                // It can happen if the Portfolio Data Adapter jar was not even
-                // included in the Adapter Set lib directory (the Portfolio
-                // Data Adapter could not be included in the Adapter Set as
-                // well)
-                logger.error("PortfolioDataAdapter class was not loaded: " + t);
-                throw new CreditsException(0, "No portfolio feed available",
-                        "No portfolio feed available");
-            }
+        if (this.orderCodec == null) {
+            this.bindPortfolioFeed();
+        }
+    }
 
-            if (this.portfolioFeed == null) {
-                // The feed is not yet available on the static map, maybe the
-                // Portfolio Data Adapter was not included in the Adapter Set
-                logger.error("PortfolioFeedSimulator not found");
-                throw new CreditsException(0, "No portfolio feed available",
-                        "No portfolio feed available");
-            }
+    /**
+     * Looks for the feed and sets up, once, all that depends on it:
+     * the codec, which needs its universe, and the metrics, which are
+     * registered on it; this cannot be done in init, as the Portfolio
+     * Data Adapter may be initialized later.
+     */
+    private synchronized void bindPortfolioFeed() throws CreditsException {
+        if (this.orderCodec != null) {
+            // bound by another thread meanwhile
+            return;
+        }
+        try {
+            // Get the PortfolioFeedSimulator instance to bind it with this
+            // Metadata Adapter and call buy/sell operations on it
+            this.portfolioFeed = PortfolioFeedSimulator.feedMap
+                    .get(this.adapterSetId);
+        } catch (Throwable t) {
+            // It can happen if the Portfolio Data Adapter jar was not even
+            // included in the Adapter Set lib directory (the Portfolio
+            // Data Adapter could not be included in the Adapter Set as
+            // well)
+            logger.error("PortfolioDataAdapter class was not loaded: " + t);
+            throw new CreditsException(0, "No portfolio feed available",
+                    "No portfolio feed available");
+        }
+
+        if (this.portfolioFeed == null) {
+            // The feed is not yet available on the static map, maybe the
+            // Portfolio Data Adapter was not included in the Adapter Set
+            logger.error("PortfolioFeedSimulator not found");
+            throw new CreditsException(0, "No portfolio feed available",
+                    "No portfolio feed available");
         }
+        Metrics metrics = this.portfolioFeed.getMetrics();
+        this.ordersReceived = metrics.counter("orders.received");
+        this.ordersRefused = metrics.counter("orders.refused");
+        metrics.gauge("orders.pending", () -> this.orderPipeline.getPendingCount());
+        // the workers are no longer needed once the feed is gone
+        this.portfolioFeed.onShutdown(this.orderPipeline::shutdown);
+        this.orderCodec = new OrderCodec(this.portfolioFeed.getUniverse());
     }
 
-    private void handlePortfolioMessage(String[] operation, String message)
+    /**
+     * Parses an order; returns null if the order has to be ignored.
+     */
+    private OrderCodec.ParsedOrder parsePortfolioMessage(String message)
         throws NotificationException, CreditsException {
-        if (operation.length != 4) {
+        // Scan the message in place; the portfolio and the stock
+        // are resolved to their ordinals without creating substrings
+        OrderCodec.ParsedOrder order = new OrderCodec.ParsedOrder();
+        switch (this.orderCodec.parse(message, 0, message.length(), order)) {
+        case OrderCodec.WRONG_FORMAT:
             logger.warn("Wrong message received: " + message);
             throw new NotificationException("Wrong message received");
-        }
-
-        int qty;
-        try {
-            // Parse the received quantity to be an integer
-            qty = Integer.parseInt(operation[3]);
-        } catch (NumberFormatException e) {
+        case OrderCodec.WRONG_QUANTITY:
             logger.warn("Wrong message received (quantity must be an integer number): "
                             + message);
             throw new NotificationException("Wrong message received");
-        }
-        if (qty <= 0) {
+        case OrderCodec.NOT_POSITIVE_QUANTITY:
             // Quantity can't be a negative number or 0; just ignore
             logger.warn("Wrong message received (quantity must be greater than 0): "
                             + message);
-            return;
+            return null;
+        case OrderCodec.UNKNOWN_PORTFOLIO:
+            // the portfolio ids are checked against the universe of the feed
+            logger.error("No such portfolio: " + message);
+            throw new CreditsException(0, "Portfolio not available",
+                    "Portfolio not available");
+        case OrderCodec.WRONG_OPERATION:
+            throw new NotificationException("Wrong operation specified");
+        case OrderCodec.UNKNOWN_STOCK:
+            String stock = message.substring(order.stockStart, order.stockEnd);
+            logger.warn("Not valid stock: " + stock);
+            throw new CreditsException(1, "Not valid stock to "
+                    + (order.side == Order.Side.BUY ? "buy: " : "sell: ") + stock);
+        default:
+            break;
         }
+        return order;
+    }
 
+    /**
+     * Executes a parsed order; invoked by a pipeline worker.
+     */
+    private void executeOrder(String portfolioId, OrderCodec.ParsedOrder order, String message,
+            long receivedNanos, OrderTrace trace) throws CreditsException {
         // get the needed portfolio
-        Portfolio portfolio = this.portfolioFeed.getPortfolio(operation[1]);
+        Portfolio portfolio = this.portfolioFeed.getPortfolio(portfolioId);
         if (portfolio == null) {
             // since the feed creates a new portfolio if no one is available for
             // an id, this will never occur
-            logger.error("No such portfolio: " + operation[1]);
+            logger.error("No such portfolio: " + message);
             throw new CreditsException(0, "Portfolio not available",
                     "Portfolio not available");
         }
-        if (operation[0].equals("BUY")) {
-            try {
+        try {
+            if (order.side == Order.Side.BUY) {
                 // Call the buy operation on the selected portfolio
-                portfolio.buy(operation[2], qty);
-            } catch (Exception e) {
-                throw new CreditsException(1, e.getMessage());
+                portfolio.buy(order.stock, order.qty, receivedNanos, trace);
+            } else {
+                // Call the sell operation on the selected portfolio
+                portfolio.sell(order.stock, order.qty, receivedNanos, trace);
             }
-        } else if (operation[0].equals("SELL")) {
+        } catch (Exception e) {
+            throw new CreditsException(1, e.getMessage());
+        }
+    }
+
+    /**
+     * Parses a batch and hands the orders for each portfolio
+     * to the pipeline worker in charge; the orders for a portfolio whose
+     * worker is saturated are rejected, unless this applies to all the
+     * portfolios, in which case the whole batch is refused.
+     */
+    private CompletableFuture<String> handleBatchMessage(String message, final long receivedNanos)
+        throws NotificationException, CreditsException {
+        // Find the boundaries of the orders, as String.split would do,
+        // hence ignoring the trailing empty orders
+        int end = message.length();
+        while (end > BATCH_PREFIX.length() && message.charAt(end - 1) == ';') {
+            end--;
+        }
+        if (end == BATCH_PREFIX.length()) {
+            logger.warn("Empty batch received: " + message);
+            throw new NotificationException("Empty batch received");
+        }
+        List<OrderOutcome> outcomes = new ArrayList<>();
+
+        // Group the orders by portfolio, keeping their sequence
+        // and remembering their position in the batch
+        Map<String, List<Order>> ordersByPortfolio = new LinkedHashMap<>();
+        Map<String, List<Integer>> positionsByPortfolio = new LinkedHashMap<>();
+        OrderCodec.ParsedOrder parsed = new OrderCodec.ParsedOrder();
+        int start = BATCH_PREFIX.length();
+        for (int i = 0; start <= end; i++) {
+            int next = message.indexOf(';', start);
+            if (next < 0 || next > end) {
+                next = end;
+            }
+            int result = this.orderCodec.parse(message, start, next, parsed);
+            if (result == OrderCodec.NOT_POSITIVE_QUANTITY) {
+                // the portfolio would reject it anyway
+                logger.warn("Not valid order in batch: " + message.substring(start, next));
+                outcomes.add(OrderOutcome.REJECTED);
+            } else if (result != OrderCodec.OK && result != OrderCodec.UNKNOWN_STOCK) {
+                logger.warn("Wrong order in batch: " + message.substring(start, next));
+                outcomes.add(OrderOutcome.REJECTED);
+            } else {
+                // an unknown stock is left to the portfolio, which rejects it
+                String stock = result == OrderCodec.OK
+                        ? this.orderCodec.getStocks().symbolOf(parsed.stock)
+                        : message.substring(parsed.stockStart, parsed.stockEnd);
+                Order order = new Order(parsed.side, stock,
+                        result == OrderCodec.OK ? parsed.stock : -1, parsed.qty);
+                String portfolioId = this.orderCodec.getPortfolios().symbolOf(parsed.portfolio);
+                ordersByPortfolio.computeIfAbsent(portfolioId, k -> new ArrayList<>()).add(order);
+                positionsByPortfolio.computeIfAbsent(portfolioId, k -> new ArrayList<>()).add(i);
+                outcomes.add(null);
+            }
+            start = next + 1;
+        }
+
+        this.ordersReceived.add(outcomes.size());
+
+        final OrderOutcome[] results = outcomes.toArray(new OrderOutcome[outcomes.size()]);
+        List<CompletableFuture<Void>> applied = new ArrayList<>();
+        CreditsException refusal = null;
+        for (Map.Entry<String, List<Order>> entry : ordersByPortfolio.entrySet()) {
+            final String portfolioId = entry.getKey();
+            final List<Order> orders = entry.getValue();
+            final List<Integer> positions = positionsByPortfolio.get(portfolioId);
+            final CompletableFuture<Void> done = new CompletableFuture<>();
+            Runnable task = () -> {
+                try {
+                    Portfolio portfolio = this.portfolioFeed.getPortfolio(portfolioId);
+                    if (portfolio == null) {
+                        logger.warn("No such portfolio in batch: " + portfolioId);
+                        for (int position : positions) {
+                            results[position] = OrderOutcome.REJECTED;
+                        }
+                    } else {
+                        // All the orders for the portfolio are applied at once
+                        OrderOutcome[] portfolioOutcomes = portfolio.applyBatch(orders, receivedNanos);
+                        for (int j = 0; j < portfolioOutcomes.length; j++) {
+                            results[positions.get(j)] = portfolioOutcomes[j];
+                        }
+                    }
+                    done.complete(null);
+                } catch (Throwable t) {
+                    done.completeExceptionally(t);
+                }
+            };
             try {
-                // Call the sell operation on the selected portfolio
-                portfolio.sell(operation[2], qty);
-            } catch (Exception e) {
-                throw new CreditsException(1, e.getMessage());
+                this.submitToPipeline(portfolioId, orders.size(), task);
+            } catch (CreditsException e) {
+                // only this part of the batch is affected
+                for (int position : positions) {
+                    results[position] = OrderOutcome.REJECTED;
+                }
+                refusal = e;
+                continue;
             }
-        } else {
-            throw new NotificationException("Wrong operation specified");
+            applied.add(done);
         }
+        if (applied.isEmpty() && refusal != null) {
+            // the whole batch was refused
+            throw refusal;
+        }
+
+        return CompletableFuture.allOf(applied.toArray(new CompletableFuture<?>[applied.size()]))
+            .thenApply(v -> {
+                StringBuilder response = new StringBuilder();
+                for (int i = 0; i < results.length; i++) {
+                    if (i > 0) {
+                        response.append(';');
+                    }
+                    response.append(results[i]);
+                }
+                return response.toString();
+            });
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,170 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.lightstreamer.examples.portfolio_demo.feed_simulator;
+
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Performs the calls to the portfolio listeners on behalf of all the
+ * portfolios of a feed.
+ * The calls are executed on a bounded set of worker lanes, each served
+ * by a single thread; every portfolio is bound to a lane by hashing its id,
+ * hence the calls related with the same portfolio are still performed
+ * in FIFO order, as a dedicated single thread executor would do.
+ * A lane thread is only started when some task is submitted and it is
+ * released after a period of inactivity, so that idle portfolios
+ * don't hold any thread at all.
+ * In VIRTUAL thread mode there are no lanes; each portfolio gets its own
+ * FIFO executor, which runs its tasks on virtual threads, so that
+ * a listener that blocks never delays the other portfolios.
+ * A single timer thread is also available for short delayed tasks;
+ * it is only started when first needed.
+ */
+public class DispatchScheduler {
+
+    /**
+     * Inactivity time after which the thread of a lane is released.
+     */
+    private static final long LANE_KEEP_ALIVE_SECONDS = 60;
+
+    /**
+     * The lanes in PLATFORM thread mode; empty in VIRTUAL thread mode.
+     */
+    private final ThreadPoolExecutor[] lanes;
+
+    /**
+     * The executor shared by all portfolios in VIRTUAL thread mode;
+     * null in PLATFORM thread mode.
+     */
+    private final ExecutorService virtualExecutor;
+
+    private final String name;
+
+    /**
+     * Runs the delayed tasks; created upon the first need.
+     */
+    private ScheduledExecutorService timer;
+
+    /**
+     * Creates a scheduler with one lane for each available core.
+     */
+    public DispatchScheduler(String name, ThreadMode threadMode) {
+        this(name, threadMode, Runtime.getRuntime().availableProcessors());
+    }
+
+    public DispatchScheduler(String name, ThreadMode threadMode, int laneCount) {
+        this.name = name;
+        if (threadMode == ThreadMode.VIRTUAL) {
+            virtualExecutor = threadMode.newPerTaskExecutor();
+            lanes = new ThreadPoolExecutor[0];
+            return;
+        }
+        if (laneCount <= 0) {
+            throw new IllegalArgumentException("At least one lane is needed");
+        }
+        virtualExecutor = null;
+        lanes = new ThreadPoolExecutor[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            lanes[i] = newLane(name + " lane " + (i + 1));
+        }
+    }
+
+    private static ThreadFactory newThreadFactory(final String threadName) {
+        return new ThreadFactory() {
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, threadName);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    private static ThreadPoolExecutor newLane(String threadName) {
+        ThreadFactory threadFactory = newThreadFactory(threadName);
+
+        // a single thread ensures a FIFO behaviour;
+        // it is allowed to expire when the lane is idle
+        ThreadPoolExecutor lane = new ThreadPoolExecutor(1, 1,
+                LANE_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), threadFactory);
+        lane.allowCoreThreadTimeOut(true);
+        return lane;
+    }
+
+    /**
+     * Returns the executor to be used for all the calls related with
+     * the specified portfolio; the executor performs the calls in FIFO
+     * order and it should be obtained only once for each portfolio.
+     */
+    public Executor laneFor(String portfolioId) {
+        if (virtualExecutor != null) {
+            return new SerialExecutor(virtualExecutor);
+        }
+        int hash = portfolioId.hashCode();
+        // spread the higher bits, as similar ids tend to differ in the last chars only
+        hash ^= (hash >>> 16);
+        return lanes[(hash & 0x7FFFFFFF) % lanes.length];
+    }
+
+    /**
+     * Runs a task after the specified delay; the task should be short
+     * and should hand any notification to a lane.
+     */
+    public void schedule(Runnable task, long delayMillis) {
+        ScheduledExecutorService currTimer;
+        synchronized (this) {
+            if (timer == null) {
+                ScheduledThreadPoolExecutor newTimer =
+                    new ScheduledThreadPoolExecutor(1, newThreadFactory(name + " timer"));
+                newTimer.setRemoveOnCancelPolicy(true);
+                timer = newTimer;
+            }
+            currTimer = timer;
+        }
+        currTimer.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public int getLaneCount() {
+        return lanes.length;
+    }
+
+    /**
+     * Stops all the lanes; the already enqueued calls are still performed.
+     */
+    public void shutdown() {
+        for (ThreadPoolExecutor lane : lanes) {
+            lane.shutdown();
+        }
+        if (virtualExecutor != null) {
+            virtualExecutor.shutdown();
+        }
+        synchronized (this) {
+            if (timer != null) {
+                timer.shutdown();
+            }
+        }
+    }
+
+}
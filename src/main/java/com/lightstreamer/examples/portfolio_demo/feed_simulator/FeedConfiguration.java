@@ -0,0 +1,358 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.lightstreamer.examples.portfolio_demo.feed_simulator;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.lightstreamer.examples.portfolio_demo.metrics.LoggingExporter;
+import com.lightstreamer.examples.portfolio_demo.metrics.MetricsExporter;
+
+/**
+ * Collects the settings of a feed, as read from the parameters
+ * of the Data Adapter that starts it:
+ * <ul>
+ * <li>"thread_mode": see ThreadMode;</li>
+ * <li>"universe_file": the universe file, relative to the Adapter Set
+ * configuration directory; see Universe;</li>
+ * <li>"portfolio_count" and "stock_count": the size of the default
+ * universe, when no universe file is configured;</li>
+ * <li>"conflation_millis": if greater than 0, the changes of each portfolio
+ * are collected for this time before being notified to the listeners,
+ * and many changes of the same stock are notified as a single one;</li>
+ * <li>"conflation_max_changes": if greater than 0, the collected changes
+ * are notified as soon as their number reaches this limit, even before
+ * the conflation time elapses;</li>
+ * <li>"listener_queue_size": the maximum number of calls waiting to be
+ * delivered to each portfolio listener; 0 means no limit;</li>
+ * <li>"listener_overflow_policy": what to do when the above limit is
+ * reached; see OverflowPolicy;</li>
+ * <li>"metrics_jmx": Y (default) or N, whether the metrics of the feed
+ * are exposed as a JMX MBean; see Metrics;</li>
+ * <li>"metrics_export_millis": if greater than 0, the metrics are handed
+ * to the exporter with this period;</li>
+ * <li>"metrics_exporter": the class name of the MetricsExporter;
+ * by default, LoggingExporter;</li>
+ * <li>"order_trace_sampling": if greater than 0, one order out of this
+ * number is traced up to the resulting update; see OrderTracer;</li>
+ * <li>"preload_portfolios": the portfolios to be initialized upon start,
+ * rather than upon first use, as a comma separated list of ids,
+ * or ALL for the whole universe;</li>
+ * <li>"portfolio_idle_millis": if greater than 0, the portfolios with no
+ * listeners that have not been used for this time are evicted, to be
+ * reloaded upon the next use; see PortfolioFeedSimulator;</li>
+ * <li>"max_resident_portfolios": if greater than 0, when there are more
+ * portfolios, the least recently used ones with no listeners are evicted;</li>
+ * <li>"position_storage": where the portfolio contents are kept;
+ * see PositionStorage;</li>
+ * <li>"store_dir": if configured, the portfolio contents are saved in this
+ * directory, relative to the Adapter Set configuration directory, and are
+ * recovered upon restart; see WalPortfolioStore;</li>
+ * <li>"store_segment_size": the size in bytes of each log segment
+ * of the store; by default, 16 MB;</li>
+ * <li>"store_snapshot_millis": the interval between the snapshots
+ * of the store, if there have been changes; 0 means that snapshots are
+ * only taken when a log segment is full; by default, 60000;</li>
+ * <li>"load_orders_per_second" and the other "load_*" parameters:
+ * if configured, a synthetic flow of orders is applied on the portfolios
+ * upon start; see LoadProfile.</li>
+ * </ul>
+ */
+public class FeedConfiguration {
+
+    private ThreadMode threadMode = ThreadMode.PLATFORM;
+
+    private Universe universe = Universe.getDefault();
+
+    private long conflationMillis = 0;
+
+    private int conflationMaxChanges = 0;
+
+    private int listenerQueueSize = 10000;
+
+    private OverflowPolicy overflowPolicy = OverflowPolicy.CONFLATE;
+
+    private boolean metricsJmx = true;
+
+    private long metricsExportMillis = 0;
+
+    private MetricsExporter metricsExporter = new LoggingExporter();
+
+    private int orderTraceSampling = 0;
+
+    private Collection<String> preloadPortfolios = Collections.emptyList();
+
+    private long portfolioIdleMillis = 0;
+
+    private int maxResidentPortfolios = 0;
+
+    private PositionStorage positionStorage = PositionStorage.HEAP;
+
+    private PortfolioStore store = null;
+
+    private LoadProfile loadProfile = null;
+
+    public FeedConfiguration() {
+    }
+
+    /**
+     * Reads the configuration from the Data Adapter parameters.
+     *
+     * @throws IllegalArgumentException in case of wrong parameter values.
+     * @throws IOException in case the universe file cannot be read.
+     */
+    public static FeedConfiguration fromParams(Map params, File configDir) throws IOException {
+        FeedConfiguration config = new FeedConfiguration();
+
+        ThreadMode threadMode = ThreadMode.fromParam((String) params.get("thread_mode"));
+        if (! threadMode.isSupported()) {
+            throw new IllegalArgumentException("Thread mode " + threadMode + " requires Java 21 or later");
+        }
+        config.setThreadMode(threadMode);
+
+        String universeFile = (String) params.get("universe_file");
+        if (universeFile != null) {
+            config.setUniverse(Universe.load(new File(configDir, universeFile)));
+        } else {
+            int portfolioCount = getInt(params, "portfolio_count", 10, 1);
+            int stockCount = getInt(params, "stock_count", 30, 1);
+            config.setUniverse(Universe.ofCounts(portfolioCount, stockCount));
+        }
+
+        config.setConflationMillis(getInt(params, "conflation_millis", 0, 0));
+        config.setConflationMaxChanges(getInt(params, "conflation_max_changes", 0, 0));
+
+        config.setListenerQueueSize(getInt(params, "listener_queue_size", 10000, 0));
+        config.setOverflowPolicy(OverflowPolicy.fromParam((String) params.get("listener_overflow_policy")));
+
+        config.setMetricsJmx(! "N".equalsIgnoreCase((String) params.get("metrics_jmx")));
+        config.setMetricsExportMillis(getInt(params, "metrics_export_millis", 0, 0));
+        config.setOrderTraceSampling(getInt(params, "order_trace_sampling", 0, 0));
+        String exporterClass = (String) params.get("metrics_exporter");
+        if (exporterClass != null) {
+            try {
+                config.setMetricsExporter(Class.forName(exporterClass.trim())
+                        .asSubclass(MetricsExporter.class).getDeclaredConstructor().newInstance());
+            } catch (ReflectiveOperationException | ClassCastException e) {
+                throw new IllegalArgumentException("Wrong metrics_exporter parameter: " + exporterClass, e);
+            }
+        }
+
+        String preload = (String) params.get("preload_portfolios");
+        if (preload != null) {
+            SymbolRegistry portfolioIds = config.getUniverse().getPortfolios();
+            List<String> ids = new ArrayList<String>();
+            if (preload.trim().equalsIgnoreCase("ALL")) {
+                for (int i = 0; i < portfolioIds.size(); i++) {
+                    ids.add(portfolioIds.symbolOf(i));
+                }
+            } else {
+                for (String id : preload.split(",")) {
+                    id = id.trim();
+                    if (id.isEmpty()) {
+                        continue;
+                    }
+                    if (portfolioIds.ordinalOf(id) < 0) {
+                        throw new IllegalArgumentException("Wrong preload_portfolios parameter: unknown portfolio " + id);
+                    }
+                    ids.add(id);
+                }
+            }
+            config.setPreloadPortfolios(ids);
+        }
+
+        config.setPortfolioIdleMillis(getInt(params, "portfolio_idle_millis", 0, 0));
+        config.setMaxResidentPortfolios(getInt(params, "max_resident_portfolios", 0, 0));
+
+        config.setPositionStorage(PositionStorage.fromParam((String) params.get("position_storage")));
+
+        String storeDir = (String) params.get("store_dir");
+        if (storeDir != null) {
+            int segmentSize = getInt(params, "store_segment_size", 16 * 1024 * 1024, 1024);
+            int snapshotMillis = getInt(params, "store_snapshot_millis", 60000, 0);
+            config.setStore(new WalPortfolioStore(new File(configDir, storeDir.trim()), segmentSize, snapshotMillis));
+        }
+
+        config.setLoadProfile(LoadProfile.fromParams(params));
+
+        return config;
+    }
+
+    /**
+     * Reads an integer adapter parameter, checking it against a minimum value.
+     *
+     * @throws IllegalArgumentException if the parameter is not valid.
+     */
+    public static int getInt(Map params, String name, int defaultValue, int minValue) {
+        String value = (String) params.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        int number;
+        try {
+            number = Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Wrong " + name + " parameter: " + value);
+        }
+        if (number < minValue) {
+            throw new IllegalArgumentException("Wrong " + name + " parameter: " + value);
+        }
+        return number;
+    }
+
+    public ThreadMode getThreadMode() {
+        return threadMode;
+    }
+
+    public void setThreadMode(ThreadMode threadMode) {
+        this.threadMode = threadMode;
+    }
+
+    public long getConflationMillis() {
+        return conflationMillis;
+    }
+
+    public void setConflationMillis(long conflationMillis) {
+        this.conflationMillis = conflationMillis;
+    }
+
+    public int getConflationMaxChanges() {
+        return conflationMaxChanges;
+    }
+
+    public void setConflationMaxChanges(int conflationMaxChanges) {
+        this.conflationMaxChanges = conflationMaxChanges;
+    }
+
+    public int getListenerQueueSize() {
+        return listenerQueueSize;
+    }
+
+    public void setListenerQueueSize(int listenerQueueSize) {
+        this.listenerQueueSize = listenerQueueSize;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    public boolean isMetricsJmx() {
+        return metricsJmx;
+    }
+
+    public void setMetricsJmx(boolean metricsJmx) {
+        this.metricsJmx = metricsJmx;
+    }
+
+    public long getMetricsExportMillis() {
+        return metricsExportMillis;
+    }
+
+    public void setMetricsExportMillis(long metricsExportMillis) {
+        this.metricsExportMillis = metricsExportMillis;
+    }
+
+    public MetricsExporter getMetricsExporter() {
+        return metricsExporter;
+    }
+
+    public void setMetricsExporter(MetricsExporter metricsExporter) {
+        this.metricsExporter = metricsExporter;
+    }
+
+    public int getOrderTraceSampling() {
+        return orderTraceSampling;
+    }
+
+    public void setOrderTraceSampling(int orderTraceSampling) {
+        this.orderTraceSampling = orderTraceSampling;
+    }
+
+    public Collection<String> getPreloadPortfolios() {
+        return preloadPortfolios;
+    }
+
+    public void setPreloadPortfolios(Collection<String> preloadPortfolios) {
+        this.preloadPortfolios = preloadPortfolios;
+    }
+
+    public long getPortfolioIdleMillis() {
+        return portfolioIdleMillis;
+    }
+
+    public void setPortfolioIdleMillis(long portfolioIdleMillis) {
+        this.portfolioIdleMillis = portfolioIdleMillis;
+    }
+
+    public int getMaxResidentPortfolios() {
+        return maxResidentPortfolios;
+    }
+
+    public void setMaxResidentPortfolios(int maxResidentPortfolios) {
+        this.maxResidentPortfolios = maxResidentPortfolios;
+    }
+
+    public PositionStorage getPositionStorage() {
+        return positionStorage;
+    }
+
+    public void setPositionStorage(PositionStorage positionStorage) {
+        this.positionStorage = positionStorage;
+    }
+
+    /**
+     * Returns the store of the portfolio contents, or null
+     * if they are not saved.
+     */
+    public PortfolioStore getStore() {
+        return store;
+    }
+
+    public void setStore(PortfolioStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Returns the order flow to be applied on start, or null if none.
+     */
+    public LoadProfile getLoadProfile() {
+        return loadProfile;
+    }
+
+    public void setLoadProfile(LoadProfile loadProfile) {
+        this.loadProfile = loadProfile;
+    }
+
+    public Universe getUniverse() {
+        return universe;
+    }
+
+    public void setUniverse(Universe universe) {
+        this.universe = universe;
+    }
+
+}
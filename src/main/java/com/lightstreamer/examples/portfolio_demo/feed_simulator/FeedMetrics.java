@@ -0,0 +1,72 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.lightstreamer.examples.portfolio_demo.feed_simulator;
+
+
+import com.lightstreamer.examples.portfolio_demo.metrics.Histogram;
+import com.lightstreamer.examples.portfolio_demo.metrics.Metrics;
+
+/**
+ * The metrics updated by the portfolios of a feed, taken once from the
+ * registry of the feed, so that the portfolios update them directly:
+ * <ul>
+ * <li>"orders.latencyNanos": the time from the reception of each order
+ * to the completion of its change on the portfolio, for the orders
+ * whose reception time is known;</li>
+ * <li>"listeners.dispatchLagNanos": the time each notification waits
+ * before being delivered to a listener;</li>
+ * <li>"snapshots.size" and "snapshots.buildNanos": the number of stocks
+ * and the build time of the snapshots of the portfolio contents.</li>
+ * </ul>
+ * As reading the clock is not negligible on the notification paths,
+ * the dispatch lag and the snapshot build time are sampled.
+ */
+public final class FeedMetrics {
+
+    /**
+     * The sampled timings are taken for one case out of 16.
+     */
+    static final int SAMPLE_MASK = 15;
+
+    /**
+     * Reception time of the orders whose reception time is not known.
+     */
+    public static final long UNTIMED = Long.MIN_VALUE;
+
+    final Histogram orderLatency;
+
+    final Histogram dispatchLag;
+
+    final Histogram snapshotSize;
+
+    final Histogram snapshotBuildTime;
+
+    private final Metrics registry;
+
+    public FeedMetrics(Metrics registry) {
+        this.registry = registry;
+        orderLatency = registry.histogram("orders.latencyNanos");
+        dispatchLag = registry.histogram("listeners.dispatchLagNanos");
+        snapshotSize = registry.histogram("snapshots.size");
+        snapshotBuildTime = registry.histogram("snapshots.buildNanos");
+    }
+
+    public Metrics getRegistry() {
+        return registry;
+    }
+
+}
@@ -0,0 +1,373 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.lightstreamer.examples.portfolio_demo.feed_simulator;
+
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+
+import org.apache.logging.log4j.Logger;
+
+import com.lightstreamer.examples.portfolio_demo.metrics.Histogram;
+
+/**
+ * Delivers the notifications of a portfolio to one of its listeners,
+ * in FIFO order, through the executor of the portfolio.
+ * The notifications wait in a queue owned by the channel, so that the
+ * executor only holds a single task for the channel at a time; the queue
+ * can be bounded, in which case, if the listener cannot keep up,
+ * the configured OverflowPolicy is applied.
+ * The notifications are supplied by the portfolio writer only, whereas
+ * they are delivered by the executor; the two sides share the queue
+ * under the channel lock, which is never held while calling the listener.
+ */
+class ListenerChannel {
+
+    /**
+     * Maximum number of notifications delivered by a single task, so that
+     * a busy listener doesn't hold the executor, which may be shared.
+     */
+    private static final int DRAIN_BATCH = 256;
+
+    private static final int STATUS = 0;
+    private static final int UPDATE = 1;
+    private static final int EMPTY = 2;
+    private static final int DISCONNECTED = 3;
+
+    private static final class Notification {
+
+        final int kind;
+        final int ordinal;
+        final int qty;
+        final int oldQty;
+        final PortfolioSnapshot status;
+        final OrderTrace trace;
+        // 0 if the notification is not sampled for the dispatch lag
+        long enqueuedNanos = 0;
+
+        Notification(int kind, int ordinal, int qty, int oldQty, PortfolioSnapshot status,
+                OrderTrace trace) {
+            this.kind = kind;
+            this.ordinal = ordinal;
+            this.qty = qty;
+            this.oldQty = oldQty;
+            this.status = status;
+            this.trace = trace;
+        }
+    }
+
+    private final PortfolioListener listener;
+
+    private final Executor executor;
+
+    private final Logger logger;
+
+    private final SymbolRegistry stocks;
+
+    /**
+     * Maximum number of enqueued notifications; 0 means no limit.
+     */
+    private final int capacity;
+
+    private final OverflowPolicy policy;
+
+    /**
+     * Collects the time the notifications wait before being delivered;
+     * only a sample of the notifications is considered.
+     */
+    private final Histogram dispatchLag;
+
+    /**
+     * Number of notifications enqueued, to sample the dispatch lag.
+     */
+    private int enqueuedCount = 0;
+
+    private final ArrayDeque<Notification> queue = new ArrayDeque<Notification>();
+
+    /**
+     * The changes collected after an overflow, with the CONFLATE policy;
+     * they follow the enqueued notifications.
+     */
+    private final PendingChanges conflated = new PendingChanges();
+
+    /**
+     * The contents after the last collected change.
+     */
+    private PortfolioSnapshot conflatedStatus;
+
+    /**
+     * Whether the changes are being collected, after an overflow.
+     */
+    private boolean conflating = false;
+
+    /**
+     * Whether the changes are being discarded, after an overflow,
+     * waiting for the current contents.
+     */
+    private boolean awaitingStatus = false;
+
+    /**
+     * Whether the listener has been detached, hence no more notifications
+     * are accepted.
+     */
+    private boolean closed = false;
+
+    /**
+     * Whether the delivery task has been handed to the executor.
+     */
+    private boolean drainScheduled = false;
+
+    /**
+     * Number of notifications waiting, including the collected changes.
+     */
+    private volatile int depth = 0;
+
+    private volatile int maxDepth = 0;
+
+    private volatile long overflowCount = 0;
+
+    private final Runnable drainTask = new Runnable() {
+        public void run() {
+            drain();
+        }
+    };
+
+    ListenerChannel(PortfolioListener listener, Executor executor, SymbolRegistry stocks,
+            int capacity, OverflowPolicy policy, Histogram dispatchLag, Logger logger) {
+        this.listener = listener;
+        this.executor = executor;
+        this.logger = logger;
+        this.stocks = stocks;
+        this.capacity = capacity;
+        this.policy = policy;
+        this.dispatchLag = dispatchLag;
+    }
+
+    PortfolioListener getListener() {
+        return listener;
+    }
+
+    int getDepth() {
+        return depth;
+    }
+
+    int getMaxDepth() {
+        return maxDepth;
+    }
+
+    long getOverflowCount() {
+        return overflowCount;
+    }
+
+    synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Enqueues the current contents, to be notified through onActualStatus;
+     * this also ends the wait that follows an overflow with the
+     * RESNAPSHOT policy, in which case the listener is cleaned first.
+     */
+    synchronized void status(PortfolioSnapshot currentStatus) {
+        if (closed) {
+            return;
+        }
+        if (awaitingStatus) {
+            awaitingStatus = false;
+            enqueue(new Notification(EMPTY, -1, 0, 0, null, null));
+        }
+        enqueue(new Notification(STATUS, -1, 0, 0, currentStatus, null));
+    }
+
+    /**
+     * Enqueues a change of a stock.
+     *
+     * @return false if the change caused an overflow which requires
+     * an action by the portfolio: either the current contents have to be
+     * supplied through status, or the channel has been closed.
+     */
+    synchronized boolean update(int ordinal, int qty, int oldQty, PortfolioSnapshot currentStatus,
+            OrderTrace trace) {
+        if (closed || awaitingStatus) {
+            //the change is superseded by the coming contents
+            return true;
+        }
+        if (conflating) {
+            conflated.add(ordinal, oldQty, qty);
+            conflatedStatus = currentStatus;
+            updateDepth();
+            return true;
+        }
+        if (capacity > 0 && queue.size() >= capacity) {
+            overflowCount++;
+            switch (policy) {
+            case CONFLATE:
+                conflating = true;
+                conflated.add(ordinal, oldQty, qty);
+                conflatedStatus = currentStatus;
+                updateDepth();
+                return true;
+            case RESNAPSHOT:
+                queue.clear();
+                awaitingStatus = true;
+                updateDepth();
+                return false;
+            default:
+                queue.clear();
+                closed = true;
+                enqueue(new Notification(DISCONNECTED, -1, 0, 0, null, null));
+                return false;
+            }
+        }
+        enqueue(new Notification(UPDATE, ordinal, qty, oldQty, currentStatus, trace));
+        return true;
+    }
+
+    /**
+     * Enqueues the cleaning of the contents, which supersedes any
+     * notification still waiting.
+     */
+    synchronized void empty() {
+        if (closed) {
+            return;
+        }
+        queue.clear();
+        conflated.clear();
+        conflating = false;
+        conflatedStatus = null;
+        enqueue(new Notification(EMPTY, -1, 0, 0, null, null));
+    }
+
+    /**
+     * Discards the notifications still waiting, as the listener
+     * has been removed.
+     */
+    synchronized void close() {
+        closed = true;
+        queue.clear();
+        conflated.clear();
+        conflating = false;
+        conflatedStatus = null;
+        updateDepth();
+    }
+
+    private void enqueue(Notification notification) {
+        if ((++enqueuedCount & FeedMetrics.SAMPLE_MASK) == 0) {
+            notification.enqueuedNanos = System.nanoTime();
+        }
+        queue.add(notification);
+        updateDepth();
+        if (! drainScheduled) {
+            drainScheduled = true;
+            executor.execute(drainTask);
+        }
+    }
+
+    private void updateDepth() {
+        int currDepth = queue.size() + conflated.size();
+        depth = currDepth;
+        if (currDepth > maxDepth) {
+            maxDepth = currDepth;
+        }
+    }
+
+    /**
+     * Delivers the waiting notifications; only run by the executor.
+     */
+    private void drain() {
+        for (int n = 0; n < DRAIN_BATCH; n++) {
+            Notification next;
+            int[] changes = null;
+            PortfolioSnapshot changesStatus = null;
+            synchronized (this) {
+                next = queue.poll();
+                if (next == null) {
+                    if (! conflating) {
+                        drainScheduled = false;
+                        return;
+                    }
+                    //all the notifications before the overflow have been
+                    //delivered, now take the collected changes
+                    changes = new int[conflated.size() * 3];
+                    for (int i = 0; i < conflated.size(); i++) {
+                        changes[i * 3] = conflated.getOrdinal(i);
+                        changes[i * 3 + 1] = conflated.getNewQty(i);
+                        changes[i * 3 + 2] = conflated.getOldQty(i);
+                    }
+                    changesStatus = conflatedStatus;
+                    conflated.clear();
+                    conflatedStatus = null;
+                    conflating = false;
+                }
+                updateDepth();
+            }
+
+            try {
+                if (changes != null) {
+                    for (int i = 0; i < changes.length; i += 3) {
+                        //stocks whose quantity is eventually unchanged are not notified
+                        if (changes[i + 1] != changes[i + 2]) {
+                            listener.update(stocks.symbolOf(changes[i]), changes[i + 1], changes[i + 2], changesStatus);
+                        }
+                    }
+                } else {
+                    deliver(next);
+                }
+            } catch (RuntimeException e) {
+                //don't let a faulty listener stop the channel
+                logger.error("Unexpected error from a portfolio listener", e);
+            }
+        }
+        //leave the executor to other channels for a while
+        executor.execute(drainTask);
+    }
+
+    private void deliver(Notification notification) {
+        if (notification.enqueuedNanos != 0) {
+            dispatchLag.record(System.nanoTime() - notification.enqueuedNanos);
+        }
+        // in case the listener has just been detached,
+        // the listener should detect the case
+        switch (notification.kind) {
+        case STATUS:
+            listener.onActualStatus(notification.status);
+            break;
+        case UPDATE:
+            if (notification.trace == null) {
+                listener.update(stocks.symbolOf(notification.ordinal),
+                        notification.qty, notification.oldQty, notification.status);
+            } else {
+                //let the listener mark the end of the traced change
+                OrderTrace.enter(notification.trace);
+                try {
+                    listener.update(stocks.symbolOf(notification.ordinal),
+                            notification.qty, notification.oldQty, notification.status);
+                } finally {
+                    OrderTrace.exit();
+                }
+            }
+            break;
+        case EMPTY:
+            listener.empty();
+            break;
+        default:
+            listener.onDisconnected();
+            break;
+        }
+    }
+
+}
@@ -0,0 +1,258 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.lightstreamer.examples.portfolio_demo.feed_simulator;
+
+
+import java.util.Map;
+
+/**
+ * Describes the synthetic order flow produced by an OrderFlowGenerator,
+ * as read from the "load_*" adapter parameters:
+ * <ul>
+ * <li>"load_orders_per_second": the average rate of the orders;
+ * 0 (the default) means no order flow;</li>
+ * <li>"load_threads": the number of threads that send the orders,
+ * each with an equal share of the rate; by default, 1;</li>
+ * <li>"load_portfolio_skew" and "load_stock_skew": the exponents of the
+ * Zipf distributions by which the portfolios and the stocks are chosen;
+ * 0 means a uniform choice, whereas with 1 (the default) the hottest
+ * portfolio gets twice the orders of the second one, and so on;</li>
+ * <li>"load_buy_ratio": the fraction of buy orders, between 0 and 1;
+ * by default, 0.5;</li>
+ * <li>"load_min_qty" and "load_max_qty": the range of the quantities
+ * of the orders; by default, 1 to 100;</li>
+ * <li>"load_burst_factor", "load_burst_millis" and
+ * "load_burst_period_millis": if configured, at the start of each period
+ * the rate is multiplied by the factor for the specified time;</li>
+ * <li>"load_seed": the seed of the random choices, so that the same
+ * sequence of orders is sent by each thread on each run; by default, 1;</li>
+ * <li>"load_duration_millis": if greater than 0, the order flow stops
+ * after this time.</li>
+ * </ul>
+ */
+public class LoadProfile {
+
+    private int ordersPerSecond = 0;
+
+    private int threads = 1;
+
+    private double portfolioSkew = 1;
+
+    private double stockSkew = 1;
+
+    private double buyRatio = 0.5;
+
+    private int minQty = 1;
+
+    private int maxQty = 100;
+
+    private int burstFactor = 1;
+
+    private long burstMillis = 0;
+
+    private long burstPeriodMillis = 0;
+
+    private long seed = 1;
+
+    private long durationMillis = 0;
+
+    public LoadProfile() {
+    }
+
+    /**
+     * Reads the profile from the adapter parameters.
+     *
+     * @return null if no order flow is configured.
+     * @throws IllegalArgumentException in case of wrong parameter values.
+     */
+    public static LoadProfile fromParams(Map params) {
+        int ordersPerSecond = FeedConfiguration.getInt(params, "load_orders_per_second", 0, 0);
+        if (ordersPerSecond == 0) {
+            return null;
+        }
+        LoadProfile profile = new LoadProfile();
+        profile.setOrdersPerSecond(ordersPerSecond);
+        profile.setThreads(FeedConfiguration.getInt(params, "load_threads", 1, 1));
+
+        profile.setPortfolioSkew(getDouble(params, "load_portfolio_skew", 1, 0, Double.MAX_VALUE));
+        profile.setStockSkew(getDouble(params, "load_stock_skew", 1, 0, Double.MAX_VALUE));
+        profile.setBuyRatio(getDouble(params, "load_buy_ratio", 0.5, 0, 1));
+
+        profile.setMinQty(FeedConfiguration.getInt(params, "load_min_qty", 1, 1));
+        profile.setMaxQty(FeedConfiguration.getInt(params, "load_max_qty", Math.max(100, profile.getMinQty()), profile.getMinQty()));
+
+        profile.setBurstFactor(FeedConfiguration.getInt(params, "load_burst_factor", 1, 1));
+        profile.setBurstMillis(FeedConfiguration.getInt(params, "load_burst_millis", 0, 0));
+        profile.setBurstPeriodMillis(FeedConfiguration.getInt(params, "load_burst_period_millis", 0, 0));
+        if (profile.getBurstMillis() > 0 && profile.getBurstPeriodMillis() <= profile.getBurstMillis()) {
+            throw new IllegalArgumentException("Wrong load_burst_period_millis parameter: "
+                    + params.get("load_burst_period_millis") + " is not longer than load_burst_millis");
+        }
+
+        String seed = (String) params.get("load_seed");
+        if (seed != null) {
+            try {
+                profile.setSeed(Long.parseLong(seed.trim()));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Wrong load_seed parameter: " + seed);
+            }
+        }
+        profile.setDurationMillis(FeedConfiguration.getInt(params, "load_duration_millis", 0, 0));
+
+        return profile;
+    }
+
+    /**
+     * Reads a decimal adapter parameter, checking it against a range.
+     *
+     * @throws IllegalArgumentException if the parameter is not valid.
+     */
+    private static double getDouble(Map params, String name, double defaultValue,
+            double minValue, double maxValue) {
+        String value = (String) params.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        double number;
+        try {
+            number = Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Wrong " + name + " parameter: " + value);
+        }
+        if (! (number >= minValue && number <= maxValue)) {
+            throw new IllegalArgumentException("Wrong " + name + " parameter: " + value);
+        }
+        return number;
+    }
+
+    /**
+     * Tells whether the rate is currently raised, at the specified time
+     * since the start of the order flow.
+     */
+    boolean isBurst(long elapsedMillis) {
+        return burstFactor > 1 && burstMillis > 0 && burstPeriodMillis > 0
+                && elapsedMillis % burstPeriodMillis < burstMillis;
+    }
+
+    public int getOrdersPerSecond() {
+        return ordersPerSecond;
+    }
+
+    public void setOrdersPerSecond(int ordersPerSecond) {
+        this.ordersPerSecond = ordersPerSecond;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public double getPortfolioSkew() {
+        return portfolioSkew;
+    }
+
+    public void setPortfolioSkew(double portfolioSkew) {
+        this.portfolioSkew = portfolioSkew;
+    }
+
+    public double getStockSkew() {
+        return stockSkew;
+    }
+
+    public void setStockSkew(double stockSkew) {
+        this.stockSkew = stockSkew;
+    }
+
+    public double getBuyRatio() {
+        return buyRatio;
+    }
+
+    public void setBuyRatio(double buyRatio) {
+        this.buyRatio = buyRatio;
+    }
+
+    public int getMinQty() {
+        return minQty;
+    }
+
+    public void setMinQty(int minQty) {
+        this.minQty = minQty;
+    }
+
+    public int getMaxQty() {
+        return maxQty;
+    }
+
+    public void setMaxQty(int maxQty) {
+        this.maxQty = maxQty;
+    }
+
+    public int getBurstFactor() {
+        return burstFactor;
+    }
+
+    public void setBurstFactor(int burstFactor) {
+        this.burstFactor = burstFactor;
+    }
+
+    public long getBurstMillis() {
+        return burstMillis;
+    }
+
+    public void setBurstMillis(long burstMillis) {
+        this.burstMillis = burstMillis;
+    }
+
+    public long getBurstPeriodMillis() {
+        return burstPeriodMillis;
+    }
+
+    public void setBurstPeriodMillis(long burstPeriodMillis) {
+        this.burstPeriodMillis = burstPeriodMillis;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    public void setDurationMillis(long durationMillis) {
+        this.durationMillis = durationMillis;
+    }
+
+    @Override
+    public String toString() {
+        String burst = "";
+        if (burstFactor > 1 && burstMillis > 0) {
+            burst = ", bursts of x" + burstFactor + " for " + burstMillis + " ms every " + burstPeriodMillis + " ms";
+        }
+        return ordersPerSecond + " orders/s on " + threads + " threads, skew " + portfolioSkew
+                + " on portfolios and " + stockSkew + " on stocks, " + Math.round(buyRatio * 100)
+                + "% buys, quantities " + minQty + "-" + maxQty + burst + ", seed " + seed;
+    }
+
+}
@@ -0,0 +1,158 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.lightstreamer.examples.portfolio_demo.feed_simulator;
+
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Keeps the contents of all the portfolios of a universe outside of the
+ * heap, as a dense table with a row for each portfolio ordinal; each row
+ * holds the number of stocks held, followed by the quantity of each stock
+ * of the universe, by ordinal, hence it takes (stockCount + 1) * 4 bytes,
+ * however few stocks are held: with a large universe of stocks and sparse
+ * portfolios, this takes more memory than the PositionTable of each
+ * portfolio would take on the heap.
+ * The rows are allocated in direct buffers of about CHUNK_BYTES each,
+ * only when the first of their portfolios is used; each portfolio then
+ * accesses its row through a view, with no synchronization, as the
+ * portfolio ensures that only one writer at a time accesses its contents.
+ * The rows are never released: the row of an evicted portfolio keeps
+ * its contents and is reused by the portfolio when it is reloaded.
+ */
+final class OffHeapPositionTable {
+
+    private static final int CHUNK_BYTES = 16 * 1024 * 1024;
+
+    private final int portfolioCount;
+
+    private final int stockCount;
+
+    private final int rowBytes;
+
+    private final int rowsPerChunk;
+
+    /**
+     * The buffers, allocated when needed; guarded by this.
+     */
+    private final ByteBuffer[] chunks;
+
+    private volatile long allocatedBytes = 0;
+
+    OffHeapPositionTable(int portfolioCount, int stockCount) {
+        this.portfolioCount = portfolioCount;
+        this.stockCount = stockCount;
+        this.rowBytes = (stockCount + 1) * 4;
+        this.rowsPerChunk = Math.max(1, CHUNK_BYTES / rowBytes);
+        this.chunks = new ByteBuffer[(portfolioCount + rowsPerChunk - 1) / rowsPerChunk];
+    }
+
+    /**
+     * Returns a view on the row of a portfolio; there should be
+     * a single view for each portfolio at a time.
+     */
+    synchronized Positions rowOf(int portfolioOrdinal) {
+        int index = portfolioOrdinal / rowsPerChunk;
+        ByteBuffer chunk = chunks[index];
+        if (chunk == null) {
+            int rows = Math.min(rowsPerChunk, portfolioCount - index * rowsPerChunk);
+            //the buffer comes zeroed, that is, with all the rows empty
+            chunk = ByteBuffer.allocateDirect(rows * rowBytes).order(ByteOrder.nativeOrder());
+            chunks[index] = chunk;
+            allocatedBytes += chunk.capacity();
+        }
+        return new Row(chunk, (portfolioOrdinal % rowsPerChunk) * rowBytes, stockCount);
+    }
+
+    /**
+     * Returns the contents of a row, as pairs of stock ordinal and quantity,
+     * in ascending order; the row should not be being changed meanwhile.
+     */
+    int[] pairsOf(int portfolioOrdinal) {
+        Positions row = rowOf(portfolioOrdinal);
+        int[] ordinals = new int[row.size()];
+        row.copyOrdinals(ordinals);
+        int[] pairs = new int[ordinals.length * 2];
+        for (int i = 0; i < ordinals.length; i++) {
+            pairs[i * 2] = ordinals[i];
+            pairs[i * 2 + 1] = row.get(ordinals[i]);
+        }
+        return pairs;
+    }
+
+    /**
+     * Returns the amount of memory taken outside of the heap.
+     */
+    long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    private static final class Row implements Positions {
+
+        private final ByteBuffer buffer;
+
+        /**
+         * Offset of the count of the stocks held; the quantities follow.
+         */
+        private final int base;
+
+        private final int stockCount;
+
+        Row(ByteBuffer buffer, int base, int stockCount) {
+            this.buffer = buffer;
+            this.base = base;
+            this.stockCount = stockCount;
+        }
+
+        public int size() {
+            return buffer.getInt(base);
+        }
+
+        public int get(int ordinal) {
+            return buffer.getInt(base + 4 + ordinal * 4);
+        }
+
+        public void put(int ordinal, int qty) {
+            int offset = base + 4 + ordinal * 4;
+            int oldQty = buffer.getInt(offset);
+            if (oldQty == 0 && qty != 0) {
+                buffer.putInt(base, buffer.getInt(base) + 1);
+            } else if (oldQty != 0 && qty == 0) {
+                buffer.putInt(base, buffer.getInt(base) - 1);
+            }
+            buffer.putInt(offset, qty);
+        }
+
+        public void clear() {
+            for (int ordinal = 0; ordinal < stockCount; ordinal++) {
+                buffer.putInt(base + 4 + ordinal * 4, 0);
+            }
+            buffer.putInt(base, 0);
+        }
+
+        public void copyOrdinals(int[] target) {
+            int count = 0;
+            for (int ordinal = 0; ordinal < stockCount; ordinal++) {
+                if (buffer.getInt(base + 4 + ordinal * 4) != 0) {
+                    target[count++] = ordinal;
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,75 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.lightstreamer.examples.portfolio_demo.feed_simulator;
+
+
+/**
+ * A buy or sell order for a stock, to be applied on a portfolio
+ * as part of a batch.
+ */
+public class Order {
+
+    public enum Side {
+        BUY,
+        SELL
+    }
+
+    private final Side side;
+
+    private final String stock;
+
+    /**
+     * The ordinal of the stock in the stock registry, if already resolved
+     * by the creator, otherwise -1.
+     */
+    private final int stockOrdinal;
+
+    private final int qty;
+
+    public Order(Side side, String stock, int qty) {
+        this(side, stock, -1, qty);
+    }
+
+    public Order(Side side, String stock, int stockOrdinal, int qty) {
+        this.side = side;
+        this.stock = stock;
+        this.stockOrdinal = stockOrdinal;
+        this.qty = qty;
+    }
+
+    public Side getSide() {
+        return side;
+    }
+
+    public String getStock() {
+        return stock;
+    }
+
+    public int getStockOrdinal() {
+        return stockOrdinal;
+    }
+
+    public int getQty() {
+        return qty;
+    }
+
+    @Override
+    public String toString() {
+        return side + " " + qty + " " + stock;
+    }
+
+}
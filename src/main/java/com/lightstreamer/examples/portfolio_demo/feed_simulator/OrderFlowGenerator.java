@@ -0,0 +1,218 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.lightstreamer.examples.portfolio_demo.feed_simulator;
+
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.logging.log4j.Logger;
+
+import com.lightstreamer.examples.portfolio_demo.metrics.Histogram;
+import com.lightstreamer.examples.portfolio_demo.metrics.Metrics;
+
+/**
+ * Produces a synthetic flow of buy and sell orders, as described by
+ * a LoadProfile, and hands them to an OrderSink; this allows for
+ * reproducing a load of realistic shape without any client.
+ * The portfolios and the stocks of the orders are drawn from the Universe
+ * with Zipf distributions, so that a few portfolios and stocks are hot,
+ * and the sides and quantities are drawn according to the profile.
+ * Each thread sends the orders on a fixed schedule, regardless of how
+ * long the sink takes, so that a slow sink doesn't lower the offered load;
+ * when a thread is late, it sends the due orders without pauses and the
+ * delay is accounted for. With the same seed, each thread sends the same
+ * sequence of orders on each run, though the threads interleave freely.
+ * The generator accounts in the supplied metrics for:
+ * <ul>
+ * <li>"load.ordersSent" and "load.ordersFailed": the orders accepted and
+ * refused by the sink;</li>
+ * <li>"load.sendDelayNanos": how late each order was sent with respect to
+ * its schedule; a growing delay means that the sink cannot keep up.</li>
+ * </ul>
+ * The effects of the orders are accounted for by the feed, as usual;
+ * see FeedMetrics.
+ */
+public class OrderFlowGenerator {
+
+    private final LoadProfile profile;
+
+    private final OrderSink sink;
+
+    private final Logger logger;
+
+    private final ZipfSampler portfolioSampler;
+
+    private final ZipfSampler stockSampler;
+
+    private final SplittableRandom[] threadRandoms;
+
+    private final SymbolRegistry portfolioIds;
+
+    private final LongAdder sentCount;
+
+    private final LongAdder failedCount;
+
+    private final Histogram sendDelay;
+
+    private final Thread[] threads;
+
+    private final AtomicInteger runningThreads = new AtomicInteger();
+
+    private volatile boolean stopped = false;
+
+    private volatile boolean failureLogged = false;
+
+    private long startNanos;
+
+    public OrderFlowGenerator(LoadProfile profile, Universe universe, OrderSink sink,
+            Metrics metrics, Logger logger) {
+        this.profile = profile;
+        this.sink = sink;
+        this.logger = logger;
+        portfolioIds = universe.getPortfolios();
+
+        //all the random choices descend from the seed
+        SplittableRandom random = new SplittableRandom(profile.getSeed());
+        portfolioSampler = new ZipfSampler(portfolioIds.size(), profile.getPortfolioSkew(), random.split());
+        stockSampler = new ZipfSampler(universe.getStocks().size(), profile.getStockSkew(), random.split());
+        threadRandoms = new SplittableRandom[profile.getThreads()];
+        for (int i = 0; i < threadRandoms.length; i++) {
+            threadRandoms[i] = random.split();
+        }
+
+        sentCount = metrics.counter("load.ordersSent");
+        failedCount = metrics.counter("load.ordersFailed");
+        sendDelay = metrics.histogram("load.sendDelayNanos");
+
+        threads = new Thread[profile.getThreads()];
+        for (int i = 0; i < threads.length; i++) {
+            final int index = i;
+            threads[i] = new Thread(() -> run(index), "Portfolio load " + (i + 1));
+            threads[i].setDaemon(true);
+        }
+    }
+
+    /**
+     * Starts sending the orders; can only be called once.
+     */
+    public synchronized void start() {
+        logger.info("Order flow started: " + profile + "; the hottest portfolio is "
+                + portfolioIds.symbolOf(portfolioSampler.ordinalOfRank(0)));
+        startNanos = System.nanoTime();
+        runningThreads.set(threads.length);
+        for (Thread thread : threads) {
+            thread.start();
+        }
+    }
+
+    /**
+     * Stops sending the orders; an order being sent is completed.
+     */
+    public void stop() {
+        stopped = true;
+        for (Thread thread : threads) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Waits for the order flow to end, either because of its configured
+     * duration or because of a call to stop.
+     *
+     * @return false if the flow has not ended in the specified time.
+     */
+    public boolean awaitTermination(long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        for (Thread thread : threads) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining <= 0) {
+                return false;
+            }
+            thread.join(remaining);
+            if (thread.isAlive()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public long getSentCount() {
+        return sentCount.sum();
+    }
+
+    public long getFailedCount() {
+        return failedCount.sum();
+    }
+
+    private void run(int index) {
+        SplittableRandom random = threadRandoms[index];
+        //each thread takes an equal share of the rate
+        long interval = Math.max(1, TimeUnit.SECONDS.toNanos(threads.length) / profile.getOrdersPerSecond());
+        long burstInterval = Math.max(1, interval / profile.getBurstFactor());
+        long start;
+        synchronized (this) {
+            start = startNanos;
+        }
+        long end = Long.MAX_VALUE;
+        if (profile.getDurationMillis() > 0) {
+            end = start + TimeUnit.MILLISECONDS.toNanos(profile.getDurationMillis());
+        }
+        //spread the threads within the interval
+        long next = start + interval * index / threads.length;
+
+        while (! stopped && next - end < 0) {
+            long now = System.nanoTime();
+            if (next - now > 0) {
+                LockSupport.parkNanos(next - now);
+                continue;
+            }
+            sendDelay.record(now - next);
+            send(random, next);
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(next - start);
+            next += profile.isBurst(elapsedMillis) ? burstInterval : interval;
+        }
+
+        if (runningThreads.decrementAndGet() == 0) {
+            logger.info("Order flow ended: " + getSentCount() + " orders sent, "
+                    + getFailedCount() + " refused, in "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+        }
+    }
+
+    private void send(SplittableRandom random, long scheduledNanos) {
+        int portfolio = portfolioSampler.sample(random);
+        int stock = stockSampler.sample(random);
+        Order.Side side = random.nextDouble() < profile.getBuyRatio() ? Order.Side.BUY : Order.Side.SELL;
+        int qty = random.nextInt(profile.getMinQty(), profile.getMaxQty() + 1);
+        try {
+            sink.order(side, portfolio, stock, qty, scheduledNanos);
+            sentCount.increment();
+        } catch (Exception e) {
+            failedCount.increment();
+            if (! failureLogged) {
+                //a refusing sink would flood the log
+                failureLogged = true;
+                logger.warn("Generated order refused, further refusals are only counted", e);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,47 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.lightstreamer.examples.portfolio_demo.feed_simulator;
+
+
+/**
+ * The result of the application of an order on a portfolio.
+ */
+public enum OrderOutcome {
+
+    /**
+     * The order was applied as requested.
+     */
+    EXECUTED,
+
+    /**
+     * A sell order exceeded the available quantity,
+     * which has been sold completely.
+     */
+    CLIPPED,
+
+    /**
+     * The order had no effect, because there was nothing to sell
+     * or because the resulting quantity would overflow.
+     */
+    IGNORED,
+
+    /**
+     * The order was not valid (wrong quantity or unknown stock).
+     */
+    REJECTED
+
+}
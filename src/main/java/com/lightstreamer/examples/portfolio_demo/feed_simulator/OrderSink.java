@@ -0,0 +1,57 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.lightstreamer.examples.portfolio_demo.feed_simulator;
+
+
+/**
+ * Receives the orders produced by an OrderFlowGenerator, addressed by
+ * the ordinals of the portfolio and of the stock in the Universe.
+ */
+public interface OrderSink {
+
+    /**
+     * Sends an order.
+     *
+     * @param scheduledNanos the time (as by System.nanoTime) at which the
+     * order was due, which may precede the call if the generator is late;
+     * it should be taken as the reception time of the order, so that the
+     * delay is part of the order latency.
+     * @throws Exception if the order is refused.
+     */
+    public void order(Order.Side side, int portfolio, int stock, int qty, long scheduledNanos)
+            throws Exception;
+
+    /**
+     * Returns a sink that applies the orders directly on the portfolios
+     * of the specified feed; if configured on the feed, a sample of the
+     * orders is traced, as for the orders received by the Metadata Adapter.
+     */
+    public static OrderSink toFeed(final PortfolioFeedSimulator feed) {
+        final SymbolRegistry portfolioIds = feed.getUniverse().getPortfolios();
+        final OrderTracer tracer = feed.getOrderTracer();
+        return (side, portfolio, stock, qty, scheduledNanos) -> {
+            Portfolio target = feed.getPortfolio(portfolioIds.symbolOf(portfolio));
+            OrderTrace trace = tracer.sample(scheduledNanos);
+            if (side == Order.Side.BUY) {
+                target.buy(stock, qty, scheduledNanos, trace);
+            } else {
+                target.sell(stock, qty, scheduledNanos, trace);
+            }
+        };
+    }
+
+}
@@ -0,0 +1,130 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.lightstreamer.examples.portfolio_demo.feed_simulator;
+
+
+/**
+ * Follows a sampled order (see OrderTracer) through its stages: the order
+ * is stamped with a sequence number and its reception time, then the trace
+ * is carried by the portfolio along with the resulting change, up to the
+ * listeners. While a listener is notified of the change, the trace is
+ * available to the listener thread, so that the listener can mark the
+ * completion of its own work, by invoking published.
+ * If the change is collected (because of conflation or batching),
+ * the first traced order among the collected ones is still followed.
+ */
+public final class OrderTrace {
+
+    /**
+     * The trace being delivered on a thread.
+     */
+    private static final class Context {
+        OrderTrace trace;
+        long deliveredNanos;
+    }
+
+    private static final ThreadLocal<Context> context = ThreadLocal.withInitial(Context::new);
+
+    private final OrderTracer tracer;
+
+    private final long sequence;
+
+    private final long receivedNanos;
+
+    /**
+     * Set by the portfolio writer before the change is handed to the
+     * listener channels, which then make it visible to the delivery threads.
+     */
+    private long appliedNanos;
+
+    private int stockOrdinal = -1;
+
+    OrderTrace(OrderTracer tracer, long sequence, long receivedNanos) {
+        this.tracer = tracer;
+        this.sequence = sequence;
+        this.receivedNanos = receivedNanos;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public long getReceivedNanos() {
+        return receivedNanos;
+    }
+
+    /**
+     * The stock changed by the order; -1 if not yet applied.
+     */
+    int getStockOrdinal() {
+        return stockOrdinal;
+    }
+
+    /**
+     * Marks the change of the portfolio contents; invoked by the writer.
+     */
+    void applied(int stockOrdinal) {
+        this.stockOrdinal = stockOrdinal;
+        appliedNanos = System.nanoTime();
+        tracer.applyLatency.record(appliedNanos - receivedNanos);
+    }
+
+    /**
+     * Marks the start of the notification of the change to a listener,
+     * on the current thread.
+     */
+    static void enter(OrderTrace trace) {
+        long now = System.nanoTime();
+        trace.tracer.dispatchLatency.record(now - trace.appliedNanos);
+        Context current = context.get();
+        current.trace = trace;
+        current.deliveredNanos = now;
+    }
+
+    /**
+     * Marks the end of the notification to a listener, on the current thread.
+     */
+    static void exit() {
+        context.get().trace = null;
+    }
+
+    /**
+     * To be invoked by a listener when it has completed the handling of
+     * a change, for instance, by sending an update to the Server; if the
+     * change is due to a traced order, the stages are recorded.
+     * Only the first call during each notification is considered.
+     */
+    public static void published() {
+        Context current = context.get();
+        OrderTrace trace = current.trace;
+        if (trace == null) {
+            return;
+        }
+        current.trace = null;
+        long now = System.nanoTime();
+        OrderTracer tracer = trace.tracer;
+        tracer.publishLatency.record(now - current.deliveredNanos);
+        tracer.totalLatency.record(now - trace.receivedNanos);
+        if (tracer.logger.isDebugEnabled()) {
+            tracer.logger.debug("Order #" + trace.sequence + " published: applied after "
+                    + (trace.appliedNanos - trace.receivedNanos) + " ns, dispatched after "
+                    + (current.deliveredNanos - trace.appliedNanos) + " ns, published after "
+                    + (now - current.deliveredNanos) + " ns");
+        }
+    }
+
+}
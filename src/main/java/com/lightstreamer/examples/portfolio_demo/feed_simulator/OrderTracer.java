@@ -0,0 +1,94 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.lightstreamer.examples.portfolio_demo.feed_simulator;
+
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.Logger;
+
+import com.lightstreamer.examples.portfolio_demo.metrics.Histogram;
+import com.lightstreamer.examples.portfolio_demo.metrics.Metrics;
+
+/**
+ * Decides which orders are traced and collects the latency of each stage
+ * of the traced orders, from the reception of the order to the delivery
+ * of the resulting update to the Server, in the metrics of the feed:
+ * <ul>
+ * <li>"trace.applyNanos": from the reception to the change of the
+ * portfolio contents;</li>
+ * <li>"trace.dispatchNanos": from the change to the start of the
+ * notification to a listener;</li>
+ * <li>"trace.publishNanos": from the start of the notification to the
+ * completion of the update by the listener;</li>
+ * <li>"trace.totalNanos": from the reception to the completion of the
+ * update.</li>
+ * </ul>
+ * Only one order out of the configured sampling is traced, so that the
+ * overhead is negligible; with no sampling configured, no order is traced.
+ * See OrderTrace.
+ */
+public final class OrderTracer {
+
+    /**
+     * One order out of this number is traced; 0 means no tracing.
+     */
+    private final int sampling;
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    final Histogram applyLatency;
+
+    final Histogram dispatchLatency;
+
+    final Histogram publishLatency;
+
+    final Histogram totalLatency;
+
+    final Logger logger;
+
+    public OrderTracer(int sampling, Metrics metrics, Logger logger) {
+        this.sampling = sampling;
+        this.logger = logger;
+        applyLatency = metrics.histogram("trace.applyNanos");
+        dispatchLatency = metrics.histogram("trace.dispatchNanos");
+        publishLatency = metrics.histogram("trace.publishNanos");
+        totalLatency = metrics.histogram("trace.totalNanos");
+    }
+
+    public boolean isEnabled() {
+        return sampling > 0;
+    }
+
+    /**
+     * Returns the trace for an order received at the specified time
+     * (as by System.nanoTime), if the order is to be traced.
+     *
+     * @return the trace or null.
+     */
+    public OrderTrace sample(long receivedNanos) {
+        if (sampling == 0) {
+            return null;
+        }
+        long seq = sequence.incrementAndGet();
+        if (seq % sampling != 0) {
+            return null;
+        }
+        return new OrderTrace(this, seq, receivedNanos);
+    }
+
+}
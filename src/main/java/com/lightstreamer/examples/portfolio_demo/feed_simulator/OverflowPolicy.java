@@ -0,0 +1,64 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.lightstreamer.examples.portfolio_demo.feed_simulator;
+
+
+/**
+ * What to do when the notifications for a portfolio listener
+ * pile up beyond the configured limit, because the listener
+ * cannot keep up with the changes, as configured through the
+ * "listener_overflow_policy" adapter parameter.
+ */
+public enum OverflowPolicy {
+
+    /**
+     * The notifications already enqueued are kept, but further changes
+     * are collected and notified later as a single change per stock,
+     * carrying the latest quantity.
+     */
+    CONFLATE,
+
+    /**
+     * The enqueued notifications are discarded and the listener
+     * is cleaned through "empty", then it receives the current contents
+     * through "onActualStatus".
+     */
+    RESNAPSHOT,
+
+    /**
+     * The enqueued notifications are discarded and the listener
+     * is detached from the portfolio, then informed through
+     * "onDisconnected".
+     */
+    DISCONNECT;
+
+    /**
+     * Interprets the value of the "listener_overflow_policy" parameter;
+     * the default is CONFLATE.
+     */
+    public static OverflowPolicy fromParam(String value) {
+        if (value == null) {
+            return CONFLATE;
+        }
+        try {
+            return OverflowPolicy.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown overflow policy: " + value);
+        }
+    }
+
+}
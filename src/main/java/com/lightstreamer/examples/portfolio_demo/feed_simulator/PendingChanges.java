@@ -0,0 +1,124 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.lightstreamer.examples.portfolio_demo.feed_simulator;
+
+
+import java.util.Arrays;
+
+/**
+ * Collects the stocks changed in a portfolio that have not been notified
+ * yet, each one with its quantity before the first of its changes
+ * and, optionally, after the last one, so that many changes of the same
+ * stock can be notified as a single one.
+ * Not thread safe.
+ */
+class PendingChanges {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private static final int[] NONE = new int[0];
+
+    /**
+     * Associates each stock ordinal with its position+1 in the arrays;
+     * like the arrays, it is only allocated upon the first change, as
+     * many portfolios never collect any.
+     */
+    private PositionTable positions = null;
+
+    private int[] ordinals = NONE;
+
+    private int[] oldQtys = NONE;
+
+    private int[] newQtys = NONE;
+
+    /**
+     * Number of distinct stocks changed.
+     */
+    private int count = 0;
+
+    /**
+     * Number of changes merged.
+     */
+    private int changeCount = 0;
+
+    /**
+     * Records a change of a stock; only the quantity before the first
+     * change of each stock is kept.
+     */
+    public void add(int ordinal, int oldQty) {
+        add(ordinal, oldQty, 0);
+    }
+
+    /**
+     * Records a change of a stock, together with the quantity after
+     * the change, which replaces the one of any previous change.
+     */
+    public void add(int ordinal, int oldQty, int newQty) {
+        if (positions == null) {
+            positions = new PositionTable();
+        }
+        int position = positions.get(ordinal);
+        if (position == 0) {
+            if (count == ordinals.length) {
+                int capacity = Math.max(MIN_CAPACITY, count * 2);
+                ordinals = Arrays.copyOf(ordinals, capacity);
+                oldQtys = Arrays.copyOf(oldQtys, capacity);
+                newQtys = Arrays.copyOf(newQtys, capacity);
+            }
+            ordinals[count] = ordinal;
+            oldQtys[count] = oldQty;
+            count++;
+            positions.put(ordinal, count);
+            position = count;
+        }
+        newQtys[position - 1] = newQty;
+        changeCount++;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public int getChangeCount() {
+        return changeCount;
+    }
+
+    public int getOrdinal(int index) {
+        return ordinals[index];
+    }
+
+    public int getOldQty(int index) {
+        return oldQtys[index];
+    }
+
+    public int getNewQty(int index) {
+        return newQtys[index];
+    }
+
+    public void clear() {
+        if (positions != null && count > 0) {
+            positions.clear();
+        }
+        count = 0;
+        changeCount = 0;
+    }
+
+}
@@ -17,108 +17,755 @@
 package com.lightstreamer.examples.portfolio_demo.feed_simulator;
 
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 import org.apache.logging.log4j.Logger;
 
+import com.lightstreamer.examples.portfolio_demo.metrics.Metrics;
+
 /**
  * Manages the contents for a single portfolio.
  * The contents can be changed through "buy" and "sell" methods
  * and can be inquired through a listener; upon setting of a new listener,
  * the current contents are notified, followed by the notifications
  * of subsequent content changes.
- * To make it simple, a single listener is allowed at each time.
- * All methods are synchronized, but none can be blocking. The calls
- * to the listener are enqueued and send from a local thread; they may
- * occur just after "removeListener" has been issued.
+ * All methods can be called from any thread.
+ * The requests are validated by the calling thread, then enqueued as
+ * commands; the contents are only accessed by a single writer at a time,
+ * which is the first caller that finds no writer active. The caller runs
+ * a limited batch of the enqueued commands, including those enqueued
+ * meanwhile by other callers, then, if more are pending, it hands the
+ * writer role to the lane of the portfolio, which goes on in batches;
+ * hence a caller is never held by a busy portfolio for long.
+ * No lock is held and concurrent order submitters don't wait for each
+ * other, unless too many commands are pending, in which case the order
+ * submitters are slowed down until the writer catches up; the other
+ * requests never wait. On the other hand, a request may be carried out
+ * after the call has returned.
+ * The calls to each listener are enqueued and send from a thread supplied
+ * by the feed, in FIFO order; they may occur just after "removeListener"
+ * has been issued. If a listener cannot keep up and the configured limit
+ * of its pending calls is reached, the configured OverflowPolicy applies.
+ * If conflation is configured, the changes are collected for a while and
+ * many changes of the same stock are notified as a single one, carrying
+ * the quantity before the first change and the quantity after the last one;
+ * stocks whose quantity is eventually unchanged are not notified at all.
+ * If a PortfolioStore is attached, the writer saves each change there.
+ * The feed may retire an idle portfolio, in which case any further
+ * request is forwarded to the portfolio that replaces it.
  */
 public class Portfolio {
 
+    /**
+     * Number of enqueued commands beyond which the submitters wait for
+     * the writer to catch up, as the queue would otherwise be unbounded.
+     */
+    private static final int MAX_BACKLOG = 1024;
+
+    /**
+     * Bounds of the pause of a submitter that waits for the writer;
+     * the pause doubles at each check of the backlog.
+     */
+    private static final long MIN_THROTTLE_NANOS = 10000;
+    private static final long MAX_THROTTLE_NANOS = 1000000;
+
+    /**
+     * Maximum number of commands run by the writer in a single turn,
+     * before handing the writer role to the lane of the portfolio.
+     */
+    private static final int WRITER_BATCH = 256;
+
     /**
      * Private logger; we lean on a creator supplied logger.
      */
     private Logger logger;
 
     /**
-     * Single listener for the contents.
+     * Listeners for the contents, each one with its channel; only modified
+     * by the writer, but the depth of the channels can be inquired
+     * from any thread.
+     */
+    private final List<ListenerChannel> channels = new CopyOnWriteArrayList<ListenerChannel>();
+
+    /**
+     * Maximum number of pending calls for each listener; 0 means no limit.
+     */
+    private final int listenerQueueSize;
+
+    private final OverflowPolicy overflowPolicy;
+
+    /**
+     * Number of overflows of the listener channels already removed;
+     * only incremented by the writer.
+     */
+    private volatile long removedOverflowCount = 0;
+
+    /**
+     * The commands not yet run by the writer; many threads can enqueue,
+     * but only the writer dequeues.
      */
-    private final List<PortfolioListener> listeners;
+    private final Queue<Runnable> commands = new ConcurrentLinkedQueue<Runnable>();
+
+    /**
+     * Number of the enqueued commands not yet completed; the thread that
+     * brings it from 0 to 1 becomes the writer, which may be handed over
+     * to the lane, until it returns to 0.
+     * The updates of the counter also ensure that each writer sees
+     * the changes of the previous writers.
+     */
+    private final AtomicInteger commandCount = new AtomicInteger();
 
     private final String id;
 
     /**
-     * Used to enqueue the calls to the listener.
+     * Used to deliver the calls to the listeners; it must ensure a FIFO behaviour.
+     * It also takes the writer role when the caller that holds it
+     * has run its batch of commands.
+     */
+    private final Executor executor;
+
+    private final Runnable writerTask = new Runnable() {
+        public void run() {
+            runCommands();
+        }
+    };
+
+    /**
+     * The universe of the stocks that can be held.
      */
-    private final ExecutorService executor;
+    private final SymbolRegistry stocks;
 
     /**
-     * The portfolio contents; associates stock ids with quantities;
+     * The portfolio contents; associates stock ordinals with quantities;
      * only stocks with positive quantities are included.
+     * They may be kept outside of the heap; see PositionStorage.
+     */
+    private final Positions quantities;
+
+    /**
+     * Version of the portfolio contents, incremented upon each change.
+     */
+    private long version = 0;
+
+    /**
+     * Immutable copy of the current contents, shared by all the listeners;
+     * it is built only when needed and discarded upon each change.
+     */
+    private PortfolioSnapshot snapshot = null;
+
+    /**
+     * Used to schedule the notification of the collected changes.
+     */
+    private final DispatchScheduler scheduler;
+
+    /**
+     * Time for which the changes are collected; 0 if conflation is disabled.
      */
-    private final HashMap<String,Integer> quantities = new HashMap<String,Integer>();
+    private final long conflationMillis;
+
+    /**
+     * Number of changes after which the collected changes are notified
+     * immediately; 0 if there is no limit.
+     */
+    private final int conflationMaxChanges;
+
+    /**
+     * The changes not yet notified; always empty if conflation is disabled.
+     */
+    private final PendingChanges pending = new PendingChanges();
+
+    /**
+     * The first traced order among the collected changes, if any.
+     */
+    private OrderTrace pendingTrace = null;
+
+    /**
+     * Whether the notification of the collected changes has been scheduled.
+     */
+    private boolean flushScheduled = false;
+
+    /**
+     * Whether a batch of orders is being applied; in this case the changes
+     * are collected and notified together at the end of the batch.
+     */
+    private boolean batching = false;
+
+    /**
+     * The metrics to be updated, shared with the other portfolios.
+     */
+    private final FeedMetrics metrics;
+
+    /**
+     * Number of snapshots built, to sample their build time.
+     */
+    private int snapshotCount = 0;
+
+    /**
+     * The store that saves the changes, if any, and the ordinal
+     * of the portfolio in the store.
+     */
+    private PortfolioStore store = null;
+
+    private int storeOrdinal = -1;
+
+    /**
+     * Whether the portfolio has been used since the last check
+     * by the feed eviction.
+     */
+    private volatile boolean touched = true;
+
+    /**
+     * The last time the portfolio was found in use by the feed eviction;
+     * only accessed by the eviction.
+     */
+    private long lastUsedMillis = 0;
+
+    /**
+     * Whether the portfolio has been retired, hence the requests
+     * have to be forwarded to its successor.
+     */
+    private volatile boolean retired = false;
+
+    /**
+     * The contents upon retirement, as pairs of stock ordinal and quantity.
+     */
+    private int[] retiredPositions = null;
+
+    private Supplier<Portfolio> successor = null;
+
+    public Portfolio(String id, SymbolRegistry stocks, DispatchScheduler scheduler,
+            FeedConfiguration config, Logger logger) {
+        this(id, stocks, scheduler, config, new FeedMetrics(new Metrics()), logger);
+    }
 
-    public Portfolio(String id, Logger logger) {
+    public Portfolio(String id, SymbolRegistry stocks, DispatchScheduler scheduler,
+            FeedConfiguration config, FeedMetrics metrics, Logger logger) {
+        this(id, stocks, scheduler, config, metrics, new PositionTable(), logger);
+    }
+
+    /**
+     * Creates a portfolio whose contents are kept by the supplied
+     * Positions, which may already hold them.
+     */
+    Portfolio(String id, SymbolRegistry stocks, DispatchScheduler scheduler,
+            FeedConfiguration config, FeedMetrics metrics, Positions quantities, Logger logger) {
         this.id = id;
+        this.quantities = quantities;
+        this.metrics = metrics;
+        this.stocks = stocks;
         this.logger = logger;
-        // create the executor for this instance;
-        // the SingleThreadExecutor ensures a FIFO behaviour
-        listeners = new ArrayList<>();
-        executor = Executors.newSingleThreadExecutor();
+        // the executor is shared with other portfolios,
+        // but still ensures a FIFO behaviour for this instance
+        this.executor = scheduler.laneFor(id);
+        this.scheduler = scheduler;
+        this.conflationMillis = config.getConflationMillis();
+        this.conflationMaxChanges = config.getConflationMaxChanges();
+        this.listenerQueueSize = config.getListenerQueueSize();
+        this.overflowPolicy = config.getOverflowPolicy();
+    }
+
+    /**
+     * Lets the changes be saved to a store and restores the contents
+     * recovered from the store, if any; to be called before the portfolio
+     * is used.
+     *
+     * @param recovered pairs of stock ordinal and quantity, or null.
+     */
+    void attachStore(PortfolioStore store, int portfolioOrdinal, int[] recovered) {
+        this.store = store;
+        this.storeOrdinal = portfolioOrdinal;
+        if (recovered != null) {
+            //the contents are already saved
+            restore(recovered);
+        }
+    }
+
+    /**
+     * Restores the contents, as pairs of stock ordinal and quantity,
+     * with no notification; to be called before the portfolio is used.
+     */
+    void restore(int[] positions) {
+        for (int i = 0; i < positions.length; i += 2) {
+            quantities.put(positions[i], positions[i + 1]);
+        }
+        version++;
+    }
+
+    /**
+     * Captures the current contents, as pairs of stock ordinal and
+     * quantity, for instance, to save them.
+     */
+    CompletableFuture<int[]> capturePositions() {
+        final CompletableFuture<int[]> future = new CompletableFuture<int[]>();
+        submit(new Runnable() {
+            public void run() {
+                future.complete(retired ? retiredPositions : copyPositions());
+            }
+        }, false);
+        return future;
+    }
+
+    /**
+     * Only called by the writer.
+     */
+    private int[] copyPositions() {
+        int[] ordinals = new int[quantities.size()];
+        quantities.copyOrdinals(ordinals);
+        int[] pairs = new int[ordinals.length * 2];
+        for (int i = 0; i < ordinals.length; i++) {
+            pairs[i * 2] = ordinals[i];
+            pairs[i * 2 + 1] = quantities.get(ordinals[i]);
+        }
+        return pairs;
+    }
+
+    /**
+     * Returns whether there are listeners attached.
+     */
+    boolean hasListeners() {
+        return ! channels.isEmpty();
+    }
+
+    /**
+     * Returns the last time the portfolio was found in use, considering
+     * the supplied time as the current one; only called by the feed eviction.
+     */
+    long checkLastUsed(long nowMillis) {
+        if (touched) {
+            touched = false;
+            lastUsedMillis = nowMillis;
+        }
+        return lastUsedMillis;
+    }
+
+    long getLastUsedMillis() {
+        return lastUsedMillis;
+    }
+
+    boolean isRetired() {
+        return retired;
+    }
+
+    /**
+     * Retires the portfolio, unless it has listeners: the contents are
+     * handed to the spill consumer, then any further request, including
+     * those already enqueued, is forwarded to the portfolio supplied
+     * by the successor supplier, which should be restored from them.
+     *
+     * @return a future for whether the portfolio has been retired.
+     */
+    CompletableFuture<Boolean> retire(final Consumer<int[]> spill, final Supplier<Portfolio> successor) {
+        final CompletableFuture<Boolean> future = new CompletableFuture<Boolean>();
+        submit(new Runnable() {
+            public void run() {
+                if (retired || ! channels.isEmpty()) {
+                    future.complete(false);
+                    return;
+                }
+                //no listeners, hence nothing collected to be notified
+                clearPending();
+                int[] pairs = copyPositions();
+                //the contents have to be available before any request is forwarded
+                spill.accept(pairs);
+                retiredPositions = pairs;
+                Portfolio.this.successor = successor;
+                retired = true;
+                future.complete(true);
+            }
+        }, false);
+        return future;
+    }
+
+    /**
+     * Returns the portfolio to which the requests have to be forwarded,
+     * or null if the portfolio is not retired; only called by the writer.
+     */
+    private Portfolio successor() {
+        return retired ? successor.get() : null;
+    }
+
+    private void touch() {
+        if (! touched) {
+            touched = true;
+        }
+    }
+
+    /**
+     * Returns the number of calls waiting to be delivered to the listeners.
+     */
+    public int getListenerQueueDepth() {
+        int depth = 0;
+        for (ListenerChannel channel : channels) {
+            depth += channel.getDepth();
+        }
+        return depth;
+    }
+
+    /**
+     * Returns the highest number of calls that have been waiting
+     * to be delivered to any current listener.
+     */
+    public int getMaxListenerQueueDepth() {
+        int maxDepth = 0;
+        for (ListenerChannel channel : channels) {
+            maxDepth = Math.max(maxDepth, channel.getMaxDepth());
+        }
+        return maxDepth;
+    }
+
+    /**
+     * Returns the number of times a listener could not keep up
+     * with the changes and the OverflowPolicy was applied.
+     */
+    public long getListenerOverflowCount() {
+        long count = removedOverflowCount;
+        for (ListenerChannel channel : channels) {
+            count += channel.getOverflowCount();
+        }
+        return count;
     }
 
-    public synchronized void buy(String stock, int qty) throws Exception {
+    public void buy(String stock, int qty) throws Exception {
         if (qty <= 0) {
             //We can't buy 0 or less...
             logger.warn("Cannot buy " + qty + " " + stock + " for " + this.id + " use an integer greater than 0");
             throw new Exception("Cannot buy " + qty + " " + stock + " for " + this.id + " use an integer greater than 0");
         }
 
-        if (!PortfolioFeedSimulator.checkStock(stock)) {
+        int ordinal = stocks.ordinalOf(stock);
+        if (ordinal < 0) {
             //this stock does not exist
             logger.warn("Not valid stock to buy: " + stock);
             throw new Exception("Not valid stock to buy: " + stock);
         }
 
-        logger.debug("Buying " + qty + " " + stock + " for " + this.id);
+        this.buy(stock, ordinal, qty, FeedMetrics.UNTIMED, null, true);
+    }
+
+    /**
+     * Enqueues a validated order; the commands of a retired portfolio
+     * forward their orders with no throttling, as they may be running
+     * on the lane, which has to run the writer of the successor as well.
+     */
+    private void buy(final String stock, final int ordinal, final int qty, final long receivedNanos,
+            final OrderTrace trace, boolean throttle) {
+        if (logger.isDebugEnabled()) {
+            //the message is only built when it will be logged
+            logger.debug("Buying " + qty + " " + stock + " for " + this.id);
+        }
+        touch();
         //Pass the quantity to add to the changeQty method
-        this.changeQty(stock,qty);
+        submit(new Runnable() {
+            public void run() {
+                Portfolio successor = successor();
+                if (successor != null) {
+                    successor.buy(stock, ordinal, qty, receivedNanos, trace, false);
+                    return;
+                }
+                changeQty(ordinal,qty,trace);
+                orderProcessed(receivedNanos);
+            }
+        }, throttle);
     }
 
-    public synchronized void sell(String stock, int qty) throws Exception {
+    public void sell(String stock, int qty) throws Exception {
         if (qty <= 0) {
             //We can't sell 0 or less...
             logger.warn("Cannot sell " + qty + " " + stock + " for " + this.id + " use an integer greater than 0");
             throw new Exception("Cannot sell " + qty + " " + stock + " for " + this.id + " use an integer greater than 0");
         }
 
-        if (!PortfolioFeedSimulator.checkStock(stock)) {
+        int ordinal = stocks.ordinalOf(stock);
+        if (ordinal < 0) {
             //this stock does not exist
             logger.warn("Not valid stock to sell: " + stock);
             throw new Exception("Not valid stock to sell: " + stock);
         }
 
-        logger.debug("Selling " + qty + " " + stock + " for " + this.id);
+        this.sell(stock, ordinal, qty, FeedMetrics.UNTIMED, null, true);
+    }
+
+    private void sell(final String stock, final int ordinal, final int qty, final long receivedNanos,
+            final OrderTrace trace, boolean throttle) {
+        if (logger.isDebugEnabled()) {
+            logger.debug("Selling " + qty + " " + stock + " for " + this.id);
+        }
+        touch();
         //Change the quantity sing and pass it to the changeQty method
-        this.changeQty(stock,-qty);
+        submit(new Runnable() {
+            public void run() {
+                Portfolio successor = successor();
+                if (successor != null) {
+                    successor.sell(stock, ordinal, qty, receivedNanos, trace, false);
+                    return;
+                }
+                changeQty(ordinal,-qty,trace);
+                orderProcessed(receivedNanos);
+            }
+        }, throttle);
+    }
+
+    /**
+     * Buys a stock identified by its ordinal in the stock registry,
+     * as already resolved by the caller, hence with no lookup.
+     */
+    public void buy(int stockOrdinal, int qty) throws Exception {
+        this.buy(stockOrdinal, qty, FeedMetrics.UNTIMED);
+    }
+
+    /**
+     * Buys a stock identified by its ordinal, as above, for an order
+     * received at the specified time (as by System.nanoTime), which is
+     * the start of the order latency; FeedMetrics.UNTIMED if not known.
+     */
+    public void buy(int stockOrdinal, int qty, long receivedNanos) throws Exception {
+        this.buy(stockOrdinal, qty, receivedNanos, null);
+    }
+
+    /**
+     * Buys a stock identified by its ordinal, as above, for an order
+     * which may be traced; see OrderTracer.
+     *
+     * @param trace the trace of the order, or null.
+     */
+    public void buy(int stockOrdinal, int qty, long receivedNanos, OrderTrace trace) throws Exception {
+        if (qty <= 0) {
+            //We can't buy 0 or less...
+            logger.warn("Cannot buy " + qty + " #" + stockOrdinal + " for " + this.id + " use an integer greater than 0");
+            throw new Exception("Cannot buy " + qty + " #" + stockOrdinal + " for " + this.id + " use an integer greater than 0");
+        }
+
+        if (stockOrdinal < 0 || stockOrdinal >= stocks.size()) {
+            logger.warn("Not valid stock to buy: #" + stockOrdinal);
+            throw new Exception("Not valid stock to buy: #" + stockOrdinal);
+        }
+
+        this.buy(stocks.symbolOf(stockOrdinal), stockOrdinal, qty, receivedNanos, trace, true);
+    }
+
+    /**
+     * Sells a stock identified by its ordinal in the stock registry,
+     * as already resolved by the caller, hence with no lookup.
+     */
+    public void sell(int stockOrdinal, int qty) throws Exception {
+        this.sell(stockOrdinal, qty, FeedMetrics.UNTIMED);
+    }
+
+    /**
+     * Sells a stock identified by its ordinal, as above, for an order
+     * received at the specified time (as by System.nanoTime), which is
+     * the start of the order latency; FeedMetrics.UNTIMED if not known.
+     */
+    public void sell(int stockOrdinal, int qty, long receivedNanos) throws Exception {
+        this.sell(stockOrdinal, qty, receivedNanos, null);
+    }
+
+    /**
+     * Sells a stock identified by its ordinal, as above, for an order
+     * which may be traced; see OrderTracer.
+     *
+     * @param trace the trace of the order, or null.
+     */
+    public void sell(int stockOrdinal, int qty, long receivedNanos, OrderTrace trace) throws Exception {
+        if (qty <= 0) {
+            //We can't sell 0 or less...
+            logger.warn("Cannot sell " + qty + " #" + stockOrdinal + " for " + this.id + " use an integer greater than 0");
+            throw new Exception("Cannot sell " + qty + " #" + stockOrdinal + " for " + this.id + " use an integer greater than 0");
+        }
+
+        if (stockOrdinal < 0 || stockOrdinal >= stocks.size()) {
+            logger.warn("Not valid stock to sell: #" + stockOrdinal);
+            throw new Exception("Not valid stock to sell: #" + stockOrdinal);
+        }
+
+        this.sell(stocks.symbolOf(stockOrdinal), stockOrdinal, qty, receivedNanos, trace, true);
+    }
+
+    /**
+     * Applies a batch of orders, in sequence, but notifies the listeners
+     * only at the end, with a single update for each stock whose quantity
+     * has changed (unless conflation delays the notification further).
+     * Invalid orders are rejected without affecting the other orders.
+     * The call waits for the batch to be applied, which never requires
+     * more than the completion of the commands already enqueued.
+     *
+     * @return the outcome of each order, in the same order.
+     */
+    public OrderOutcome[] applyBatch(List<Order> orders) {
+        return submitBatch(orders, FeedMetrics.UNTIMED).join();
+    }
+
+    /**
+     * Applies a batch of orders, as above, received at the specified time
+     * (as by System.nanoTime), which is the start of the order latency;
+     * FeedMetrics.UNTIMED if not known.
+     */
+    public OrderOutcome[] applyBatch(List<Order> orders, long receivedNanos) {
+        return submitBatch(orders, receivedNanos).join();
+    }
+
+    /**
+     * Enqueues a batch of orders, to be applied as by applyBatch.
+     *
+     * @return a future for the outcome of each order, in the same order.
+     */
+    public CompletableFuture<OrderOutcome[]> submitBatch(List<Order> orders) {
+        return submitBatch(orders, FeedMetrics.UNTIMED);
+    }
+
+    /**
+     * Enqueues a batch of orders, as above, received at the specified time.
+     */
+    public CompletableFuture<OrderOutcome[]> submitBatch(List<Order> orders, long receivedNanos) {
+        return submitBatch(orders, receivedNanos, true);
+    }
+
+    private CompletableFuture<OrderOutcome[]> submitBatch(final List<Order> orders, final long receivedNanos,
+            boolean throttle) {
+        //Validate the orders in the calling thread
+        final Order[] batch = orders.toArray(new Order[orders.size()]);
+        final int[] ordinals = new int[batch.length];
+        final OrderOutcome[] outcomes = new OrderOutcome[batch.length];
+        for (int i = 0; i < batch.length; i++) {
+            Order order = batch[i];
+            int ordinal = order.getStockOrdinal();
+            if (ordinal < 0 || ordinal >= stocks.size()) {
+                //not resolved by the creator
+                ordinal = stocks.ordinalOf(order.getStock());
+            }
+            if (order.getQty() <= 0 || ordinal < 0) {
+                logger.warn("Not valid order for " + this.id + ": " + order);
+                outcomes[i] = OrderOutcome.REJECTED;
+            }
+            ordinals[i] = ordinal;
+        }
+
+        final CompletableFuture<OrderOutcome[]> future = new CompletableFuture<OrderOutcome[]>();
+        touch();
+        submit(new Runnable() {
+            public void run() {
+                Portfolio successor = successor();
+                if (successor != null) {
+                    successor.submitBatch(orders, receivedNanos, false).thenAccept(future::complete);
+                    return;
+                }
+                batching = true;
+                try {
+                    for (int i = 0; i < batch.length; i++) {
+                        if (outcomes[i] != null) {
+                            continue;
+                        } else if (batch[i].getSide() == Order.Side.BUY) {
+                            outcomes[i] = changeQty(ordinals[i], batch[i].getQty(), null);
+                        } else {
+                            outcomes[i] = changeQty(ordinals[i], -batch[i].getQty(), null);
+                        }
+                    }
+                } finally {
+                    batching = false;
+                }
+                if (! pending.isEmpty()) {
+                    schedulePending();
+                }
+                for (int i = 0; i < outcomes.length; i++) {
+                    if (outcomes[i] != OrderOutcome.REJECTED) {
+                        orderProcessed(receivedNanos);
+                    }
+                }
+                future.complete(outcomes);
+            }
+        }, throttle);
+        if (logger.isDebugEnabled()) {
+            logger.debug("Batch of " + outcomes.length + " orders submitted for " + this.id);
+        }
+        return future;
+    }
+
+    /**
+     * Enqueues a command on the contents and, if no writer is active,
+     * runs it, together with some of the commands enqueued meanwhile.
+     * Only the order submissions are throttled; the other commands,
+     * including those enqueued by the writer itself and by the timer
+     * or lane threads, which must never wait for the backlog, are not.
+     */
+    private void submit(Runnable command, boolean throttle) {
+        commands.offer(command);
+        if (commandCount.getAndIncrement() != 0) {
+            //the current writer will run the command;
+            //just slow down if it cannot keep up, by parking rather
+            //than spinning, to leave the cores (or carriers) to the writer
+            if (throttle) {
+                long pauseNanos = MIN_THROTTLE_NANOS;
+                while (commandCount.get() > MAX_BACKLOG && ! Thread.currentThread().isInterrupted()) {
+                    LockSupport.parkNanos(this, pauseNanos);
+                    pauseNanos = Math.min(pauseNanos * 2, MAX_THROTTLE_NANOS);
+                }
+            }
+            return;
+        }
+        //this thread is the writer now
+        runCommands();
+    }
+
+    /**
+     * Runs a batch of the enqueued commands; only called by the writer,
+     * which, if more commands are pending, hands its role to the lane.
+     */
+    private void runCommands() {
+        while (true) {
+            for (int n = 0; n < WRITER_BATCH; n++) {
+                Runnable next = commands.poll();
+                try {
+                    next.run();
+                } catch (RuntimeException e) {
+                    logger.error("Unexpected error on " + this.id, e);
+                }
+                if (commandCount.decrementAndGet() == 0) {
+                    return;
+                }
+            }
+            try {
+                executor.execute(writerTask);
+                return;
+            } catch (RejectedExecutionException e) {
+                //the feed is being shut down; don't leave the commands behind
+            }
+        }
+    }
+
+    /**
+     * Accounts for an order just carried out; only called by the writer.
+     */
+    private void orderProcessed(long receivedNanos) {
+        if (receivedNanos != FeedMetrics.UNTIMED) {
+            metrics.orderLatency.record(System.nanoTime() - receivedNanos);
+        }
     }
 
-    private synchronized void changeQty(String stock, int qty) {
+    /**
+     * Only called by the writer.
+     */
+    private OrderOutcome changeQty(int ordinal, int qty, OrderTrace trace) {
         //Get the old quantity for the stock
-        Integer oldQty = quantities.get(stock);
+        int oldQty = quantities.get(ordinal);
         int newQty;
-        if (oldQty == null) {
-            //If oldQty is null it means that we have not that stock on our portfolio
+        if (oldQty == 0) {
+            //If oldQty is 0 it means that we have not that stock on our portfolio
             if (qty <= 0) {
                 //We can't sell something we don't have, warn and return.
-                logger.warn(this.id+"|No stock to sell: " + stock);
-                return;
+                logger.warn(this.id+"|No stock to sell: " + stocks.symbolOf(ordinal));
+                return OrderOutcome.IGNORED;
             }
-            //Set oldQty to 0 to let the listener know that we previously didn't have such stock
-            oldQty = 0;
             //The new quantity is equal to the bought value
             newQty = qty;
 
@@ -130,111 +777,269 @@ public class Portfolio {
 
             // overflow check; just in case
             if (qty > 0 && newQty <= qty) {
-                newQty = oldQty;
-                logger.warn(this.id+"|Quantity overflow; order ignored: " + stock);
-                return;
+                logger.warn(this.id+"|Quantity overflow; order ignored: " + stocks.symbolOf(ordinal));
+                return OrderOutcome.IGNORED;
             }
         }
 
+        OrderOutcome outcome = OrderOutcome.EXECUTED;
         if (newQty < 0) {
             //We sold more than we had
-            logger.warn(this.id+"|Not enough stock to sell: " + stock);
+            logger.warn(this.id+"|Not enough stock to sell: " + stocks.symbolOf(ordinal));
             //We interpret this as "sell everything"
             newQty = 0;
+            outcome = OrderOutcome.CLIPPED;
         }
 
-        if (newQty == 0) {
-            //If we sold everything we remove the stock from the internal structure
-            quantities.remove(stock);
-        } else {
-            //Save the actual quantity in internal structure
-            quantities.put(stock, newQty);
+        //Save the actual quantity in internal structure;
+        //if we sold everything the stock is removed
+        quantities.put(ordinal, newQty);
+        if (store != null) {
+            store.changed(storeOrdinal, ordinal, newQty);
+        }
+        //The previous snapshot, if any, is no longer valid
+        version++;
+        snapshot = null;
+        if (trace != null) {
+            trace.applied(ordinal);
         }
 
-        for (PortfolioListener listener : listeners) {
-            //copy the actual listener to a constant that will be used inside the inner class
-            final PortfolioListener localListener = listener;
-            //copy the values to constant to be used inside the inner class
-            final int newVal = newQty;
-            final int oldVal = oldQty.intValue();
-            final String stockId = stock;
+        if (channels.isEmpty()) {
+            return outcome;
+        }
 
-            //Clone the actual status of the portfolio
-            final HashMap<String,Integer> currentStatus =
-                (HashMap<String,Integer>) quantities.clone();
+        if (batching || conflationMillis > 0) {
+            //Collect the change, to be notified at the end of the batch
+            //or later together with other changes
+            pending.add(ordinal, oldQty);
+            if (trace != null && pendingTrace == null) {
+                pendingTrace = trace;
+            }
+            if (! batching) {
+                schedulePending();
+            }
+        } else {
+            notifyUpdate(ordinal, newQty, oldQty, trace);
+        }
+        return outcome;
+    }
 
-            //If we have a listener create a new Runnable to be used as a task to pass the
-            //new update to the listener
-            Runnable updateTask = new Runnable() {
+    /**
+     * Notifies the collected changes, either now or when the conflation
+     * time elapses. Only called by the writer.
+     */
+    private void schedulePending() {
+        if (conflationMillis <= 0
+                || (conflationMaxChanges > 0 && pending.getChangeCount() >= conflationMaxChanges)) {
+            //No conflation or enough changes collected, don't wait any longer
+            flushPending();
+        } else if (! flushScheduled) {
+            flushScheduled = true;
+            final Runnable flushCommand = new Runnable() {
+                public void run() {
+                    flushScheduled = false;
+                    flushPending();
+                }
+            };
+            //the timer is shared by all the portfolios, hence it only
+            //hands the flush to the lane, which may have to act as the writer
+            final Runnable flushTask = new Runnable() {
                 public void run() {
-                    // call the update on the listener;
-                    // in case the listener has just been detached,
-                    // the listener should detect the case
-                    localListener.update(stockId, newVal, oldVal, currentStatus);
+                    submit(flushCommand, false);
                 }
             };
+            scheduler.schedule(new Runnable() {
+                public void run() {
+                    executor.execute(flushTask);
+                }
+            }, conflationMillis);
+        }
+    }
+
+    /**
+     * Notifies the listeners of the collected changes.
+     */
+    private void flushPending() {
+        //the traced change, if any, is followed through its stock
+        OrderTrace trace = pendingTrace;
+        pendingTrace = null;
+        for (int i = 0; i < pending.size(); i++) {
+            int ordinal = pending.getOrdinal(i);
+            int oldQty = pending.getOldQty(i);
+            int newQty = quantities.get(ordinal);
+            //If the quantity is unchanged there is nothing to notify;
+            //this also covers a stock bought and then sold out, which
+            //would otherwise produce an ADD followed by a DELETE
+            if (newQty != oldQty) {
+                notifyUpdate(ordinal, newQty, oldQty,
+                        trace != null && trace.getStockOrdinal() == ordinal ? trace : null);
+            }
+        }
+        pending.clear();
+    }
+
+    private void notifyUpdate(int ordinal, int newQty, int oldQty, OrderTrace trace) {
+        //Take the actual status of the portfolio, shared by all the listeners
+        PortfolioSnapshot currentStatus = getSnapshot();
+
+        for (ListenerChannel channel : channels) {
+            //Enqueue the update on the listener channel, which will pass it
+            //to the listener through the executor
+            if (! channel.update(ordinal, newQty, oldQty, currentStatus, trace)) {
+                onOverflow(channel);
+            }
+        }
+    }
+
+    /**
+     * Completes the handling of an overflow of a listener channel.
+     */
+    private void onOverflow(final ListenerChannel channel) {
+        if (channel.isClosed()) {
+            //the channel has disconnected the listener
+            logger.warn("Slow listener disconnected from " + this.id);
+            discardChannel(channel);
+            if (channels.isEmpty()) {
+                clearPending();
+            }
+        } else {
+            //the listener will be cleaned and will receive the actual status;
+            //this has to follow the completion of the current command,
+            //as the current one may still be changing the contents
+            logger.warn("Slow listener of " + this.id + " will be resynchronized");
+            submit(new Runnable() {
+                public void run() {
+                    channel.status(getSnapshot());
+                }
+            }, false);
+        }
+    }
 
-            //We add the task on the executor to pass to the listener the actual status
-            executor.execute(updateTask);
+    private void clearPending() {
+        pending.clear();
+        pendingTrace = null;
+    }
+
+    private void discardChannel(ListenerChannel channel) {
+        if (channels.remove(channel)) {
+            removedOverflowCount += channel.getOverflowCount();
         }
     }
 
-    public synchronized void addListener(PortfolioListener newListener) {
+    public void addListener(final PortfolioListener newListener) {
         if (newListener == null) {
             //we don't accept a null parameter. to delete the actual listener
             //the removeListener method must be used
             return;
         }
-        //Set the listener
-        this.listeners.add(newListener);
+        touch();
+        submit(new Runnable() {
+            public void run() {
+                Portfolio successor = successor();
+                if (successor != null) {
+                    successor.addListener(newListener);
+                    return;
+                }
+                doAddListener(newListener);
+            }
+        }, false);
+    }
+
+    private void doAddListener(PortfolioListener newListener) {
+        //The collected changes are due to the current listeners only,
+        //as the new listener will receive the actual status
+        flushPending();
 
-        logger.debug("Listener set on " + this.id);
+        //Set the listener, with its own channel
+        ListenerChannel channel = new ListenerChannel(newListener, executor, stocks,
+                listenerQueueSize, overflowPolicy, metrics.dispatchLag, logger);
+        this.channels.add(channel);
 
-        //copy the actual listener to a final variable that will be used inside the inner class
-        final PortfolioListener localListener = newListener;
+        logger.debug("Listener set on {}", this.id);
 
-        //Clone the actual status of the portfolio
-        final HashMap<String,Integer> currentStatus =
-            (HashMap<String,Integer>) quantities.clone();
+        //Pass the actual status to the listener
+        channel.status(getSnapshot());
+    }
 
-        //Create a new Runnable to be used as a task to pass the actual status to the listener
-        Runnable statusTask = new Runnable() {
+    public void removeListener(final PortfolioListener listener) {
+        touch();
+        submit(new Runnable() {
             public void run() {
-                // call the onActualStatus on the listener;
-                // in case the listener has just been detached,
-                // the listener should detect the case
-                localListener.onActualStatus(currentStatus);
+                Portfolio successor = successor();
+                if (successor != null) {
+                    successor.removeListener(listener);
+                    return;
+                }
+                //remove the listener and discard its pending calls
+                for (ListenerChannel channel : channels) {
+                    if (channel.getListener() == listener) {
+                        channel.close();
+                        discardChannel(channel);
+                        break;
+                    }
+                }
+                if (channels.isEmpty()) {
+                    //nobody is interested in the collected changes
+                    clearPending();
+                }
             }
-        };
-
-        //We add the task on the executor to pass to the listener the actual status
-        executor.execute(statusTask);
+        }, false);
     }
 
-    public synchronized void removeListener(PortfolioListener listener) {
-        //remove the listener
-        this.listeners.remove(listener);
+    // never called in the demo, just showing the feature
+    public void empty() {
+        logger.debug("Cleaning status {}", this.id);
+
+        touch();
+        submit(new Runnable() {
+            public void run() {
+                Portfolio successor = successor();
+                if (successor != null) {
+                    successor.empty();
+                    return;
+                }
+                doEmpty();
+            }
+        }, false);
     }
 
-    // never called in the demo, just showing the feature
-    public synchronized void empty() {
-        logger.debug("Cleaning status " + this.id);
-        
+    private void doEmpty() {
         //remove all the quantities so that the portfolio will result empty
         quantities.clear();
+        if (store != null) {
+            store.cleared(storeOrdinal);
+        }
+        version++;
+        snapshot = null;
+        //the collected changes are superseded by the cleaning
+        clearPending();
         
-        for (PortfolioListener listener : listeners) {
-            //copy the actual listener to a constant that will be used inside the inner class
-            final PortfolioListener localListener = listener;
-        
-            Runnable clearTask = new Runnable() {
-                public void run() {
-                    localListener.empty();
-                }
-            };
+        for (ListenerChannel channel : channels) {
+            channel.empty();
+        }
+    }
 
-            //We add the task on the executor to pass to the listener the actual status
-            executor.execute(clearTask);
+    /**
+     * Returns an immutable copy of the current contents;
+     * the copy is reused until the contents change.
+     */
+    private PortfolioSnapshot getSnapshot() {
+        if (snapshot == null) {
+            boolean timed = (++snapshotCount & FeedMetrics.SAMPLE_MASK) == 0;
+            long start = timed ? System.nanoTime() : 0;
+            int[] ordinals = new int[quantities.size()];
+            quantities.copyOrdinals(ordinals);
+            Arrays.sort(ordinals);
+            int[] qtys = new int[ordinals.length];
+            for (int i = 0; i < ordinals.length; i++) {
+                qtys[i] = quantities.get(ordinals[i]);
+            }
+            snapshot = new PortfolioSnapshot(version, stocks, ordinals, qtys);
+            if (timed) {
+                metrics.snapshotBuildTime.record(System.nanoTime() - start);
+            }
+            metrics.snapshotSize.record(ordinals.length);
         }
+        return snapshot;
     }
 }
\ No newline at end of file
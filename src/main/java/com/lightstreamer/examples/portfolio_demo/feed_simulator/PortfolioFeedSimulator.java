@@ -17,21 +17,69 @@
 package com.lightstreamer.examples.portfolio_demo.feed_simulator;
 
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import com.lightstreamer.examples.portfolio_demo.metrics.Metrics;
+
 /**
  * Simulates an external data feed that provides the contents of multiple
- * stock portfolios. Only 5 portfolios of names "portfolio1" to "portfolio5"
- * are currently accepted.
+ * stock portfolios. Only the portfolios and stocks defined in the configured
+ * Universe are accepted; by default, portfolios of names "portfolio1" to
+ * "portfolio10", holding stocks of names "item1" to "item30".
  * The managed portfolios are initialized with random content. Each portfolio
- * is initialized only when needed, then it is kept permanently.
+ * is initialized only when needed, then it is kept, unless eviction is
+ * configured; the portfolios configured for preloading are initialized
+ * in parallel upon start.
+ * With eviction, the portfolios with no listeners that have not been used
+ * for a while, or the least recently used ones beyond a configured number,
+ * are retired and their contents are spilled to a compact copy, until the
+ * next request for the portfolio creates a new bean, restored from the copy.
+ * If a PortfolioStore is configured, the copy is handed to the store (which,
+ * for WalPortfolioStore, writes it to a file), hence the heap only holds
+ * the active portfolios; only without a store, the copy stays on the heap.
+ * With OFF_HEAP storage, no copy is made at all, as the row of the portfolio
+ * keeps the contents and the new bean reuses it.
+ * A bean still held after its retirement forwards the requests to the new one.
+ * If a PortfolioStore is configured, the portfolios saved by a previous
+ * run are restored upon start, with their saved contents, and all the
+ * subsequent changes are saved.
  * The feed provides the clients with a single bean for each managed portfolio,
  * which can be used either to listen to the contents
  * or to notify buy/sell orders.
+ * The notifications to the listeners of all portfolios are performed
+ * through a shared DispatchScheduler.
+ * The feed also holds the Metrics of the portfolios and of the adapters
+ * bound to it; see FeedMetrics for those updated by the portfolios.
+ * The feed supplies the gauges "portfolios", "listeners.queueDepth"
+ * (the total of the calls waiting for the listeners),
+ * "listeners.maxQueueDepth" and "listeners.overflows", as well as
+ * "positions.offHeapBytes", if the contents are kept outside of the heap
+ * (see PositionStorage), and the counters "portfolios.evicted" and
+ * "portfolios.reloaded".
+ * If configured, a synthetic order flow is applied on the portfolios
+ * upon start; see OrderFlowGenerator.
  */
 public class PortfolioFeedSimulator {
 
@@ -52,14 +100,32 @@ public class PortfolioFeedSimulator {
     public static final ConcurrentHashMap<String, PortfolioFeedSimulator> feedMap =
         new ConcurrentHashMap<String, PortfolioFeedSimulator>();
 
-    public static synchronized PortfolioFeedSimulator start(String adapterSetId) {
+    /**
+     * Returns the feed related with the specified Adapter Set, creating it
+     * if needed; the configuration is only considered upon creation.
+     *
+     * @throws IllegalStateException if the configured store cannot be opened.
+     */
+    public static synchronized PortfolioFeedSimulator start(String adapterSetId, FeedConfiguration config) {
         PortfolioFeedSimulator feed = PortfolioFeedSimulator.feedMap.get(adapterSetId);
 
         if (feed == null) {
-            feed = new PortfolioFeedSimulator();
+            feed = new PortfolioFeedSimulator(config);
+            if (! config.getPreloadPortfolios().isEmpty()) {
+                feed.preload(config.getPreloadPortfolios());
+            }
+            if (config.isMetricsJmx()) {
+                feed.getMetrics().registerMBean(adapterSetId);
+            }
 
             // Put the feed instance on a static map to be read by the Metadata Adapter
             feedMap.put(adapterSetId, feed);
+
+            if (config.getLoadProfile() != null) {
+                feed.loadGenerator = new OrderFlowGenerator(config.getLoadProfile(), feed.getUniverse(),
+                        OrderSink.toFeed(feed), feed.getMetrics(), feed.logger);
+                feed.loadGenerator.start();
+            }
         }
         
         return feed;
@@ -71,83 +137,483 @@ public class PortfolioFeedSimulator {
     private final ConcurrentHashMap<String,Portfolio> portfolios =
         new ConcurrentHashMap<String,Portfolio>();
 
-    public PortfolioFeedSimulator() {
+    /**
+     * The accepted portfolio and stock ids.
+     */
+    private final Universe universe;
+
+    /**
+     * The accepted portfolio ids.
+     */
+    private final SymbolRegistry portfolioIds;
+
+    /**
+     * The stocks that can be held in the portfolios.
+     */
+    private final SymbolRegistry stocks;
+
+    /**
+     * Performs the calls to the listeners of all portfolios.
+     */
+    private final DispatchScheduler scheduler;
+
+    private final FeedConfiguration config;
+
+    private final Metrics metrics = new Metrics();
+
+    private final FeedMetrics feedMetrics;
+
+    private final OrderTracer orderTracer;
+
+    /**
+     * Maximum interval between the eviction checks.
+     */
+    private static final long EVICTION_PERIOD_MILLIS = 1000;
+
+    /**
+     * Holds the contents of all the portfolios, if they are kept outside
+     * of the heap; null otherwise.
+     */
+    private final OffHeapPositionTable offHeapPositions;
+
+    /**
+     * Saves the portfolio contents; null if persistence is not configured.
+     */
+    private final PortfolioStore store;
+
+    /**
+     * Taken in shared mode for the creation of each portfolio, up to its
+     * publication in the map, and in exclusive mode to capture the contents
+     * of all the portfolios, so that no portfolio being created can be missed.
+     */
+    private final ReadWriteLock creationLock = new ReentrantReadWriteLock();
+
+    /**
+     * The contents of the evicted portfolios, as pairs of stock ordinal
+     * and quantity, by portfolio ordinal, until they are reloaded (or
+     * KEPT_IN_ROW, if the contents are kept outside of the heap, or
+     * KEPT_IN_STORE, if the store keeps them); null if eviction is disabled.
+     */
+    private final AtomicReferenceArray<int[]> spilled;
+
+    /**
+     * Marks an evicted portfolio whose contents are still in its row.
+     */
+    private static final int[] KEPT_IN_ROW = new int[0];
+
+    /**
+     * Marks an evicted portfolio whose contents are kept by the store.
+     */
+    private static final int[] KEPT_IN_STORE = new int[0];
+
+    /**
+     * Runs the eviction; null if eviction is disabled.
+     */
+    private final ScheduledExecutorService evictor;
+
+    private final LongAdder evictedCount;
+
+    private final LongAdder reloadedCount;
+
+    /**
+     * Applies the configured synthetic order flow; null if none.
+     */
+    private volatile OrderFlowGenerator loadGenerator = null;
+
+    /**
+     * Releases the resources of the components bound to the feed.
+     */
+    private final List<Runnable> shutdownActions = new CopyOnWriteArrayList<Runnable>();
+
+    /**
+     * @throws IllegalStateException if the configured store cannot be opened.
+     */
+    public PortfolioFeedSimulator(FeedConfiguration config) {
         logger = LogManager.getLogger("LS_demos_Logger.Portfolio");
+        this.config = config;
+        universe = config.getUniverse();
+        portfolioIds = universe.getPortfolios();
+        stocks = universe.getStocks();
+        if (config.getPositionStorage() == PositionStorage.OFF_HEAP) {
+            offHeapPositions = new OffHeapPositionTable(portfolioIds.size(), stocks.size());
+        } else {
+            offHeapPositions = null;
+        }
+        store = config.getStore();
+        if (store != null) {
+            try {
+                store.open(universe, this::capturePositions);
+            } catch (IOException e) {
+                logger.error("Cannot open the portfolio store", e);
+                throw new IllegalStateException("Cannot open the portfolio store: " + e.getMessage(), e);
+            }
+        }
+        scheduler = new DispatchScheduler("Portfolio dispatch", config.getThreadMode());
+        feedMetrics = new FeedMetrics(metrics);
+        orderTracer = new OrderTracer(config.getOrderTraceSampling(), metrics, logger);
+        registerGauges();
+        evictedCount = metrics.counter("portfolios.evicted");
+        reloadedCount = metrics.counter("portfolios.reloaded");
+        if (config.getPortfolioIdleMillis() > 0 || config.getMaxResidentPortfolios() > 0) {
+            spilled = new AtomicReferenceArray<int[]>(portfolioIds.size());
+            evictor = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "Portfolio eviction");
+                thread.setDaemon(true);
+                return thread;
+            });
+            //the idle time is checked with this granularity
+            long period = EVICTION_PERIOD_MILLIS;
+            if (config.getPortfolioIdleMillis() > 0) {
+                period = Math.min(period, config.getPortfolioIdleMillis());
+            }
+            evictor.scheduleWithFixedDelay(() -> {
+                try {
+                    evictPortfolios();
+                } catch (RuntimeException e) {
+                    logger.error("Unexpected error in portfolio eviction", e);
+                }
+            }, period, period, TimeUnit.MILLISECONDS);
+        } else {
+            spilled = null;
+            evictor = null;
+        }
+        if (config.getMetricsExportMillis() > 0) {
+            metrics.startExport(config.getMetricsExporter(), config.getMetricsExportMillis());
+        }
+        if (store != null) {
+            //Restore the saved portfolios now, so that they can be saved again
+            //in the next snapshots
+            int[] recovered = store.getRecoveredPortfolios();
+            List<String> ids = new ArrayList<String>(recovered.length);
+            for (int ordinal : recovered) {
+                ids.add(portfolioIds.symbolOf(ordinal));
+            }
+            preload(ids);
+        }
+        logger.info("Portfolio feed started with " + portfolioIds.size() + " portfolios, "
+                + stocks.size() + " stocks and " + config.getThreadMode() + " dispatch threads");
     }
 
     public Portfolio getPortfolio(String portfolioId) {
         //Check the portfolioId to see if it's a valid one
-        if (!checkPortfolio(portfolioId)) {
+        int ordinal = portfolioIds.ordinalOf(portfolioId);
+        if (ordinal < 0) {
             logger.warn("Wrong portfolio ID: " + portfolioId);
             return null;
         }
 
         //Get the portfolio by id from the portfolios map
         Portfolio portfolio = portfolios.get(portfolioId);
-        if (portfolio != null) {
+        if (portfolio != null && ! portfolio.isRetired()) {
             //If the portfolio is already available return it
             return portfolio;
+        }
+        //If the portfolio is not yet available (or has just been evicted)
+        //we will create it; the map ensures that it is created once, while
+        //only the threads that need the same portfolio (or a few others
+        //that share its slot in the map) wait for the creation
+        creationLock.readLock().lock();
+        try {
+            return portfolios.compute(portfolioIds.symbolOf(ordinal),
+                    (id, current) -> current != null && ! current.isRetired() ? current : createPortfolio(id, ordinal));
+        } finally {
+            creationLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Creates the portfolios, if not yet available, in parallel, so that
+     * their first use is not slowed down by their initialization;
+     * the call returns when all of them are available.
+     */
+    public void preload(Collection<String> ids) {
+        long start = System.nanoTime();
+        final String[] idArray = ids.toArray(new String[ids.size()]);
+        //a dedicated pool, as the tasks may block on the creation of a
+        //portfolio by another thread; its threads end with the call
+        ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        try {
+            pool.invoke(new PreloadTask(idArray, 0, idArray.length));
+        } finally {
+            pool.shutdown();
+        }
+        logger.info(idArray.length + " portfolios preloaded in "
+                + (System.nanoTime() - start) / 1000000 + " ms");
+    }
+
+    /**
+     * Creates a range of portfolios, splitting it among the pool threads.
+     */
+    private class PreloadTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final int THRESHOLD = 64;
+
+        private final String[] ids;
+
+        private final int from;
+
+        private final int to;
+
+        PreloadTask(String[] ids, int from, int to) {
+            this.ids = ids;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    getPortfolio(ids[i]);
+                }
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new PreloadTask(ids, from, middle), new PreloadTask(ids, middle, to));
+            }
+        }
+    }
+
+    /**
+     * Creates and initializes a portfolio; invoked once for each portfolio
+     * (and again after each eviction), under the creation lock.
+     */
+    private Portfolio createPortfolio(String portfolioId, int ordinal) {
+        //The contents are kept as configured
+        Positions positions;
+        if (offHeapPositions != null) {
+            positions = offHeapPositions.rowOf(ordinal);
         } else {
-            //If the portfolio is not yet available we will create it
-            //We have to synchronize to avoid conflict with other thread that
-            //need to create the same portfolio
-            synchronized (this) {
-                //Check again if the portfolio is available in case another thread created it
-                //while we were waiting for the lock
-                portfolio = portfolios.get(portfolioId);
-                if (portfolio == null) {
-                    //If no such portfolio exists we create a new portfolio
-                    portfolio = new Portfolio(portfolioId,logger);
-
-                    //We need to generate an actual status of the portfolio to avoid starting with
-                    //an empty one. Some random quantity will do the trick.
-                    addRandomQuantities(portfolio);
-
-                    //Add the new portfolio to the list of available portfolios
-                    portfolios.put(portfolioId, portfolio);
-
-                    logger.info(portfolioId + " created");
+            positions = new PositionTable();
+        }
+        Portfolio portfolio = new Portfolio(portfolioId,stocks,scheduler,config,feedMetrics,positions,logger);
+
+        //The portfolio may have been evicted, otherwise,
+        //it may have been saved by a previous run;
+        //the spilled copy is released, as the new bean takes its place
+        int[] recovered = spilled != null ? spilled.get(ordinal) : null;
+        boolean reloaded = recovered != null;
+        if (recovered == KEPT_IN_ROW) {
+            //the row already holds the contents
+            recovered = null;
+        } else if (recovered == KEPT_IN_STORE) {
+            //if this fails, the contents are still there for the next attempt
+            recovered = store.getEvictedPositions(ordinal, true);
+        }
+        if (reloaded) {
+            spilled.set(ordinal, null);
+        }
+        if (! reloaded && store != null) {
+            recovered = store.getRecoveredPositions(ordinal);
+        }
+        if (store != null) {
+            portfolio.attachStore(store, ordinal, recovered);
+        } else if (recovered != null) {
+            portfolio.restore(recovered);
+        }
+        if (recovered == null && ! reloaded) {
+            //We need to generate an actual status of the portfolio to avoid starting with
+            //an empty one. Some random quantity will do the trick.
+            addRandomQuantities(portfolio);
+        }
+
+        if (reloaded) {
+            reloadedCount.increment();
+            logger.debug("{} reloaded", portfolioId);
+        } else {
+            logger.info(portfolioId + " created");
+        }
+        return portfolio;
+    }
+
+    /**
+     * Lets a component bound to the feed, such as the order processing
+     * of the Metadata Adapter, release its resources upon shutdown.
+     */
+    public void onShutdown(Runnable action) {
+        shutdownActions.add(action);
+    }
+
+    // never called in the demo, just showing the feature
+    public void shutdown() {
+        // release the dispatch threads;
+        // the portfolios should no longer be used afterwards
+        if (loadGenerator != null) {
+            loadGenerator.stop();
+        }
+        for (Runnable action : shutdownActions) {
+            action.run();
+        }
+        if (evictor != null) {
+            evictor.shutdown();
+        }
+        scheduler.shutdown();
+        metrics.close();
+        if (store != null) {
+            store.close();
+        }
+    }
+
+    /**
+     * Captures the contents of all the portfolios created, on behalf
+     * of the store.
+     */
+    private CompletableFuture<int[][]> capturePositions() {
+        final int[][] positions = new int[portfolioIds.size()][];
+        Portfolio[] resident = new Portfolio[portfolioIds.size()];
+        //no portfolio can be being created or restored meanwhile, so that
+        //each one is either found or created later; the capture itself is
+        //carried out afterwards by each writer, with no lock held
+        creationLock.writeLock().lock();
+        try {
+            for (int ordinal = 0; ordinal < portfolioIds.size(); ordinal++) {
+                resident[ordinal] = portfolios.get(portfolioIds.symbolOf(ordinal));
+                if (resident[ordinal] == null && spilled != null) {
+                    int[] pairs = spilled.get(ordinal);
+                    if (pairs == KEPT_IN_ROW) {
+                        //no bean can be using the row meanwhile
+                        pairs = offHeapPositions.pairsOf(ordinal);
+                    } else if (pairs == KEPT_IN_STORE) {
+                        pairs = store.getEvictedPositions(ordinal, false);
+                    }
+                    positions[ordinal] = pairs;
                 }
-                //Return the portfolio
-                return portfolio;
             }
+        } catch (IllegalStateException e) {
+            //the store could not read what it keeps
+            CompletableFuture<int[][]> failed = new CompletableFuture<int[][]>();
+            failed.completeExceptionally(e);
+            return failed;
+        } finally {
+            creationLock.writeLock().unlock();
+        }
+        List<CompletableFuture<?>> captures = new ArrayList<CompletableFuture<?>>();
+        for (int ordinal = 0; ordinal < resident.length; ordinal++) {
+            if (resident[ordinal] != null) {
+                final int index = ordinal;
+                captures.add(resident[ordinal].capturePositions().thenAccept(pairs -> positions[index] = pairs));
+            }
+        }
+        return CompletableFuture.allOf(captures.toArray(new CompletableFuture<?>[captures.size()]))
+                .thenApply(done -> positions);
+    }
+
+    /**
+     * Retires the portfolios that have no listeners and either have been
+     * idle for the configured time or are the least recently used beyond
+     * the configured number; only run by the evictor.
+     */
+    private void evictPortfolios() {
+        long now = System.currentTimeMillis();
+        long idleMillis = config.getPortfolioIdleMillis();
+        int maxResident = config.getMaxResidentPortfolios();
+        int resident = 0;
+        List<Map.Entry<String, Portfolio>> candidates = new ArrayList<Map.Entry<String, Portfolio>>();
+        for (Map.Entry<String, Portfolio> entry : portfolios.entrySet()) {
+            Portfolio portfolio = entry.getValue();
+            long lastUsed = portfolio.checkLastUsed(now);
+            if (portfolio.isRetired()) {
+                continue;
+            }
+            resident++;
+            if (portfolio.hasListeners()) {
+                continue;
+            }
+            if (idleMillis > 0 && now - lastUsed >= idleMillis) {
+                if (evict(entry.getKey(), portfolio)) {
+                    resident--;
+                }
+            } else if (maxResident > 0) {
+                candidates.add(entry);
+            }
+        }
+        if (maxResident > 0 && resident > maxResident) {
+            candidates.sort(Comparator.comparingLong(entry -> entry.getValue().getLastUsedMillis()));
+            for (int i = 0; i < candidates.size() && resident > maxResident; i++) {
+                if (evict(candidates.get(i).getKey(), candidates.get(i).getValue())) {
+                    resident--;
+                }
+            }
+        }
+    }
+
+    private boolean evict(final String portfolioId, Portfolio portfolio) {
+        final int ordinal = portfolioIds.ordinalOf(portfolioId);
+        boolean retired = portfolio.retire(pairs -> {
+                    if (offHeapPositions != null) {
+                        spilled.set(ordinal, KEPT_IN_ROW);
+                    } else if (store != null && store.evicted(ordinal, pairs)) {
+                        spilled.set(ordinal, KEPT_IN_STORE);
+                    } else {
+                        spilled.set(ordinal, pairs);
+                    }
+                }, () -> getPortfolio(portfolioId)).join();
+        if (retired) {
+            //unless already replaced
+            portfolios.remove(portfolioId, portfolio);
+            evictedCount.increment();
+            logger.debug("{} evicted", portfolioId);
+        }
+        return retired;
+    }
+
+    private void registerGauges() {
+        metrics.gauge("portfolios", () -> portfolios.size());
+        metrics.gauge("listeners.queueDepth", () -> {
+            long depth = 0;
+            for (Portfolio portfolio : portfolios.values()) {
+                depth += portfolio.getListenerQueueDepth();
+            }
+            return depth;
+        });
+        metrics.gauge("listeners.maxQueueDepth", () -> {
+            long maxDepth = 0;
+            for (Portfolio portfolio : portfolios.values()) {
+                maxDepth = Math.max(maxDepth, portfolio.getMaxListenerQueueDepth());
+            }
+            return maxDepth;
+        });
+        metrics.gauge("listeners.overflows", () -> {
+            long count = 0;
+            for (Portfolio portfolio : portfolios.values()) {
+                count += portfolio.getListenerOverflowCount();
+            }
+            return count;
+        });
+        if (offHeapPositions != null) {
+            metrics.gauge("positions.offHeapBytes", () -> offHeapPositions.getAllocatedBytes());
         }
     }
 
     /**
      * Creates a random initial status for the portfolio.
      */
-    private static void addRandomQuantities(Portfolio portfolio) {
+    private void addRandomQuantities(Portfolio portfolio) {
         Random generator = new Random();
 
-        boolean[] used = new boolean[30];
-        for (int i = 0; i < 30; i++) {
-            used[i] = false;
-        }
+        boolean[] used = new boolean[stocks.size()];
 
-        //we start with 6-8 stocks
-        int stocks = 6+generator.nextInt(3);
+        //we start with 6-8 stocks (if the universe is large enough)
+        int stockCount = Math.min(6+generator.nextInt(3), stocks.size());
 
-        for (int i = 1; i <= stocks; i++) {
+        for (int i = 1; i <= stockCount; i++) {
 
             int stockN;
             do {
-                //We need a stock number between 0 and 29
-                stockN = generator.nextInt(30);
+                //We need a stock ordinal in the universe
+                stockN = generator.nextInt(stocks.size());
             } while (used[stockN]); //We need a stockId that's not been already used for this portfolio
             //Sign that we've used this stock number
             used[stockN] = true;
 
-            //The stock id will be itemN where N is a number between 1 and 30
-            String item = "item"+(stockN+1);
-
             //The initial quantity will be between 100 and 2500
             int qty = generator.nextInt(25)+1;
             qty *= 100;
 
             //Use the buy method to initialize the status
             try {
-                portfolio.buy(item, qty);
+                portfolio.buy(stockN, qty);
             } catch (Exception e) {
                 // should never happen here
             }
@@ -155,46 +621,40 @@ public class PortfolioFeedSimulator {
     }
 
     /**
-     * Performs a simple hard-coded portfolio id validation;
-     * we accept portfolioN where N is a number between 1 and 10.
+     * Performs the portfolio id validation against the configured universe,
+     * through a single lookup.
      */
-    public static boolean checkPortfolio(String portfolio) {
-        if (portfolio.indexOf("portfolio") != 0) {
-            return false;
-        }
-        int stNum;
-        try {
-            stNum = Integer.parseInt(portfolio.substring(9));
-        } catch (NumberFormatException e) {
-            return false;
-        }
-        if (stNum <= 0 || stNum > 10) {
-            return false;
-        }
+    public boolean checkPortfolio(String portfolio) {
+        return portfolioIds.ordinalOf(portfolio) >= 0;
+    }
+
+    /**
+     * Performs the stock id validation against the configured universe,
+     * through a single lookup.
+     * NOTE that the Portfolio class validates the stock ids
+     * through the same stock registry.
+     */
+    public boolean checkStock(String stock) {
+        return stocks.ordinalOf(stock) >= 0;
+    }
 
-        return true;
+    public Universe getUniverse() {
+        return universe;
     }
 
     /**
-     * Performs a simple hard-coded stock id validation;
-     * We accept itemN where N is a number between 1 and 30.
-     * NOTE that also the Portfolio class is aware about
-     * the way the stock id are composed.
+     * Returns the metrics registry of the feed, which the adapters
+     * bound to the feed can also use.
      */
-    public static boolean checkStock(String stock) {
-        if (stock.indexOf("item") != 0) {
-            return false;
-        }
-        int stNum;
-        try {
-            stNum = Integer.parseInt(stock.substring(4));
-        } catch (NumberFormatException e) {
-            return false;
-        }
-        if (stNum <= 0 || stNum > 30) {
-            return false;
-        }
+    public Metrics getMetrics() {
+        return metrics;
+    }
 
-        return true;
+    /**
+     * Returns the tracer to be used for the orders sent to the portfolios
+     * of this feed.
+     */
+    public OrderTracer getOrderTracer() {
+        return orderTracer;
     }
 }
\ No newline at end of file
@@ -16,8 +16,6 @@
 
 package com.lightstreamer.examples.portfolio_demo.feed_simulator;
 
-import java.util.Map;
-
 /**
  * Used to receive data from the simulated portfolio feed in an
  * asynchronous way.
@@ -28,22 +26,31 @@ public interface PortfolioListener {
 
     /**
      * Called at first to send the actual portfolio contents.
-     * The map associates stock ids with quantities.
+     * The snapshot associates stock ids with quantities.
      * Only stocks with positive quantities are included.
+     * The snapshot is immutable and may be shared with other listeners.
      */
-    public void onActualStatus(Map<String, Integer> currentStatus);
+    public void onActualStatus(PortfolioSnapshot currentStatus);
 
     /**
      * Called on each new update on the state of the portfolio.
      * If oldQty is 0 means that the stock wasn't on the portfolio before;
      * if qty is 0 means that the stock was completely sold from the portfolio.
-     * The overall status of the portfolio is also supplied to the caller.
+     * The overall status of the portfolio is also supplied to the caller,
+     * as an immutable snapshot that may be shared with other listeners.
      */
-    public void update(String stock, int qty, int oldQty, Map<String, Integer> currentStatus);
+    public void update(String stock, int qty, int oldQty, PortfolioSnapshot currentStatus);
     
     /**
      * May be called if the whole portfolio has to be cleaned at once.
      */
     public void empty();
 
+    /**
+     * Called if the listener has been detached from the portfolio,
+     * because it could not keep up with the changes; no more calls
+     * will follow.
+     */
+    public void onDisconnected();
+
 }
\ No newline at end of file
@@ -0,0 +1,158 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.lightstreamer.examples.portfolio_demo.feed_simulator;
+
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An immutable view of the contents of a portfolio at a given version.
+ * The stocks are kept ordered by id (hence by ordinal), together with
+ * their quantities, which can be read without boxing through the indexed
+ * getters; only stocks with positive quantities are included.
+ * A single instance is shared among all the listeners of a portfolio,
+ * hence it can be retained and read from any thread.
+ * For convenience, the snapshot can also be seen as an unmodifiable Map
+ * that associates stock ids with quantities.
+ */
+public final class PortfolioSnapshot extends AbstractMap<String,Integer> {
+
+    private final long version;
+
+    /**
+     * Resolves the stock ordinals to stock ids.
+     */
+    private final SymbolRegistry registry;
+
+    /**
+     * The stock ordinals, in ascending order.
+     */
+    private final int[] ordinals;
+
+    /**
+     * The quantities of the stocks, in the same order.
+     */
+    private final int[] quantities;
+
+    /**
+     * Wraps the supplied arrays, which must no longer be modified.
+     */
+    PortfolioSnapshot(long version, SymbolRegistry registry, int[] ordinals, int[] quantities) {
+        assert(ordinals.length == quantities.length);
+        this.version = version;
+        this.registry = registry;
+        this.ordinals = ordinals;
+        this.quantities = quantities;
+    }
+
+    /**
+     * Returns the version of the portfolio contents;
+     * each change of the contents increments the version.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public int size() {
+        return ordinals.length;
+    }
+
+    /**
+     * Returns the id of the stock at the specified position.
+     */
+    public String getStock(int index) {
+        return registry.symbolOf(ordinals[index]);
+    }
+
+    /**
+     * Returns the ordinal of the stock at the specified position.
+     */
+    public int getOrdinal(int index) {
+        return ordinals[index];
+    }
+
+    /**
+     * Returns the quantity of the stock at the specified position.
+     */
+    public int getQuantity(int index) {
+        return quantities[index];
+    }
+
+    /**
+     * Returns the quantity of the specified stock, or 0 if the stock
+     * is not in the portfolio.
+     */
+    public int getQuantity(String stock) {
+        int index = indexOf(stock);
+        return index >= 0 ? quantities[index] : 0;
+    }
+
+    private int indexOf(Object stock) {
+        if (! (stock instanceof String)) {
+            return -1;
+        }
+        int ordinal = registry.ordinalOf((String) stock);
+        if (ordinal < 0) {
+            return -1;
+        }
+        return Arrays.binarySearch(ordinals, ordinal);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    public Integer get(Object key) {
+        int index = indexOf(key);
+        return index >= 0 ? Integer.valueOf(quantities[index]) : null;
+    }
+
+    @Override
+    public Set<Map.Entry<String,Integer>> entrySet() {
+        return new AbstractSet<Map.Entry<String,Integer>>() {
+            public int size() {
+                return ordinals.length;
+            }
+            public Iterator<Map.Entry<String,Integer>> iterator() {
+                return new Iterator<Map.Entry<String,Integer>>() {
+                    private int next = 0;
+                    public boolean hasNext() {
+                        return next < ordinals.length;
+                    }
+                    public Map.Entry<String,Integer> next() {
+                        if (next >= ordinals.length) {
+                            throw new NoSuchElementException();
+                        }
+                        int index = next++;
+                        return new AbstractMap.SimpleImmutableEntry<String,Integer>(
+                                getStock(index), quantities[index]);
+                    }
+                };
+            }
+        };
+    }
+
+}
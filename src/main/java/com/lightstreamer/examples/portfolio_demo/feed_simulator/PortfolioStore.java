@@ -0,0 +1,107 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.lightstreamer.examples.portfolio_demo.feed_simulator;
+
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Keeps the portfolio contents across restarts of the feed.
+ * Upon start, the feed opens the store, which recovers the contents saved
+ * by a previous run; the recovered portfolios are then restored, whereas
+ * the others are initialized as usual. Afterwards, each portfolio notifies
+ * the store of all its changes, from its writer (see Portfolio), hence the
+ * notifications for different portfolios may be concurrent.
+ * Portfolios and stocks are identified by their ordinals in the Universe.
+ */
+public interface PortfolioStore {
+
+    /**
+     * Supplies the current contents of all the portfolios, for instance,
+     * to let the store take a snapshot.
+     */
+    public interface PositionSource {
+
+        /**
+         * Captures the contents of each portfolio, indexed by portfolio
+         * ordinal, as pairs of stock ordinal and quantity (null for the
+         * portfolios not available); each portfolio is captured at some
+         * point after the invocation, hence changes that follow the
+         * invocation may be included.
+         */
+        public CompletableFuture<int[][]> capturePositions();
+
+    }
+
+    /**
+     * Recovers the saved contents; invoked once, before any other method.
+     *
+     * @param universe the universe of the feed, to which the ordinals refer.
+     * @param source supplies the contents, whenever the store needs them.
+     * @throws IOException if the store cannot be used at all.
+     */
+    public void open(Universe universe, PositionSource source) throws IOException;
+
+    /**
+     * Returns the contents of a recovered portfolio, as pairs of stock
+     * ordinal and quantity, or null if the portfolio was not saved.
+     */
+    public int[] getRecoveredPositions(int portfolioOrdinal);
+
+    /**
+     * Returns the ordinals of the recovered portfolios.
+     */
+    public int[] getRecoveredPortfolios();
+
+    /**
+     * Saves the new quantity of a stock of a portfolio; 0 means
+     * that the stock is no longer held.
+     */
+    public void changed(int portfolioOrdinal, int stockOrdinal, int qty);
+
+    /**
+     * Saves the cleaning of a portfolio.
+     */
+    public void cleared(int portfolioOrdinal);
+
+    /**
+     * Keeps the contents of a portfolio evicted by the feed, as pairs of
+     * stock ordinal and quantity, until the portfolio is reloaded, so that
+     * the feed needs no copy of them; the contents don't change meanwhile.
+     *
+     * @return false if the contents could not be kept, in which case
+     * the feed keeps them by itself.
+     */
+    public boolean evicted(int portfolioOrdinal, int[] pairs);
+
+    /**
+     * Returns the contents kept for an evicted portfolio, as supplied
+     * to evicted, or null if none are kept.
+     *
+     * @param release whether the contents no longer have to be kept,
+     * as the portfolio is being reloaded.
+     * @throws IllegalStateException if the contents cannot be read.
+     */
+    public int[] getEvictedPositions(int portfolioOrdinal, boolean release);
+
+    /**
+     * Releases the resources, after saving everything pending.
+     */
+    public void close();
+
+}
@@ -0,0 +1,62 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.lightstreamer.examples.portfolio_demo.feed_simulator;
+
+
+/**
+ * Where the portfolio contents are kept, as configured through the
+ * "position_storage" adapter parameter.
+ */
+public enum PositionStorage {
+
+    /**
+     * Each portfolio keeps its contents in a small hash table on the heap,
+     * sized on the stocks actually held.
+     */
+    HEAP,
+
+    /**
+     * The contents of all the portfolios are kept outside of the heap,
+     * in direct buffers, as a dense table addressed by portfolio and stock
+     * ordinals; each portfolio only holds a small view on its row.
+     * This keeps the heap, and the garbage collection work, independent
+     * of the size of the contents, but each row takes (stockCount + 1) * 4
+     * bytes, regardless of the stocks actually held, and the rows are
+     * allocated in chunks of consecutive portfolios (see
+     * OffHeapPositionTable); this pays off only when the portfolios hold
+     * a significant part of the universe.
+     * Each portfolio in use is still an object on the heap, with its
+     * listeners and queues.
+     */
+    OFF_HEAP;
+
+    /**
+     * Interprets the value of the "position_storage" parameter;
+     * the default is HEAP.
+     */
+    public static PositionStorage fromParam(String value) {
+        if (value == null) {
+            return HEAP;
+        }
+        try {
+            return PositionStorage.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown position storage: " + value);
+        }
+    }
+
+}
@@ -0,0 +1,169 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.lightstreamer.examples.portfolio_demo.feed_simulator;
+
+
+import java.util.Arrays;
+
+/**
+ * Associates stock ordinals with positive quantities, on a primitive
+ * open addressing hash table with linear probing; as portfolios only
+ * hold a few stocks of the whole universe, this is much smaller than
+ * a dense array indexed by ordinal.
+ * Not thread safe.
+ */
+class PositionTable implements Positions {
+
+    private static final int FREE = -1;
+
+    private static final int MIN_CAPACITY = 16;
+
+    /**
+     * Stock ordinals; FREE denotes an empty slot.
+     */
+    private int[] keys;
+
+    private int[] values;
+
+    private int size = 0;
+
+    public PositionTable() {
+        keys = new int[MIN_CAPACITY];
+        Arrays.fill(keys, FREE);
+        values = new int[MIN_CAPACITY];
+    }
+
+    private static int slotOf(int ordinal, int mask) {
+        // Fibonacci hashing, as ordinals are dense
+        int hash = ordinal * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the quantity associated with the ordinal, or 0 if none.
+     */
+    public int get(int ordinal) {
+        int mask = keys.length - 1;
+        int slot = slotOf(ordinal, mask);
+        int key;
+        while ((key = keys[slot]) != FREE) {
+            if (key == ordinal) {
+                return values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return 0;
+    }
+
+    /**
+     * Sets the quantity associated with the ordinal;
+     * a 0 quantity removes the association.
+     */
+    public void put(int ordinal, int qty) {
+        if (qty == 0) {
+            remove(ordinal);
+            return;
+        }
+        int mask = keys.length - 1;
+        int slot = slotOf(ordinal, mask);
+        int key;
+        while ((key = keys[slot]) != FREE) {
+            if (key == ordinal) {
+                values[slot] = qty;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = ordinal;
+        values[slot] = qty;
+        size++;
+        if (size * 2 > keys.length) {
+            rehash(keys.length * 2);
+        }
+    }
+
+    private void remove(int ordinal) {
+        int mask = keys.length - 1;
+        int slot = slotOf(ordinal, mask);
+        int key;
+        while ((key = keys[slot]) != ordinal) {
+            if (key == FREE) {
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        size--;
+        // shift back the following entries of the cluster,
+        // so that no tombstones are needed
+        int gap = slot;
+        int next = (gap + 1) & mask;
+        while ((key = keys[next]) != FREE) {
+            int home = slotOf(key, mask);
+            // the entry can fill the gap unless its home slot
+            // lies cyclically between the gap and the entry
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                keys[gap] = key;
+                values[gap] = values[next];
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[gap] = FREE;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, FREE);
+        size = 0;
+    }
+
+    /**
+     * Copies the ordinals of all the associations in the supplied array,
+     * which must be large enough, in no particular order.
+     */
+    public void copyOrdinals(int[] target) {
+        int count = 0;
+        for (int key : keys) {
+            if (key != FREE) {
+                target[count++] = key;
+            }
+        }
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new int[capacity];
+        Arrays.fill(keys, FREE);
+        values = new int[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != FREE) {
+                int slot = slotOf(oldKeys[i], mask);
+                while (keys[slot] != FREE) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+}
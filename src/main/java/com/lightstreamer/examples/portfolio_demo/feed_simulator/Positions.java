@@ -0,0 +1,51 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.lightstreamer.examples.portfolio_demo.feed_simulator;
+
+
+/**
+ * The contents of a portfolio: associates stock ordinals with positive
+ * quantities; see PositionStorage for the available implementations.
+ * Not thread safe.
+ */
+interface Positions {
+
+    /**
+     * Returns the number of stocks held.
+     */
+    int size();
+
+    /**
+     * Returns the quantity associated with the ordinal, or 0 if none.
+     */
+    int get(int ordinal);
+
+    /**
+     * Sets the quantity associated with the ordinal;
+     * a 0 quantity removes the association.
+     */
+    void put(int ordinal, int qty);
+
+    void clear();
+
+    /**
+     * Copies the ordinals of all the associations in the supplied array,
+     * which must be large enough, in no particular order.
+     */
+    void copyOrdinals(int[] target);
+
+}
@@ -0,0 +1,66 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.lightstreamer.examples.portfolio_demo.feed_simulator;
+
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs the submitted tasks one at a time and in FIFO order
+ * on top of an underlying executor, which may run tasks concurrently.
+ * No thread is held while there are no pending tasks.
+ */
+class SerialExecutor implements Executor {
+
+    private final Queue<Runnable> tasks = new ArrayDeque<Runnable>();
+
+    private final Executor executor;
+
+    /**
+     * The task currently submitted to the underlying executor, if any.
+     */
+    private Runnable active;
+
+    public SerialExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    public synchronized void execute(final Runnable task) {
+        tasks.add(new Runnable() {
+            public void run() {
+                try {
+                    task.run();
+                } finally {
+                    scheduleNext();
+                }
+            }
+        });
+        if (active == null) {
+            scheduleNext();
+        }
+    }
+
+    private synchronized void scheduleNext() {
+        active = tasks.poll();
+        if (active != null) {
+            executor.execute(active);
+        }
+    }
+
+}
@@ -0,0 +1,139 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.lightstreamer.examples.portfolio_demo.feed_simulator;
+
+
+import java.util.Arrays;
+
+/**
+ * An immutable set of symbols, each one interned to a dense int ordinal,
+ * from 0 to size()-1.
+ * Ordinals are assigned in the natural order of the symbols, hence
+ * sorting by ordinal is the same as sorting by symbol.
+ * Lookups are performed on an open addressing hash table,
+ * without any allocation.
+ */
+public class SymbolRegistry {
+
+    /**
+     * The symbols, indexed by ordinal.
+     */
+    private final String[] symbols;
+
+    /**
+     * Hash table of ordinal+1 values; 0 denotes an empty slot.
+     */
+    private final int[] slots;
+
+    private final int mask;
+
+    /**
+     * Creates a registry containing all the supplied symbols;
+     * duplicates are ignored.
+     */
+    public SymbolRegistry(String[] symbols) {
+        String[] sorted = symbols.clone();
+        Arrays.sort(sorted);
+        int count = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || ! sorted[i].equals(sorted[i - 1])) {
+                sorted[count++] = sorted[i];
+            }
+        }
+        this.symbols = Arrays.copyOf(sorted, count);
+
+        // keep the load factor at or below 0.5
+        int capacity = Integer.highestOneBit(Math.max(count, 1) * 2 - 1) << 1;
+        slots = new int[capacity];
+        mask = capacity - 1;
+        for (int ordinal = 0; ordinal < count; ordinal++) {
+            int slot = spread(this.symbols[ordinal].hashCode()) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = ordinal + 1;
+        }
+    }
+
+    /**
+     * Creates a registry of symbols made of a prefix followed by
+     * a number in the specified range, as in "item1".."item30".
+     */
+    public static SymbolRegistry ofRange(String prefix, int first, int last) {
+        String[] symbols = new String[Math.max(last - first + 1, 0)];
+        for (int i = 0; i < symbols.length; i++) {
+            symbols[i] = prefix + (first + i);
+        }
+        return new SymbolRegistry(symbols);
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    public int size() {
+        return symbols.length;
+    }
+
+    /**
+     * Returns the ordinal of the specified symbol, or -1 if the symbol
+     * is unknown.
+     */
+    public int ordinalOf(String symbol) {
+        int slot = spread(symbol.hashCode()) & mask;
+        int entry;
+        while ((entry = slots[slot]) != 0) {
+            if (symbols[entry - 1].equals(symbol)) {
+                return entry - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the ordinal of the symbol found in the specified region
+     * of a text, or -1 if the symbol is unknown; no substring is created.
+     */
+    public int ordinalOf(String text, int start, int end) {
+        // same hash as String.hashCode on the region
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + text.charAt(i);
+        }
+        int length = end - start;
+        int slot = spread(hash) & mask;
+        int entry;
+        while ((entry = slots[slot]) != 0) {
+            String symbol = symbols[entry - 1];
+            if (symbol.length() == length && symbol.regionMatches(0, text, start, length)) {
+                return entry - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the symbol for the specified ordinal;
+     * the same String instance is always returned.
+     */
+    public String symbolOf(int ordinal) {
+        return symbols[ordinal];
+    }
+
+}
@@ -0,0 +1,118 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.lightstreamer.examples.portfolio_demo.feed_simulator;
+
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The kind of threads used to run potentially blocking tasks,
+ * as configured through the "thread_mode" adapter parameter.
+ * Virtual threads are only available when running on Java 21 or later;
+ * they are looked for by reflection, so that this code can still be
+ * compiled and run on Java 8.
+ */
+public enum ThreadMode {
+
+    /**
+     * Tasks are run on ordinary platform threads.
+     */
+    PLATFORM,
+
+    /**
+     * Tasks are run on virtual threads, which are cheap to create and to block.
+     */
+    VIRTUAL;
+
+    /**
+     * Interprets the value of the "thread_mode" parameter;
+     * the default is PLATFORM.
+     */
+    public static ThreadMode fromParam(String value) {
+        if (value == null) {
+            return PLATFORM;
+        }
+        try {
+            return ThreadMode.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown thread mode: " + value);
+        }
+    }
+
+    /**
+     * Tells whether this mode can be used on the current JVM.
+     */
+    public boolean isSupported() {
+        return this == PLATFORM || getVirtualFactoryMethod() != null;
+    }
+
+    /**
+     * Creates an unbounded executor which runs each task on a new
+     * (or recycled) thread of this kind.
+     */
+    public ExecutorService newPerTaskExecutor() {
+        if (this == PLATFORM) {
+            return Executors.newCachedThreadPool();
+        }
+        Method factory = getVirtualFactoryMethod();
+        if (factory == null) {
+            throw new UnsupportedOperationException("Virtual threads require Java 21 or later");
+        }
+        try {
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Virtual threads not available", e);
+        }
+    }
+
+    /**
+     * Creates a factory of threads of this kind, all with the specified name;
+     * platform threads are created as daemon threads.
+     */
+    public ThreadFactory newThreadFactory(final String threadName) {
+        if (this == PLATFORM) {
+            return new ThreadFactory() {
+                public Thread newThread(Runnable task) {
+                    Thread thread = new Thread(task, threadName);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            };
+        }
+        try {
+            // Thread.ofVirtual().name(threadName).factory()
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class).invoke(builder, threadName);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Virtual threads require Java 21 or later", e);
+        }
+    }
+
+    private static Method getVirtualFactoryMethod() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,105 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.lightstreamer.examples.portfolio_demo.feed_simulator;
+
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The set of portfolio ids and stock ids accepted by the feed.
+ * By default, we accept portfolioN where N is a number between 1 and 10
+ * and itemN where N is a number between 1 and 30, as the demo clients
+ * expect; larger universes of the same form can be configured by count,
+ * whereas arbitrary ids can be listed in a universe file, made of lines
+ * like "portfolio portfolio1" or "stock item1" (empty lines and lines
+ * starting with "#" are ignored).
+ */
+public class Universe {
+
+    private final SymbolRegistry portfolios;
+
+    private final SymbolRegistry stocks;
+
+    public Universe(SymbolRegistry portfolios, SymbolRegistry stocks) {
+        this.portfolios = portfolios;
+        this.stocks = stocks;
+    }
+
+    public static Universe ofCounts(int portfolioCount, int stockCount) {
+        return new Universe(SymbolRegistry.ofRange("portfolio", 1, portfolioCount),
+                SymbolRegistry.ofRange("item", 1, stockCount));
+    }
+
+    public static Universe getDefault() {
+        return ofCounts(10, 30);
+    }
+
+    /**
+     * Reads a universe file.
+     */
+    public static Universe load(File file) throws IOException {
+        List<String> portfolioIds = new ArrayList<String>();
+        List<String> stockIds = new ArrayList<String>();
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] pieces = line.split("\\s+");
+                if (pieces.length != 2) {
+                    throw new IOException("Wrong line " + lineNumber + " in " + file + ": " + line);
+                }
+                if (pieces[0].equals("portfolio")) {
+                    portfolioIds.add(pieces[1]);
+                } else if (pieces[0].equals("stock")) {
+                    stockIds.add(pieces[1]);
+                } else {
+                    throw new IOException("Wrong line " + lineNumber + " in " + file + ": " + line);
+                }
+            }
+        }
+
+        if (portfolioIds.isEmpty() || stockIds.isEmpty()) {
+            throw new IOException("No portfolios or no stocks defined in " + file);
+        }
+        return new Universe(
+                new SymbolRegistry(portfolioIds.toArray(new String[portfolioIds.size()])),
+                new SymbolRegistry(stockIds.toArray(new String[stockIds.size()])));
+    }
+
+    public SymbolRegistry getPortfolios() {
+        return portfolios;
+    }
+
+    public SymbolRegistry getStocks() {
+        return stocks;
+    }
+
+}
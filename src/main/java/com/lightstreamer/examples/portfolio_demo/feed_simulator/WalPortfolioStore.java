@@ -0,0 +1,810 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.lightstreamer.examples.portfolio_demo.feed_simulator;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A PortfolioStore based on files in a dedicated directory:
+ * <ul>
+ * <li>a write-ahead log, made of memory-mapped segments of fixed size,
+ * named "wal-[n].log", where each change is appended as a record of
+ * 16 bytes, holding the portfolio, the stock, the new quantity and a
+ * checksum; the records are appended without locking, by reserving
+ * their space through an atomic counter;</li>
+ * <li>a compact snapshot of all the portfolio contents, named
+ * "snapshot-[n].snap", which supersedes the log segments before
+ * segment n;</li>
+ * <li>a spill file, named "evicted-[n].spill", which keeps the contents
+ * of the portfolios evicted by the feed until they are reloaded; it is
+ * not needed upon a restart, as the log and the snapshots already hold
+ * the same contents, hence it is removed; the space of the reloaded
+ * portfolios is reclaimed by copying the others to a new file, when
+ * it exceeds the used space.</li>
+ * </ul>
+ * Upon a restart, the latest snapshot is mapped and read, then only the
+ * log segments that follow it are replayed. As the records carry the new
+ * quantities, rather than the orders, replaying a record more than once
+ * is harmless; this allows taking the snapshot while the portfolios keep
+ * changing, provided that a new segment is started first.
+ * A new snapshot is taken whenever a segment is full and periodically,
+ * if there have been changes; then the superseded files are removed.
+ * The log is kept by the operating system as soon as the record is
+ * written, hence it survives a crash of the process; the snapshots are
+ * also forced to the disk.
+ */
+public class WalPortfolioStore implements PortfolioStore {
+
+    private static final int WAL_MAGIC = 0x50574C31;
+
+    private static final int SNAPSHOT_MAGIC = 0x50534E31;
+
+    private static final int HEADER_SIZE = 16;
+
+    private static final int RECORD_SIZE = 16;
+
+    private static final String WAL_PREFIX = "wal-";
+
+    private static final String WAL_SUFFIX = ".log";
+
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+
+    private static final String SNAPSHOT_SUFFIX = ".snap";
+
+    private static final String SPILL_PREFIX = "evicted-";
+
+    private static final String SPILL_SUFFIX = ".spill";
+
+    /**
+     * Unused space of the spill file below which it is never compacted.
+     */
+    private static final long SPILL_COMPACTION_BYTES = 1 << 20;
+
+    /**
+     * Stock ordinal of the records that clean a portfolio.
+     */
+    private static final int CLEARED = -1;
+
+    /**
+     * A memory-mapped log segment; records are appended from HEADER_SIZE.
+     */
+    private static final class Segment {
+
+        final long seq;
+        final File file;
+        final MappedByteBuffer buffer;
+        final int capacity;
+        final AtomicInteger next = new AtomicInteger(HEADER_SIZE);
+
+        Segment(long seq, File file, MappedByteBuffer buffer) {
+            this.seq = seq;
+            this.file = file;
+            this.buffer = buffer;
+            this.capacity = buffer.capacity();
+        }
+
+        boolean isEmpty() {
+            return next.get() == HEADER_SIZE;
+        }
+    }
+
+    private final Logger logger = LogManager.getLogger("LS_demos_Logger.Portfolio");
+
+    private final File dir;
+
+    private final int segmentSize;
+
+    private final long snapshotMillis;
+
+    private int universeHash;
+
+    private int portfolioCount;
+
+    private int stockCount;
+
+    private PositionSource source;
+
+    private int[][] recovered;
+
+    private int[] recoveredPortfolios;
+
+    /**
+     * The segment being appended; null when the store is closed
+     * or has failed.
+     */
+    private volatile Segment current;
+
+    /**
+     * The segment from which the latest snapshot is to be replayed.
+     */
+    private long snapshotSeq = 0;
+
+    private boolean snapshotInProgress = false;
+
+    private ScheduledExecutorService timer;
+
+    /**
+     * Guards the spill file and its index.
+     */
+    private final Object spillLock = new Object();
+
+    /**
+     * The current spill file; opened upon the first eviction.
+     */
+    private FileChannel spill;
+
+    private long spillSeq = 0;
+
+    /**
+     * Position in the spill file of the contents of each evicted
+     * portfolio, or -1; allocated upon the first eviction.
+     */
+    private long[] spillOffsets;
+
+    /**
+     * Size of the spill file and of the space still used.
+     */
+    private long spillEnd = 0;
+    private long spillUsed = 0;
+
+    private boolean spillClosed = false;
+
+    /**
+     * @param dir the directory of the files, created if needed.
+     * @param segmentSize the size of each log segment, in bytes.
+     * @param snapshotMillis the interval between the periodic snapshots;
+     * 0 means that snapshots are only taken when a segment is full.
+     */
+    public WalPortfolioStore(File dir, int segmentSize, long snapshotMillis) {
+        if (segmentSize < HEADER_SIZE + RECORD_SIZE || segmentSize > (1 << 30)) {
+            throw new IllegalArgumentException("Wrong segment size: " + segmentSize);
+        }
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.snapshotMillis = snapshotMillis;
+    }
+
+    public synchronized void open(Universe universe, PositionSource source) throws IOException {
+        long start = System.nanoTime();
+        this.source = source;
+        portfolioCount = universe.getPortfolios().size();
+        stockCount = universe.getStocks().size();
+        universeHash = hashOf(universe);
+        if (! dir.isDirectory() && ! dir.mkdirs()) {
+            throw new IOException("Cannot create directory " + dir);
+        }
+
+        //The contents spilled by a previous run are also in the log
+        for (File file : listFiles(SPILL_PREFIX, SPILL_SUFFIX).values()) {
+            if (! file.delete()) {
+                logger.warn("Cannot remove " + file);
+            }
+        }
+
+        TreeMap<Long, File> snapshots = listFiles(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+        TreeMap<Long, File> segments = listFiles(WAL_PREFIX, WAL_SUFFIX);
+
+        //Take the latest valid snapshot, if any
+        PositionTable[] tables = new PositionTable[portfolioCount];
+        for (Long seq : snapshots.descendingKeySet()) {
+            if (readSnapshot(snapshots.get(seq), tables)) {
+                snapshotSeq = seq;
+                break;
+            }
+            tables = new PositionTable[portfolioCount];
+        }
+
+        //Replay the following log segments
+        long records = 0;
+        long lastSeq = snapshotSeq;
+        for (Long seq : segments.keySet()) {
+            lastSeq = Math.max(lastSeq, seq);
+            if (seq >= snapshotSeq) {
+                records += replay(segments.get(seq), tables);
+            }
+        }
+
+        List<Integer> ordinals = new ArrayList<Integer>();
+        recovered = new int[portfolioCount][];
+        for (int p = 0; p < portfolioCount; p++) {
+            if (tables[p] != null) {
+                recovered[p] = pairsOf(tables[p]);
+                ordinals.add(p);
+            }
+        }
+        recoveredPortfolios = new int[ordinals.size()];
+        for (int i = 0; i < recoveredPortfolios.length; i++) {
+            recoveredPortfolios[i] = ordinals.get(i);
+        }
+
+        current = createSegment(lastSeq + 1);
+
+        timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "Portfolio store");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        if (snapshotMillis > 0) {
+            timer.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    Segment segment = current;
+                    if (segment != null && ! (segment.seq == snapshotSeqNow() && segment.isEmpty())) {
+                        takeSnapshot();
+                    }
+                }
+            }, snapshotMillis, snapshotMillis, TimeUnit.MILLISECONDS);
+        }
+
+        logger.info("Portfolio store in " + dir + ": " + recoveredPortfolios.length
+                + " portfolios recovered from snapshot " + snapshotSeq + " and " + records
+                + " log records in " + (System.nanoTime() - start) / 1000000 + " ms");
+    }
+
+    public int[] getRecoveredPositions(int portfolioOrdinal) {
+        return recovered[portfolioOrdinal];
+    }
+
+    public int[] getRecoveredPortfolios() {
+        return recoveredPortfolios.clone();
+    }
+
+    public void changed(int portfolioOrdinal, int stockOrdinal, int qty) {
+        append(portfolioOrdinal, stockOrdinal, qty);
+    }
+
+    public void cleared(int portfolioOrdinal) {
+        append(portfolioOrdinal, CLEARED, 0);
+    }
+
+    public boolean evicted(int portfolioOrdinal, int[] pairs) {
+        ByteBuffer buffer = ByteBuffer.allocate(4 + pairs.length * 4);
+        buffer.putInt(pairs.length / 2);
+        for (int value : pairs) {
+            buffer.putInt(value);
+        }
+        buffer.flip();
+        synchronized (spillLock) {
+            if (spillClosed) {
+                return false;
+            }
+            try {
+                if (spill == null) {
+                    spillOffsets = new long[portfolioCount];
+                    Arrays.fill(spillOffsets, -1);
+                    spill = createSpill(++spillSeq);
+                }
+                releaseSpilled(portfolioOrdinal);
+                long offset = spillEnd;
+                writeFully(spill, buffer, offset);
+                spillOffsets[portfolioOrdinal] = offset;
+                spillEnd += buffer.limit();
+                spillUsed += buffer.limit();
+                return true;
+            } catch (IOException e) {
+                logger.error("Cannot spill portfolio #" + portfolioOrdinal + ", kept in memory", e);
+                return false;
+            }
+        }
+    }
+
+    public int[] getEvictedPositions(int portfolioOrdinal, boolean release) {
+        synchronized (spillLock) {
+            if (spillOffsets == null || spillOffsets[portfolioOrdinal] < 0) {
+                return null;
+            }
+            if (spillClosed) {
+                throw new IllegalStateException("Portfolio store closed");
+            }
+            int[] pairs;
+            try {
+                pairs = readSpilled(spill, spillOffsets[portfolioOrdinal]);
+            } catch (IOException e) {
+                logger.error("Cannot reload portfolio #" + portfolioOrdinal, e);
+                throw new IllegalStateException("Cannot reload portfolio #" + portfolioOrdinal + ": " + e.getMessage(), e);
+            }
+            if (release) {
+                releaseSpilled(portfolioOrdinal);
+                long unused = spillEnd - spillUsed;
+                if (unused > spillUsed && unused > SPILL_COMPACTION_BYTES) {
+                    compactSpill();
+                }
+            }
+            return pairs;
+        }
+    }
+
+    public void close() {
+        synchronized (spillLock) {
+            spillClosed = true;
+            if (spill != null) {
+                closeSpill(spill, spillSeq);
+                spill = null;
+            }
+        }
+        Segment segment;
+        synchronized (this) {
+            segment = current;
+            current = null;
+            if (timer != null) {
+                timer.shutdown();
+            }
+        }
+        try {
+            if (timer != null) {
+                timer.awaitTermination(10, TimeUnit.SECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (segment != null) {
+            segment.buffer.force();
+        }
+    }
+
+    private void append(int portfolioOrdinal, int stockOrdinal, int qty) {
+        int check = checkOf(portfolioOrdinal, stockOrdinal, qty);
+        while (true) {
+            Segment segment = current;
+            if (segment == null) {
+                //closed or failed
+                return;
+            }
+            int offset = segment.next.getAndAdd(RECORD_SIZE);
+            if (offset + RECORD_SIZE <= segment.capacity) {
+                //the space is reserved, so the absolute writes don't interfere;
+                //the checksum, written last, validates the record
+                MappedByteBuffer buffer = segment.buffer;
+                buffer.putInt(offset, portfolioOrdinal);
+                buffer.putInt(offset + 4, stockOrdinal);
+                buffer.putInt(offset + 8, qty);
+                buffer.putInt(offset + 12, check);
+                return;
+            }
+            roll(segment);
+        }
+    }
+
+    /**
+     * Replaces a full segment and schedules a snapshot, which will
+     * supersede it.
+     */
+    private synchronized void roll(Segment full) {
+        if (current != full) {
+            //already done by another thread
+            return;
+        }
+        try {
+            current = createSegment(full.seq + 1);
+        } catch (IOException e) {
+            logger.error("Cannot extend the portfolio log, changes will no longer be saved", e);
+            current = null;
+            return;
+        }
+        timer.execute(new Runnable() {
+            public void run() {
+                takeSnapshot();
+            }
+        });
+    }
+
+    private synchronized long snapshotSeqNow() {
+        return snapshotSeq;
+    }
+
+    /**
+     * Saves the contents of all the portfolios, then removes the
+     * superseded files; only run by the timer thread.
+     */
+    private void takeSnapshot() {
+        long seq;
+        synchronized (this) {
+            Segment segment = current;
+            if (segment == null || snapshotInProgress) {
+                return;
+            }
+            if (segment.seq == snapshotSeq) {
+                //the records of the current segment may precede
+                //the new snapshot, hence start a new one
+                if (segment.isEmpty()) {
+                    return;
+                }
+                try {
+                    current = createSegment(segment.seq + 1);
+                } catch (IOException e) {
+                    logger.error("Cannot extend the portfolio log, changes will no longer be saved", e);
+                    current = null;
+                    return;
+                }
+            }
+            //the snapshot will capture the contents after the start of
+            //this segment, so it can be completed by this and the following ones
+            seq = current.seq;
+            snapshotInProgress = true;
+        }
+        try {
+            long start = System.nanoTime();
+            int[][] positions = source.capturePositions().get();
+            writeSnapshot(seq, positions);
+            synchronized (this) {
+                snapshotSeq = seq;
+            }
+            deleteBefore(seq);
+            logger.info("Portfolio snapshot " + seq + " saved in "
+                    + (System.nanoTime() - start) / 1000000 + " ms");
+        } catch (IOException | ExecutionException e) {
+            logger.error("Cannot save the portfolio snapshot " + seq, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            synchronized (this) {
+                snapshotInProgress = false;
+            }
+        }
+    }
+
+    /**
+     * Only called with the spill lock held.
+     */
+    private void releaseSpilled(int portfolioOrdinal) {
+        long offset = spillOffsets[portfolioOrdinal];
+        if (offset >= 0) {
+            spillUsed -= spillSizeOf(offset);
+            spillOffsets[portfolioOrdinal] = -1;
+        }
+    }
+
+    /**
+     * Returns the size of a spill record; only called with the spill
+     * lock held.
+     */
+    private long spillSizeOf(long offset) {
+        try {
+            ByteBuffer count = ByteBuffer.allocate(4);
+            readFully(spill, count, offset);
+            return 4 + count.getInt(0) * 8L;
+        } catch (IOException e) {
+            //just the accounting of the unused space is affected
+            logger.warn("Cannot read the portfolio spill file", e);
+            return 0;
+        }
+    }
+
+    /**
+     * Copies the contents still used to a new spill file, which replaces
+     * the current one; only called with the spill lock held. On failure,
+     * the current file is kept.
+     */
+    private void compactSpill() {
+        long seq = spillSeq + 1;
+        long[] offsets = new long[spillOffsets.length];
+        long end = 0;
+        FileChannel compacted = null;
+        try {
+            compacted = createSpill(seq);
+            for (int p = 0; p < spillOffsets.length; p++) {
+                offsets[p] = -1;
+                if (spillOffsets[p] >= 0) {
+                    int[] pairs = readSpilled(spill, spillOffsets[p]);
+                    ByteBuffer buffer = ByteBuffer.allocate(4 + pairs.length * 4);
+                    buffer.putInt(pairs.length / 2);
+                    for (int value : pairs) {
+                        buffer.putInt(value);
+                    }
+                    buffer.flip();
+                    writeFully(compacted, buffer, end);
+                    offsets[p] = end;
+                    end += buffer.limit();
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Cannot compact the portfolio spill file", e);
+            if (compacted != null) {
+                closeSpill(compacted, seq);
+            }
+            return;
+        }
+        closeSpill(spill, spillSeq);
+        spill = compacted;
+        spillSeq = seq;
+        spillOffsets = offsets;
+        spillEnd = end;
+        spillUsed = end;
+    }
+
+    private FileChannel createSpill(long seq) throws IOException {
+        File file = new File(dir, SPILL_PREFIX + seq + SPILL_SUFFIX);
+        return FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    private void closeSpill(FileChannel channel, long seq) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.warn("Cannot close the portfolio spill file", e);
+        }
+        File file = new File(dir, SPILL_PREFIX + seq + SPILL_SUFFIX);
+        if (! file.delete()) {
+            logger.warn("Cannot remove " + file);
+        }
+    }
+
+    /**
+     * Spill record layout: the number of stocks, then the pairs of
+     * stock ordinal and quantity.
+     */
+    private static int[] readSpilled(FileChannel channel, long offset) throws IOException {
+        ByteBuffer count = ByteBuffer.allocate(4);
+        readFully(channel, count, offset);
+        ByteBuffer body = ByteBuffer.allocate(count.getInt(0) * 8);
+        readFully(channel, body, offset + 4);
+        int[] pairs = new int[body.capacity() / 4];
+        body.asIntBuffer().get(pairs);
+        return pairs;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+        buffer.flip();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    private Segment createSegment(long seq) throws IOException {
+        File file = new File(dir, WAL_PREFIX + seq + WAL_SUFFIX);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            buffer.putInt(0, WAL_MAGIC);
+            buffer.putInt(4, universeHash);
+            return new Segment(seq, file, buffer);
+        }
+    }
+
+    /**
+     * Applies the valid records of a segment; a record may be invalid,
+     * because it was being written upon a crash, while the following ones
+     * are valid, hence the whole segment is scanned.
+     *
+     * @return the number of records applied.
+     */
+    private long replay(File file, PositionTable[] tables) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != WAL_MAGIC
+                    || buffer.getInt(4) != universeHash) {
+                logger.warn("Portfolio log " + file + " ignored, as not related with the current universe");
+                return 0;
+            }
+            long count = 0;
+            for (int offset = HEADER_SIZE; offset + RECORD_SIZE <= buffer.capacity(); offset += RECORD_SIZE) {
+                int portfolio = buffer.getInt(offset);
+                int stock = buffer.getInt(offset + 4);
+                int qty = buffer.getInt(offset + 8);
+                if (buffer.getInt(offset + 12) != checkOf(portfolio, stock, qty)
+                        || portfolio < 0 || portfolio >= portfolioCount
+                        || stock < CLEARED || stock >= stockCount || qty < 0) {
+                    continue;
+                }
+                PositionTable table = tables[portfolio];
+                if (table == null) {
+                    table = tables[portfolio] = new PositionTable();
+                }
+                if (stock == CLEARED) {
+                    table.clear();
+                } else {
+                    table.put(stock, qty);
+                }
+                count++;
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Snapshot layout: magic, universe hash, number of portfolios, then,
+     * for each portfolio, its ordinal, the number of stocks and the pairs
+     * of stock ordinal and quantity, finally a CRC32 of all the above.
+     */
+    private void writeSnapshot(long seq, int[][] positions) throws IOException {
+        int count = 0;
+        int size = 12 + 4;
+        for (int[] pairs : positions) {
+            if (pairs != null) {
+                count++;
+                size += 8 + pairs.length * 4;
+            }
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(SNAPSHOT_MAGIC);
+        buffer.putInt(universeHash);
+        buffer.putInt(count);
+        for (int p = 0; p < positions.length; p++) {
+            int[] pairs = positions[p];
+            if (pairs != null) {
+                buffer.putInt(p);
+                buffer.putInt(pairs.length / 2);
+                for (int value : pairs) {
+                    buffer.putInt(value);
+                }
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, size - 4);
+        buffer.putInt((int) crc.getValue());
+        buffer.flip();
+
+        File temp = new File(dir, SNAPSHOT_PREFIX + seq + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(temp.toPath(), new File(dir, SNAPSHOT_PREFIX + seq + SNAPSHOT_SUFFIX).toPath(),
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads a snapshot, by mapping it.
+     *
+     * @return false if the snapshot is not valid.
+     */
+    private boolean readSnapshot(File file, PositionTable[] tables) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int size = buffer.capacity();
+            if (size < 16 || buffer.getInt(0) != SNAPSHOT_MAGIC) {
+                logger.warn("Portfolio snapshot " + file + " ignored, as not valid");
+                return false;
+            }
+            if (buffer.getInt(4) != universeHash) {
+                logger.warn("Portfolio snapshot " + file + " ignored, as not related with the current universe");
+                return false;
+            }
+            CRC32 crc = new CRC32();
+            ByteBuffer body = buffer.duplicate();
+            body.limit(size - 4);
+            crc.update(body);
+            if ((int) crc.getValue() != buffer.getInt(size - 4)) {
+                logger.warn("Portfolio snapshot " + file + " ignored, as corrupted");
+                return false;
+            }
+            int count = buffer.getInt(8);
+            int offset = 12;
+            for (int i = 0; i < count; i++) {
+                int portfolio = buffer.getInt(offset);
+                int stocks = buffer.getInt(offset + 4);
+                offset += 8;
+                if (portfolio < 0 || portfolio >= portfolioCount) {
+                    offset += stocks * 8;
+                    continue;
+                }
+                PositionTable table = tables[portfolio] = new PositionTable();
+                for (int j = 0; j < stocks; j++, offset += 8) {
+                    table.put(buffer.getInt(offset), buffer.getInt(offset + 4));
+                }
+            }
+            return true;
+        } catch (IndexOutOfBoundsException e) {
+            logger.warn("Portfolio snapshot " + file + " ignored, as not valid");
+            return false;
+        }
+    }
+
+    private void deleteBefore(long seq) {
+        List<File> superseded = new ArrayList<File>();
+        superseded.addAll(listFiles(WAL_PREFIX, WAL_SUFFIX).headMap(seq).values());
+        superseded.addAll(listFiles(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX).headMap(seq).values());
+        //also left by a crash while saving a snapshot
+        superseded.addAll(listFiles(SNAPSHOT_PREFIX, ".tmp").headMap(seq).values());
+        for (File file : superseded) {
+            if (! file.delete()) {
+                logger.warn("Cannot remove " + file);
+            }
+        }
+    }
+
+    private TreeMap<Long, File> listFiles(String prefix, String suffix) {
+        TreeMap<Long, File> files = new TreeMap<Long, File>();
+        File[] list = dir.listFiles();
+        for (File file : list == null ? Collections.<File>emptyList() : Arrays.asList(list)) {
+            String name = file.getName();
+            if (name.startsWith(prefix) && name.endsWith(suffix)) {
+                try {
+                    files.put(Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length())), file);
+                } catch (NumberFormatException e) {
+                    // not ours
+                }
+            }
+        }
+        return files;
+    }
+
+    private static int[] pairsOf(PositionTable table) {
+        int[] ordinals = new int[table.size()];
+        table.copyOrdinals(ordinals);
+        Arrays.sort(ordinals);
+        int[] pairs = new int[ordinals.length * 2];
+        for (int i = 0; i < ordinals.length; i++) {
+            pairs[i * 2] = ordinals[i];
+            pairs[i * 2 + 1] = table.get(ordinals[i]);
+        }
+        return pairs;
+    }
+
+    private static int checkOf(int portfolio, int stock, int qty) {
+        int h = 0x5BD1E995;
+        h = (h ^ portfolio) * 0x9E3779B1;
+        h = (h ^ stock) * 0x85EBCA6B;
+        h = (h ^ qty) * 0xC2B2AE35;
+        h ^= h >>> 16;
+        // a zeroed record must never look valid
+        return h == 0 ? 1 : h;
+    }
+
+    /**
+     * Identifies the universe, as the records refer to its ordinals.
+     */
+    private static int hashOf(Universe universe) {
+        int h = 1;
+        SymbolRegistry portfolios = universe.getPortfolios();
+        for (int i = 0; i < portfolios.size(); i++) {
+            h = h * 31 + portfolios.symbolOf(i).hashCode();
+        }
+        SymbolRegistry stocks = universe.getStocks();
+        for (int i = 0; i < stocks.size(); i++) {
+            h = h * 17 + stocks.symbolOf(i).hashCode();
+        }
+        return h;
+    }
+
+}
@@ -0,0 +1,100 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.lightstreamer.examples.portfolio_demo.feed_simulator;
+
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Draws ordinals from 0 to n-1 with a Zipf distribution, where the
+ * probability of the k-th most popular ordinal is proportional to
+ * 1/k^exponent; an exponent of 0 gives a uniform distribution.
+ * The ranks are assigned to the ordinals through a random permutation,
+ * so that the popular ordinals are not simply the first ones; this is
+ * determined by the supplied random generator.
+ * Once built, the sampler is immutable and can be shared by many threads,
+ * each with its own source of random numbers.
+ */
+final class ZipfSampler {
+
+    private final int size;
+
+    /**
+     * Cumulative probability of the ranks up to each one;
+     * null for a uniform distribution.
+     */
+    private final double[] cumulative;
+
+    /**
+     * The ordinal assigned to each rank; null for a uniform distribution.
+     */
+    private final int[] ordinals;
+
+    ZipfSampler(int size, double exponent, SplittableRandom random) {
+        this.size = size;
+        if (exponent == 0) {
+            cumulative = null;
+            ordinals = null;
+            return;
+        }
+        cumulative = new double[size];
+        double sum = 0;
+        for (int k = 0; k < size; k++) {
+            sum += 1 / Math.pow(k + 1, exponent);
+            cumulative[k] = sum;
+        }
+        for (int k = 0; k < size; k++) {
+            cumulative[k] /= sum;
+        }
+        //don't let a rounding error leave a gap at the end
+        cumulative[size - 1] = 1;
+
+        ordinals = new int[size];
+        for (int i = 0; i < size; i++) {
+            ordinals[i] = i;
+        }
+        for (int i = size - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = ordinals[i];
+            ordinals[i] = ordinals[j];
+            ordinals[j] = swap;
+        }
+    }
+
+    /**
+     * Draws an ordinal, in logarithmic time.
+     */
+    int sample(SplittableRandom random) {
+        if (cumulative == null) {
+            return random.nextInt(size);
+        }
+        int rank = Arrays.binarySearch(cumulative, random.nextDouble());
+        if (rank < 0) {
+            rank = -rank - 1;
+        }
+        return ordinals[rank];
+    }
+
+    /**
+     * Returns the ordinal of the specified rank, 0 being the most popular.
+     */
+    int ordinalOfRank(int rank) {
+        return ordinals == null ? rank : ordinals[rank];
+    }
+
+}
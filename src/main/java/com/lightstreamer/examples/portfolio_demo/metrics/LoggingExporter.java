@@ -0,0 +1,70 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.lightstreamer.examples.portfolio_demo.metrics;
+
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Writes the metrics to the log, one line for each metric; for the
+ * counters, the rate per second since the previous export is also shown.
+ */
+public class LoggingExporter implements MetricsExporter {
+
+    private final Logger logger = LogManager.getLogger("LS_demos_Logger.Portfolio");
+
+    private final Map<String, Long> lastValues = new HashMap<String, Long>();
+
+    private long lastNanos = 0;
+
+    public LoggingExporter() {
+    }
+
+    public synchronized void export(Metrics metrics) {
+        if (! logger.isInfoEnabled()) {
+            return;
+        }
+        long now = System.nanoTime();
+        double seconds = lastNanos == 0 ? 0 : (now - lastNanos) / 1e9;
+        lastNanos = now;
+
+        for (Map.Entry<String, Long> entry : metrics.getCounterValues().entrySet()) {
+            Long last = lastValues.put(entry.getKey(), entry.getValue());
+            if (last != null && seconds > 0) {
+                logger.info(String.format("Metric %s: %d (%.1f/s)", entry.getKey(), entry.getValue(),
+                        (entry.getValue() - last) / seconds));
+            } else {
+                logger.info("Metric " + entry.getKey() + ": " + entry.getValue());
+            }
+        }
+        for (Map.Entry<String, Long> entry : metrics.getGaugeValues().entrySet()) {
+            logger.info("Metric " + entry.getKey() + ": " + entry.getValue());
+        }
+        for (Map.Entry<String, Histogram> entry : metrics.getHistograms().entrySet()) {
+            Histogram histogram = entry.getValue();
+            logger.info(String.format("Metric %s: count=%d mean=%.1f p50=%d p99=%d p999=%d max=%d",
+                    entry.getKey(), histogram.getCount(), histogram.getMean(),
+                    histogram.getValueAtPercentile(50), histogram.getValueAtPercentile(99),
+                    histogram.getValueAtPercentile(99.9), histogram.getMax()));
+        }
+    }
+
+}
@@ -0,0 +1,192 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.lightstreamer.examples.portfolio_demo.metrics;
+
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Registry of the metrics of a feed and of the adapters bound to it.
+ * Three kinds of metrics are available, each identified by a name:
+ * <ul>
+ * <li>counters, based on LongAdder, which is striped, so that frequent
+ * increments by many threads don't contend;</li>
+ * <li>histograms, see Histogram;</li>
+ * <li>gauges, whose values are supplied by the owner upon inquiry.</li>
+ * </ul>
+ * The metrics are meant to be looked up once, then kept by the code that
+ * updates them, so that no lookup occurs on the hot paths.
+ * The metrics can be exposed as a JMX MBean and can be handed periodically
+ * to a MetricsExporter.
+ */
+public class Metrics {
+
+    /**
+     * Domain of the JMX names of the registries.
+     */
+    public static final String JMX_DOMAIN = "com.lightstreamer.examples.portfolio_demo";
+
+    private static final Logger logger = LogManager.getLogger("LS_demos_Logger.Portfolio");
+
+    private final ConcurrentHashMap<String, LongAdder> counters =
+        new ConcurrentHashMap<String, LongAdder>();
+
+    private final ConcurrentHashMap<String, Histogram> histograms =
+        new ConcurrentHashMap<String, Histogram>();
+
+    private final ConcurrentHashMap<String, LongSupplier> gauges =
+        new ConcurrentHashMap<String, LongSupplier>();
+
+    private ObjectName mbeanName;
+
+    private ScheduledExecutorService exportTimer;
+
+    public Metrics() {
+    }
+
+    /**
+     * Returns the counter of the specified name, creating it if needed.
+     */
+    public LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, k -> new LongAdder());
+    }
+
+    /**
+     * Returns the histogram of the specified name, creating it if needed.
+     */
+    public Histogram histogram(String name) {
+        return histograms.computeIfAbsent(name, k -> new Histogram());
+    }
+
+    /**
+     * Sets the supplier of the values of the gauge of the specified name,
+     * replacing any previous one.
+     */
+    public void gauge(String name, LongSupplier supplier) {
+        gauges.put(name, supplier);
+    }
+
+    /**
+     * Returns the current values of the counters, sorted by name.
+     */
+    public SortedMap<String, Long> getCounterValues() {
+        SortedMap<String, Long> values = new TreeMap<String, Long>();
+        for (Map.Entry<String, LongAdder> entry : counters.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().sum());
+        }
+        return values;
+    }
+
+    /**
+     * Returns the current values of the gauges, sorted by name.
+     */
+    public SortedMap<String, Long> getGaugeValues() {
+        SortedMap<String, Long> values = new TreeMap<String, Long>();
+        for (Map.Entry<String, LongSupplier> entry : gauges.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().getAsLong());
+        }
+        return values;
+    }
+
+    /**
+     * Returns the histograms, sorted by name.
+     */
+    public SortedMap<String, Histogram> getHistograms() {
+        return Collections.unmodifiableSortedMap(new TreeMap<String, Histogram>(histograms));
+    }
+
+    /**
+     * Exposes the metrics on the platform MBean server, with a name like
+     * "com.lightstreamer.examples.portfolio_demo:type=Metrics,name=[name]".
+     * A failure is only logged, as the metrics are not essential.
+     */
+    public synchronized void registerMBean(String name) {
+        if (mbeanName != null) {
+            return;
+        }
+        try {
+            ObjectName objectName = new ObjectName(JMX_DOMAIN + ":type=Metrics,name=" + ObjectName.quote(name));
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(new MetricsMBean(this), objectName);
+            mbeanName = objectName;
+        } catch (JMException | RuntimeException e) {
+            logger.warn("Metrics MBean not available for " + name + ": " + e);
+        }
+    }
+
+    /**
+     * Hands the metrics to the specified exporter every time the specified
+     * interval elapses, on a dedicated thread.
+     */
+    public synchronized void startExport(final MetricsExporter exporter, long periodMillis) {
+        if (exportTimer == null) {
+            exportTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable task) {
+                    Thread thread = new Thread(task, "Portfolio metrics export");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        exportTimer.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                try {
+                    exporter.export(Metrics.this);
+                } catch (RuntimeException e) {
+                    logger.error("Unexpected error while exporting the metrics", e);
+                }
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the export and removes the MBean, if any.
+     */
+    public synchronized void close() {
+        if (exportTimer != null) {
+            exportTimer.shutdown();
+            exportTimer = null;
+        }
+        if (mbeanName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+            } catch (JMException e) {
+                // already removed
+            }
+            mbeanName = null;
+        }
+    }
+
+}
@@ -0,0 +1,34 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.lightstreamer.examples.portfolio_demo.metrics;
+
+
+/**
+ * Receives the metrics periodically, to forward them to a monitoring
+ * system; see Metrics.startExport.
+ * An implementation can be configured through its class name,
+ * in which case it needs a public constructor with no arguments.
+ */
+public interface MetricsExporter {
+
+    /**
+     * Invoked periodically on a dedicated thread; the current values
+     * can be read from the supplied registry.
+     */
+    public void export(Metrics metrics);
+
+}
@@ -0,0 +1,137 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.lightstreamer.examples.portfolio_demo.metrics;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanNotificationInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanConstructorInfo;
+
+/**
+ * Exposes a Metrics registry through JMX, as read-only attributes:
+ * an attribute for each counter and gauge and, for each histogram,
+ * the attributes [name].count, [name].mean, [name].p50, [name].p90,
+ * [name].p99, [name].p999 and [name].max.
+ * The attributes reflect the metrics registered at the time of the inquiry.
+ */
+class MetricsMBean implements DynamicMBean {
+
+    private static final String[] HISTOGRAM_STATS = { "count", "mean", "p50", "p90", "p99", "p999", "max" };
+
+    private final Metrics metrics;
+
+    MetricsMBean(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Long value = metrics.getCounterValues().get(attribute);
+        if (value == null) {
+            value = metrics.getGaugeValues().get(attribute);
+        }
+        if (value != null) {
+            return value;
+        }
+        int dot = attribute.lastIndexOf('.');
+        if (dot > 0) {
+            Histogram histogram = metrics.getHistograms().get(attribute.substring(0, dot));
+            if (histogram != null) {
+                Object stat = statOf(histogram, attribute.substring(dot + 1));
+                if (stat != null) {
+                    return stat;
+                }
+            }
+        }
+        throw new AttributeNotFoundException(attribute);
+    }
+
+    private static Object statOf(Histogram histogram, String stat) {
+        switch (stat) {
+        case "count":
+            return histogram.getCount();
+        case "mean":
+            return histogram.getMean();
+        case "p50":
+            return histogram.getValueAtPercentile(50);
+        case "p90":
+            return histogram.getValueAtPercentile(90);
+        case "p99":
+            return histogram.getValueAtPercentile(99);
+        case "p999":
+            return histogram.getValueAtPercentile(99.9);
+        case "max":
+            return histogram.getMax();
+        default:
+            return null;
+        }
+    }
+
+    public AttributeList getAttributes(String[] attributes) {
+        AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            try {
+                list.add(new Attribute(attribute, getAttribute(attribute)));
+            } catch (AttributeNotFoundException e) {
+                // skipped, as required
+            }
+        }
+        return list;
+    }
+
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Read-only attribute: " + attribute.getName());
+    }
+
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    public Object invoke(String actionName, Object[] params, String[] signature) {
+        throw new UnsupportedOperationException("No operations available");
+    }
+
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+        for (String name : metrics.getCounterValues().keySet()) {
+            attributes.add(new MBeanAttributeInfo(name, "long", "Counter " + name, true, false, false));
+        }
+        for (String name : metrics.getGaugeValues().keySet()) {
+            attributes.add(new MBeanAttributeInfo(name, "long", "Gauge " + name, true, false, false));
+        }
+        for (Map.Entry<String, Histogram> entry : metrics.getHistograms().entrySet()) {
+            for (String stat : HISTOGRAM_STATS) {
+                String type = stat.equals("mean") ? "double" : "long";
+                attributes.add(new MBeanAttributeInfo(entry.getKey() + "." + stat, type,
+                        "Histogram " + entry.getKey() + ", " + stat, true, false, false));
+            }
+        }
+        return new MBeanInfo(Metrics.class.getName(), "Portfolio feed and adapter metrics",
+                attributes.toArray(new MBeanAttributeInfo[attributes.size()]),
+                new MBeanConstructorInfo[0], new MBeanOperationInfo[0], new MBeanNotificationInfo[0]);
+    }
+
+}
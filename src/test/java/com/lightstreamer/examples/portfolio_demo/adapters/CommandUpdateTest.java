@@ -0,0 +1,108 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.lightstreamer.examples.portfolio_demo.adapters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+public class CommandUpdateTest {
+
+    @Test
+    public void behavesAsAMap() {
+        Map<String, String> expected = new HashMap<String, String>();
+        expected.put("key", "item3");
+        expected.put("command", "ADD");
+        expected.put("qty", "250");
+        assertEquals(expected, new HashMap<String, String>(CommandUpdate.add("item3", 250)));
+        assertEquals(expected, CommandUpdate.add("item3", 250));
+
+        expected.remove("qty");
+        expected.put("command", "DELETE");
+        assertEquals(expected, new HashMap<String, String>(CommandUpdate.delete("item3")));
+    }
+
+    @Test
+    public void iteratorEndsWithTheFields() {
+        Iterator<Map.Entry<String, String>> entries = CommandUpdate.delete("item3").entrySet().iterator();
+        entries.next();
+        entries.next();
+        assertFalse(entries.hasNext());
+        try {
+            entries.next();
+            fail("No more entries expected");
+        } catch (NoSuchElementException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Each event costs a single object of 32 bytes (on a 64 bit JVM with
+     * compressed oops), as the quantities are rendered once; the original
+     * HashMap with a fresh String.valueOf(qty) took about 270 bytes per
+     * UPDATE (see also CommandUpdateBenchmark, with "-prof gc").
+     */
+    @Test
+    public void allocatesASingleSmallObjectPerEvent() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        Assume.assumeTrue(allocations.isThreadAllocatedMemorySupported());
+        allocations.setThreadAllocatedMemoryEnabled(true);
+
+        final int events = 30000;
+        // kept alive, so that the allocations cannot be optimized away
+        Object[] kept = new Object[events];
+        for (int i = 0; i < events; i++) {
+            // render the quantities in advance
+            CommandUpdate.toDecimal(i);
+        }
+        long threadId = Thread.currentThread().getId();
+
+        long before = allocations.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < events; i += 3) {
+            kept[i] = CommandUpdate.add("item3", i);
+            kept[i + 1] = CommandUpdate.update("item3", i + 1);
+            kept[i + 2] = CommandUpdate.delete("item3");
+        }
+        long bytesPerEvent = (allocations.getThreadAllocatedBytes(threadId) - before) / events;
+        // 40 bytes also allow for uncompressed oops
+        assertTrue(bytesPerEvent + " bytes per event", bytesPerEvent <= 40);
+        assertEquals(events, countNonNull(kept));
+    }
+
+    private static int countNonNull(Object[] objects) {
+        int count = 0;
+        for (Object object : objects) {
+            if (object != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+}
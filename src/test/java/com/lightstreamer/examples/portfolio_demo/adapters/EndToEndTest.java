@@ -0,0 +1,247 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.lightstreamer.examples.portfolio_demo.adapters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.Test;
+
+import com.lightstreamer.examples.portfolio_demo.feed_simulator.LoadProfile;
+import com.lightstreamer.examples.portfolio_demo.feed_simulator.OrderFlowGenerator;
+import com.lightstreamer.examples.portfolio_demo.feed_simulator.OrderSink;
+import com.lightstreamer.examples.portfolio_demo.feed_simulator.PortfolioFeedSimulator;
+import com.lightstreamer.examples.portfolio_demo.feed_simulator.PortfolioProbe;
+import com.lightstreamer.interfaces.data.SmartDataProvider;
+
+/**
+ * Runs the Data Adapters end to end, with a KernelStandIn in place of the
+ * Server: the portfolios are subscribed, a storm of orders is applied on
+ * them by concurrent threads (see OrderFlowGenerator), while some items
+ * are resubscribed, then, when everything has been delivered, the
+ * contents rebuilt by the stand-in are compared with the portfolios.
+ */
+public class EndToEndTest {
+
+    private static final Logger LOGGER = LogManager.getLogger("LS_demos_Logger.Portfolio");
+
+    private static final int RESUBSCRIPTIONS_PER_SECOND = 50;
+
+    @Test
+    public void commandAdapter() throws Exception {
+        check("COMMAND", new PortfolioDataAdapter(), baseParams());
+    }
+
+    @Test
+    public void jsonAdapter() throws Exception {
+        check("JSON", new PortfolioDataAdapterJsonVersion(), baseParams());
+    }
+
+    @Test
+    public void jsonAdapterWithPatches() throws Exception {
+        Map<String, String> params = baseParams();
+        params.put("precomputed_patches", "Y");
+        check("JSON_PATCH", new PortfolioDataAdapterJsonVersion(), params);
+    }
+
+    @Test
+    public void commandAdapterWithResnapshots() throws Exception {
+        Map<String, String> params = baseParams();
+        // a tiny queue, so that the listeners overflow
+        params.put("listener_queue_size", "2");
+        params.put("listener_overflow_policy", "RESNAPSHOT");
+        check("COMMAND_RESNAPSHOT", new PortfolioDataAdapter(), params);
+    }
+
+    @Test
+    public void jsonAdapterWithDisconnections() throws Exception {
+        Map<String, String> params = baseParams();
+        // a tiny queue, so that the listeners are disconnected and attached again
+        params.put("listener_queue_size", "2");
+        params.put("listener_overflow_policy", "DISCONNECT");
+        params.put("precomputed_patches", "Y");
+        check("JSON_DISCONNECT", new PortfolioDataAdapterJsonVersion(), params);
+    }
+
+    @Test
+    public void commandAdapterWithDisconnections() throws Exception {
+        Map<String, String> params = baseParams();
+        params.put("listener_queue_size", "2");
+        params.put("listener_overflow_policy", "DISCONNECT");
+        check("COMMAND_DISCONNECT", new PortfolioDataAdapter(), params);
+    }
+
+    @Test
+    public void jsonAdapterWithConflation() throws Exception {
+        Map<String, String> params = baseParams();
+        params.put("conflation_millis", "5");
+        params.put("precomputed_patches", "Y");
+        check("JSON_CONFLATED", new PortfolioDataAdapterJsonVersion(), params);
+    }
+
+    private static Map<String, String> baseParams() {
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("portfolio_count", "200");
+        params.put("load_orders_per_second", "5000");
+        params.put("load_threads", "2");
+        params.put("load_duration_millis", "1500");
+        params.put("metrics_jmx", "N");
+        return params;
+    }
+
+    private static void check(String name, SmartDataProvider dataAdapter, Map<String, String> params)
+            throws Exception {
+        LoadProfile profile = LoadProfile.fromParams(params);
+        // the order storm is started here, rather than by the feed,
+        // only after the subscriptions
+        Map<String, String> adapterParams = new HashMap<String, String>(params);
+        adapterParams.remove("load_orders_per_second");
+        adapterParams.put("adapters_conf.id", "END_TO_END_" + name);
+
+        dataAdapter.init(adapterParams, new File("."));
+        KernelStandIn kernel = new KernelStandIn();
+        dataAdapter.setListener(kernel);
+        PortfolioFeedSimulator feed = PortfolioFeedSimulator.feedMap.get(adapterParams.get("adapters_conf.id"));
+        try {
+            int subscriptions = feed.getUniverse().getPortfolios().size();
+            final KernelStandIn.Item[] items = new KernelStandIn.Item[subscriptions];
+            for (int i = 0; i < subscriptions; i++) {
+                items[i] = new KernelStandIn.Item(feed.getUniverse().getPortfolios().symbolOf(i));
+                dataAdapter.subscribe(items[i].getName(), items[i], false);
+            }
+            awaitSnapshots(items);
+
+            OrderFlowGenerator generator = new OrderFlowGenerator(profile, feed.getUniverse(),
+                    OrderSink.toFeed(feed), feed.getMetrics(), LOGGER);
+            generator.start();
+            Resubscriber resubscriber = new Resubscriber(dataAdapter, items,
+                    RESUBSCRIPTIONS_PER_SECOND, profile.getSeed());
+            resubscriber.start();
+            assertTrue(generator.awaitTermination(profile.getDurationMillis() + 10000));
+            resubscriber.interrupt();
+            resubscriber.join();
+            assertNull(resubscriber.error);
+            assertTrue(generator.getSentCount() > 0);
+
+            awaitQuiescence(feed, kernel);
+            awaitSnapshots(items);
+
+            // compare the rebuilt contents with the portfolios
+            List<String> mismatches = new ArrayList<String>();
+            for (KernelStandIn.Item item : items) {
+                Map<String, Integer> expected = PortfolioProbe.contentsOf(feed.getPortfolio(item.getName()));
+                Map<String, Integer> actual = item.getContents();
+                if (! expected.equals(actual)) {
+                    mismatches.add(item.getName() + ": expected " + expected + ", got " + actual);
+                }
+            }
+            assertEquals(name + " protocol violations", new ArrayList<String>(), kernel.getViolations());
+            assertEquals(name + " mismatching items", new ArrayList<String>(), mismatches);
+
+            for (KernelStandIn.Item item : items) {
+                dataAdapter.unsubscribe(item.getName());
+                item.unsubscribed();
+            }
+        } finally {
+            feed.shutdown();
+        }
+    }
+
+    /**
+     * Waits for the snapshot of all the items.
+     */
+    private static void awaitSnapshots(KernelStandIn.Item[] items) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        for (KernelStandIn.Item item : items) {
+            while (! item.isSnapshotDone()) {
+                assertTrue("No snapshot for " + item.getName(), System.nanoTime() < deadline);
+                Thread.sleep(1);
+            }
+        }
+    }
+
+    /**
+     * Waits until all the notifications have been delivered and the
+     * updates have stopped for a while.
+     */
+    private static void awaitQuiescence(PortfolioFeedSimulator feed, KernelStandIn kernel)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        long count = -1;
+        while (count != kernel.getUpdateCount()
+                || feed.getMetrics().getGaugeValues().get("listeners.queueDepth") != 0) {
+            assertTrue("The notifications are still pending", System.nanoTime() < deadline);
+            count = kernel.getUpdateCount();
+            Thread.sleep(200);
+        }
+    }
+
+    /**
+     * Unsubscribes and subscribes again random items, at a fixed rate.
+     */
+    private static class Resubscriber extends Thread {
+
+        private final SmartDataProvider dataAdapter;
+
+        private final KernelStandIn.Item[] items;
+
+        private final long intervalNanos;
+
+        private final Random random;
+
+        volatile Exception error;
+
+        Resubscriber(SmartDataProvider dataAdapter, KernelStandIn.Item[] items, int rate, long seed) {
+            super("Resubscriber");
+            this.dataAdapter = dataAdapter;
+            this.items = items;
+            this.intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+            this.random = new Random(seed);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (! isInterrupted()) {
+                    int index = random.nextInt(items.length);
+                    KernelStandIn.Item old = items[index];
+                    dataAdapter.unsubscribe(old.getName());
+                    old.unsubscribed();
+                    items[index] = new KernelStandIn.Item(old.getName());
+                    dataAdapter.subscribe(old.getName(), items[index], false);
+                    TimeUnit.NANOSECONDS.sleep(intervalNanos);
+                }
+            } catch (InterruptedException e) {
+                // done
+            } catch (Exception e) {
+                error = e;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,561 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.lightstreamer.examples.portfolio_demo.adapters;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.lightstreamer.interfaces.data.DiffAlgorithm;
+import com.lightstreamer.interfaces.data.IndexedItemEvent;
+import com.lightstreamer.interfaces.data.ItemEvent;
+import com.lightstreamer.interfaces.data.ItemEventListener;
+import com.lightstreamer.interfaces.data.OldItemEvent;
+
+/**
+ * Takes the place of the Lightstreamer Kernel in EndToEndTest: unlike
+ * the StubItemEventListener of the benchmarks, it rebuilds the contents
+ * of each item as a client would see them, either from the COMMAND mode rows of
+ * PortfolioDataAdapter or from the JSON documents (and patches, if any)
+ * of PortfolioDataAdapterJsonVersion, and it checks the protocol:
+ * no real-time event before the end of the snapshot, no snapshot event
+ * afterwards unless the snapshot was cleared, no ADD of an existing row
+ * and no UPDATE or DELETE of a missing one, well formed documents,
+ * patches consistent with the documents.
+ * The item handles supplied on subscription must be Item instances;
+ * the calls for an Item marked as unsubscribed are only counted.
+ */
+public class KernelStandIn implements ItemEventListener {
+
+    /**
+     * Number of protocol violations whose description is kept.
+     */
+    private static final int KEPT_VIOLATIONS = 20;
+
+    /**
+     * The state of a subscribed item, to be supplied as its handle.
+     * The calls for an item come from a single listener of the feed,
+     * hence they are not concurrent, but they may come from different
+     * threads and the state is also read at the end of the checks.
+     */
+    public static class Item {
+
+        private final String name;
+
+        /**
+         * The current contents, by stock.
+         */
+        private final Map<String, Integer> rows = new TreeMap<String, Integer>();
+
+        /**
+         * The contents as rebuilt from the patches, in document order;
+         * each entry holds symbol and quantity.
+         */
+        private final List<Object[]> patched = new ArrayList<Object[]>();
+
+        private boolean snapshotDone = false;
+
+        /**
+         * Whether a snapshot can start, as the item was just subscribed
+         * or its snapshot was cleared.
+         */
+        private boolean snapshotAllowed = true;
+
+        private volatile boolean unsubscribed = false;
+
+        public Item(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Marks the item as unsubscribed; to be called after the
+         * unsubscription, so that any further call is a late one.
+         */
+        public void unsubscribed() {
+            unsubscribed = true;
+        }
+
+        /**
+         * Returns the current contents, by stock.
+         */
+        public synchronized Map<String, Integer> getContents() {
+            return new TreeMap<String, Integer>(rows);
+        }
+
+        public synchronized boolean isSnapshotDone() {
+            return snapshotDone;
+        }
+    }
+
+    private final LongAdder updates = new LongAdder();
+
+    private final LongAdder snapshots = new LongAdder();
+
+    private final LongAdder clears = new LongAdder();
+
+    private final LongAdder lateCalls = new LongAdder();
+
+    private final AtomicInteger violationCount = new AtomicInteger();
+
+    private final ConcurrentLinkedQueue<String> violations = new ConcurrentLinkedQueue<String>();
+
+    public long getUpdateCount() {
+        return updates.sum();
+    }
+
+    /**
+     * Returns the number of ends of snapshot received.
+     */
+    public long getSnapshotCount() {
+        return snapshots.sum();
+    }
+
+    public long getClearCount() {
+        return clears.sum();
+    }
+
+    public long getLateCallCount() {
+        return lateCalls.sum();
+    }
+
+    public int getViolationCount() {
+        return violationCount.get();
+    }
+
+    /**
+     * Returns the descriptions of the first protocol violations.
+     */
+    public List<String> getViolations() {
+        return new ArrayList<String>(violations);
+    }
+
+    private void violation(Item item, String description) {
+        if (violationCount.incrementAndGet() <= KEPT_VIOLATIONS) {
+            violations.add(item.name + ": " + description);
+        }
+    }
+
+    public void smartUpdate(Object handle, Map event, boolean isSnapshot) {
+        Item item = (Item) handle;
+        if (item.unsubscribed) {
+            lateCalls.increment();
+            return;
+        }
+        updates.increment();
+        synchronized (item) {
+            if (isSnapshot) {
+                if (item.snapshotDone && ! item.snapshotAllowed) {
+                    violation(item, "snapshot event after the end of snapshot");
+                }
+                item.snapshotDone = false;
+            } else if (! item.snapshotDone) {
+                violation(item, "real-time event before the end of snapshot");
+            }
+            if (event.containsKey(CommandUpdate.COMMAND_FIELD)) {
+                applyCommand(item, event);
+            } else if (event.containsKey("json")) {
+                applyJson(item, event);
+            } else {
+                violation(item, "unknown event " + event);
+            }
+        }
+    }
+
+    public void smartEndOfSnapshot(Object handle) {
+        Item item = (Item) handle;
+        if (item.unsubscribed) {
+            lateCalls.increment();
+            return;
+        }
+        snapshots.increment();
+        synchronized (item) {
+            if (item.snapshotDone && ! item.snapshotAllowed) {
+                violation(item, "repeated end of snapshot");
+            }
+            item.snapshotDone = true;
+            item.snapshotAllowed = false;
+        }
+    }
+
+    public void smartClearSnapshot(Object handle) {
+        Item item = (Item) handle;
+        if (item.unsubscribed) {
+            lateCalls.increment();
+            return;
+        }
+        clears.increment();
+        synchronized (item) {
+            item.rows.clear();
+            item.patched.clear();
+            item.snapshotAllowed = true;
+        }
+    }
+
+    public void smartDeclareFieldDiffOrder(Object handle, Map<String, DiffAlgorithm[]> algorithmsMap) {
+    }
+
+    public void failure(Throwable e) {
+        violationCount.incrementAndGet();
+        violations.add("failure: " + e);
+    }
+
+    private void applyCommand(Item item, Map event) {
+        String key = (String) event.get(CommandUpdate.KEY_FIELD);
+        String command = (String) event.get(CommandUpdate.COMMAND_FIELD);
+        String qty = (String) event.get(CommandUpdate.QTY_FIELD);
+        if (key == null) {
+            violation(item, "missing key in " + event);
+            return;
+        }
+        boolean present = item.rows.containsKey(key);
+        if (command.equals(CommandUpdate.DELETE)) {
+            if (! present) {
+                violation(item, "DELETE of missing row " + key);
+            }
+            item.rows.remove(key);
+            return;
+        }
+        if (command.equals(CommandUpdate.ADD) && present) {
+            violation(item, "ADD of existing row " + key);
+        } else if (command.equals(CommandUpdate.UPDATE) && ! present) {
+            violation(item, "UPDATE of missing row " + key);
+        } else if (! command.equals(CommandUpdate.ADD) && ! command.equals(CommandUpdate.UPDATE)) {
+            violation(item, "unknown command " + command);
+            return;
+        }
+        try {
+            item.rows.put(key, Integer.valueOf(qty));
+        } catch (NumberFormatException e) {
+            violation(item, "wrong quantity in " + event);
+        }
+    }
+
+    private void applyJson(Item item, Map event) {
+        List<Object[]> entries;
+        try {
+            entries = parseDocument(item.name, Json.parse((String) event.get("json")));
+        } catch (IllegalArgumentException e) {
+            violation(item, "wrong document: " + e.getMessage());
+            return;
+        }
+        item.rows.clear();
+        for (int i = 0; i < entries.size(); i++) {
+            String symbol = (String) entries.get(i)[0];
+            if (i > 0 && symbol.compareTo((String) entries.get(i - 1)[0]) <= 0) {
+                violation(item, "document entries out of order at " + symbol);
+            }
+            item.rows.put(symbol, (Integer) entries.get(i)[1]);
+        }
+
+        String patch = (String) event.get("patch");
+        if (patch != null) {
+            try {
+                applyPatch(item, Json.parse(patch));
+            } catch (IllegalArgumentException | IndexOutOfBoundsException | ClassCastException e) {
+                violation(item, "wrong patch " + patch + ": " + e);
+                return;
+            }
+            if (! sameEntries(item.patched, entries)) {
+                violation(item, "patch " + patch + " not consistent with the document");
+                //go on from the document
+                item.patched.clear();
+                item.patched.addAll(entries);
+            }
+        }
+    }
+
+    /**
+     * Reads a document in the form
+     * { "portfolio1": [{ "symbol": "item1", "quantity": 100 }, ...]}.
+     */
+    private static List<Object[]> parseDocument(String name, Object document) {
+        if (! (document instanceof Map) || ((Map) document).size() != 1
+                || ! (((Map) document).get(name) instanceof List)) {
+            throw new IllegalArgumentException("not a document of " + name);
+        }
+        List<Object[]> entries = new ArrayList<Object[]>();
+        for (Object value : (List) ((Map) document).get(name)) {
+            entries.add(parseEntry(value));
+        }
+        return entries;
+    }
+
+    private static Object[] parseEntry(Object value) {
+        if (! (value instanceof Map) || ((Map) value).size() != 2
+                || ! (((Map) value).get("symbol") instanceof String)
+                || ! (((Map) value).get("quantity") instanceof Long)) {
+            throw new IllegalArgumentException("wrong entry " + value);
+        }
+        Map entry = (Map) value;
+        return new Object[] { entry.get("symbol"), ((Long) entry.get("quantity")).intValue() };
+    }
+
+    private static void applyPatch(Item item, Object patch) {
+        for (Object value : (List) patch) {
+            Map operation = (Map) value;
+            String op = (String) operation.get("op");
+            String path = (String) operation.get("path");
+            if (path.isEmpty()) {
+                if (! op.equals("replace")) {
+                    throw new IllegalArgumentException("wrong operation on the document");
+                }
+                item.patched.clear();
+                item.patched.addAll(parseDocument(item.name, operation.get("value")));
+                continue;
+            }
+            String prefix = "/" + item.name.replace("~", "~0").replace("/", "~1") + "/";
+            if (! path.startsWith(prefix)) {
+                throw new IllegalArgumentException("wrong path");
+            }
+            String pointer = path.substring(prefix.length());
+            if (pointer.endsWith("/quantity") && op.equals("replace")) {
+                //just the quantity of an entry
+                int index = Integer.parseInt(pointer.substring(0, pointer.length() - "/quantity".length()));
+                Object qty = operation.get("value");
+                if (! (qty instanceof Long)) {
+                    throw new IllegalArgumentException("wrong quantity");
+                }
+                item.patched.get(index)[1] = ((Long) qty).intValue();
+                continue;
+            }
+            int index = Integer.parseInt(pointer);
+            if (op.equals("add")) {
+                item.patched.add(index, parseEntry(operation.get("value")));
+            } else if (op.equals("replace")) {
+                item.patched.set(index, parseEntry(operation.get("value")));
+            } else if (op.equals("remove")) {
+                item.patched.remove(index);
+            } else {
+                throw new IllegalArgumentException("unknown operation");
+            }
+        }
+    }
+
+    private static boolean sameEntries(List<Object[]> entries, List<Object[]> other) {
+        if (entries.size() != other.size()) {
+            return false;
+        }
+        for (int i = 0; i < entries.size(); i++) {
+            if (! entries.get(i)[0].equals(other.get(i)[0]) || ! entries.get(i)[1].equals(other.get(i)[1])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A minimal JSON reader, enough for the documents and patches of the
+     * Data Adapter: objects become Maps, arrays Lists, integers Longs.
+     */
+    static final class Json {
+
+        private final String text;
+
+        private int pos = 0;
+
+        private Json(String text) {
+            this.text = text;
+        }
+
+        static Object parse(String text) {
+            if (text == null) {
+                throw new IllegalArgumentException("missing");
+            }
+            Json json = new Json(text);
+            Object value = json.value();
+            json.skipSpaces();
+            if (json.pos != text.length()) {
+                throw new IllegalArgumentException("trailing characters at " + json.pos);
+            }
+            return value;
+        }
+
+        private void skipSpaces() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        private char next() {
+            skipSpaces();
+            if (pos == text.length()) {
+                throw new IllegalArgumentException("unexpected end");
+            }
+            return text.charAt(pos);
+        }
+
+        private void expect(char c) {
+            if (next() != c) {
+                throw new IllegalArgumentException("'" + c + "' expected at " + pos);
+            }
+            pos++;
+        }
+
+        private Object value() {
+            char c = next();
+            if (c == '{') {
+                pos++;
+                Map<String, Object> object = new LinkedHashMap<String, Object>();
+                if (next() == '}') {
+                    pos++;
+                    return object;
+                }
+                do {
+                    String name = string();
+                    expect(':');
+                    if (object.put(name, value()) != null) {
+                        throw new IllegalArgumentException("duplicate name " + name);
+                    }
+                } while (separator('}'));
+                return object;
+            } else if (c == '[') {
+                pos++;
+                List<Object> array = new ArrayList<Object>();
+                if (next() == ']') {
+                    pos++;
+                    return array;
+                }
+                do {
+                    array.add(value());
+                } while (separator(']'));
+                return array;
+            } else if (c == '"') {
+                return string();
+            } else {
+                int start = pos;
+                if (c == '-') {
+                    pos++;
+                }
+                while (pos < text.length() && Character.isDigit(text.charAt(pos))) {
+                    pos++;
+                }
+                try {
+                    return Long.valueOf(text.substring(start, pos));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("unexpected value at " + start);
+                }
+            }
+        }
+
+        /**
+         * Consumes a comma, returning true, or the specified closing
+         * character, returning false.
+         */
+        private boolean separator(char closing) {
+            char c = next();
+            pos++;
+            if (c == ',') {
+                return true;
+            } else if (c == closing) {
+                return false;
+            }
+            throw new IllegalArgumentException("',' or '" + closing + "' expected at " + (pos - 1));
+        }
+
+        private String string() {
+            expect('"');
+            StringBuilder value = new StringBuilder();
+            while (true) {
+                if (pos == text.length()) {
+                    throw new IllegalArgumentException("unterminated string");
+                }
+                char c = text.charAt(pos++);
+                if (c == '"') {
+                    return value.toString();
+                } else if (c != '\\') {
+                    value.append(c);
+                } else {
+                    char escaped = text.charAt(pos++);
+                    switch (escaped) {
+                    case 'n':
+                        value.append('\n');
+                        break;
+                    case 't':
+                        value.append('\t');
+                        break;
+                    case 'r':
+                        value.append('\r');
+                        break;
+                    case 'b':
+                        value.append('\b');
+                        break;
+                    case 'f':
+                        value.append('\f');
+                        break;
+                    case 'u':
+                        value.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                        pos += 4;
+                        break;
+                    default:
+                        value.append(escaped);
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    public void update(String itemName, ItemEvent event, boolean isSnapshot) {
+        throw new UnsupportedOperationException();
+    }
+
+    public void update(String itemName, OldItemEvent event, boolean isSnapshot) {
+        throw new UnsupportedOperationException();
+    }
+
+    public void update(String itemName, Map event, boolean isSnapshot) {
+        throw new UnsupportedOperationException();
+    }
+
+    public void update(String itemName, IndexedItemEvent event, boolean isSnapshot) {
+        throw new UnsupportedOperationException();
+    }
+
+    public void smartUpdate(Object handle, ItemEvent event, boolean isSnapshot) {
+        throw new UnsupportedOperationException();
+    }
+
+    public void smartUpdate(Object handle, OldItemEvent event, boolean isSnapshot) {
+        throw new UnsupportedOperationException();
+    }
+
+    public void smartUpdate(Object handle, IndexedItemEvent event, boolean isSnapshot) {
+        throw new UnsupportedOperationException();
+    }
+
+    public void endOfSnapshot(String itemName) {
+        throw new UnsupportedOperationException();
+    }
+
+    public void clearSnapshot(String itemName) {
+        throw new UnsupportedOperationException();
+    }
+
+    public void declareFieldDiffOrder(String itemName, Map<String, DiffAlgorithm[]> algorithmsMap) {
+        throw new UnsupportedOperationException();
+    }
+
+}
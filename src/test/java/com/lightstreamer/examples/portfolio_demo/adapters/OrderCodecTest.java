@@ -0,0 +1,65 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.lightstreamer.examples.portfolio_demo.adapters;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import com.lightstreamer.examples.portfolio_demo.feed_simulator.Order;
+import com.lightstreamer.examples.portfolio_demo.feed_simulator.Universe;
+
+public class OrderCodecTest {
+
+    private final OrderCodec codec = new OrderCodec(Universe.getDefault());
+
+    private int parse(String message, OrderCodec.ParsedOrder order) {
+        return codec.parse(message, 0, message.length(), order);
+    }
+
+    @Test
+    public void parsesAValidOrder() {
+        OrderCodec.ParsedOrder order = new OrderCodec.ParsedOrder();
+        assertEquals(OrderCodec.OK, parse("SELL|portfolio3|item7|250|", order));
+        assertEquals(Order.Side.SELL, order.side);
+        assertEquals(codec.getPortfolios().ordinalOf("portfolio3"), order.portfolio);
+        assertEquals(codec.getStocks().ordinalOf("item7"), order.stock);
+        assertEquals(250, order.qty);
+    }
+
+    @Test
+    public void checksInTheOriginalSequence() {
+        OrderCodec.ParsedOrder order = new OrderCodec.ParsedOrder();
+        assertEquals(OrderCodec.WRONG_FORMAT, parse("BUY|portfolio1|item2", order));
+        assertEquals(OrderCodec.WRONG_FORMAT, parse("BUY|portfolio1|item2|1|2", order));
+        assertEquals(OrderCodec.WRONG_QUANTITY, parse("PUT|nobody|none|1x", order));
+        assertEquals(OrderCodec.WRONG_QUANTITY, parse("BUY|portfolio1|item2|2147483648", order));
+        assertEquals(OrderCodec.UNKNOWN_PORTFOLIO, parse("PUT|nobody|none|1", order));
+        assertEquals(OrderCodec.WRONG_OPERATION, parse("PUT|portfolio1|none|1", order));
+        assertEquals(OrderCodec.UNKNOWN_STOCK, parse("BUY|portfolio1|none|1", order));
+    }
+
+    @Test
+    public void reportsANotPositiveQuantityBeforeTheOtherChecks() {
+        OrderCodec.ParsedOrder order = new OrderCodec.ParsedOrder();
+        assertEquals(OrderCodec.NOT_POSITIVE_QUANTITY, parse("PUT|nobody|none|0", order));
+        assertEquals(OrderCodec.NOT_POSITIVE_QUANTITY, parse("BUY|portfolio1|item2|-5", order));
+        assertEquals(-5, order.qty);
+        assertEquals(OrderCodec.WRONG_QUANTITY, parse("PUT|nobody|none|-", order));
+    }
+
+}
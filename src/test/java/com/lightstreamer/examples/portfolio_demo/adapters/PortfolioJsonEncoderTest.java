@@ -0,0 +1,210 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.lightstreamer.examples.portfolio_demo.adapters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.junit.Test;
+
+import com.lightstreamer.examples.portfolio_demo.feed_simulator.DispatchScheduler;
+import com.lightstreamer.examples.portfolio_demo.feed_simulator.FeedConfiguration;
+import com.lightstreamer.examples.portfolio_demo.feed_simulator.Portfolio;
+import com.lightstreamer.examples.portfolio_demo.feed_simulator.PortfolioProbe;
+import com.lightstreamer.examples.portfolio_demo.feed_simulator.PortfolioSnapshot;
+import com.lightstreamer.examples.portfolio_demo.feed_simulator.SymbolRegistry;
+import com.lightstreamer.examples.portfolio_demo.feed_simulator.ThreadMode;
+import com.lightstreamer.examples.portfolio_demo.feed_simulator.Universe;
+
+public class PortfolioJsonEncoderTest {
+
+    private final SymbolRegistry stocks = Universe.ofCounts(1, 30).getStocks();
+
+    /**
+     * Renders the document from scratch, as the adapter did before
+     * the encoder was introduced.
+     */
+    static String render(String portfolioId, Map<String, Integer> contents) {
+        String portfolioJson = "{ \"" + portfolioId + "\": [";
+        List<String> keyList = new ArrayList<>(contents.keySet());
+        Collections.sort(keyList);
+        for (String key : keyList) {
+            portfolioJson += "{ \"symbol\": \"" + key + "\", \"quantity\": " + contents.get(key) + " },";
+        }
+        if (! keyList.isEmpty()) {
+            portfolioJson = portfolioJson.substring(0, portfolioJson.length() - 1);
+        }
+        portfolioJson += "]}";
+        return portfolioJson;
+    }
+
+    @Test
+    public void rendersASnapshot() throws Exception {
+        DispatchScheduler scheduler = new DispatchScheduler("Test dispatch", ThreadMode.PLATFORM, 1);
+        try {
+            Portfolio portfolio = new Portfolio("portfolio1", stocks, scheduler, new FeedConfiguration(),
+                    LogManager.getLogger("LS_demos_Logger.Portfolio"));
+            portfolio.buy("item12", 300);
+            portfolio.buy("item3", 100);
+            portfolio.buy("item27", 50);
+            portfolio.sell("item27", 20);
+            PortfolioSnapshot snapshot = PortfolioProbe.snapshotOf(portfolio);
+
+            PortfolioJsonEncoder encoder = new PortfolioJsonEncoder("portfolio1");
+            encoder.reset(snapshot);
+            assertEquals(render("portfolio1", snapshot), encoder.toJson());
+
+            encoder.clear();
+            assertEquals(render("portfolio1", new TreeMap<String, Integer>()), encoder.toJson());
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    public void followsTheChanges() {
+        PortfolioJsonEncoder encoder = new PortfolioJsonEncoder("portfolio2");
+        Map<String, Integer> contents = new TreeMap<String, Integer>();
+        Random random = new Random(7);
+        for (int i = 0; i < 5000; i++) {
+            String stock = stocks.symbolOf(random.nextInt(stocks.size()));
+            // a third of the changes remove the stock, if held
+            int qty = random.nextInt(3) == 0 ? 0 : 1 + random.nextInt(1000);
+            if (qty == 0) {
+                contents.remove(stock);
+            } else {
+                contents.put(stock, qty);
+            }
+            encoder.apply(stock, qty);
+            assertEquals(render("portfolio2", contents), encoder.toJson());
+        }
+    }
+
+    @Test
+    public void escapesTheStrings() {
+        PortfolioJsonEncoder encoder = new PortfolioJsonEncoder("my \"portfolio\"");
+        encoder.apply("a\\b", 5);
+        assertEquals("{ \"my \\\"portfolio\\\"\": [{ \"symbol\": \"a\\\\b\", \"quantity\": 5 }]}",
+                encoder.toJson());
+        assertEquals("\\u0001", PortfolioJsonEncoder.escape("\u0001"));
+    }
+
+    @Test
+    public void removingAMissingStockChangesNothing() {
+        PortfolioJsonEncoder encoder = new PortfolioJsonEncoder("portfolio3");
+        encoder.apply("item1", 10);
+        String before = encoder.toJson();
+        assertNull(encoder.applyAsPatch("item2", 0));
+        assertEquals(before, encoder.toJson());
+    }
+
+    @Test
+    public void patchesReplayTheDocument() {
+        // an id that needs escaping in a JSON Pointer
+        String id = "desk/a~1";
+        PortfolioJsonEncoder encoder = new PortfolioJsonEncoder(id);
+        Object document = KernelStandIn.Json.parse("{}");
+        document = applyPatch(document, encoder.toPatch());
+        assertEquals(KernelStandIn.Json.parse(encoder.toJson()), document);
+        Random random = new Random(11);
+        for (int i = 0; i < 5000; i++) {
+            String stock = stocks.symbolOf(random.nextInt(stocks.size()));
+            int qty = random.nextInt(3) == 0 ? 0 : 1 + random.nextInt(1000);
+            String patch = encoder.applyAsPatch(stock, qty);
+            if (patch != null) {
+                document = applyPatch(document, patch);
+            }
+            assertEquals(KernelStandIn.Json.parse(encoder.toJson()), document);
+        }
+    }
+
+    /**
+     * Applies a RFC 6902 JSON Patch, limited to the add, remove and
+     * replace operations, on a document parsed by KernelStandIn.Json.
+     */
+    @SuppressWarnings("unchecked")
+    static Object applyPatch(Object document, String patch) {
+        for (Object value : (List<Object>) KernelStandIn.Json.parse(patch)) {
+            Map<String, Object> operation = (Map<String, Object>) value;
+            String op = (String) operation.get("op");
+            String path = (String) operation.get("path");
+            if (path.isEmpty()) {
+                assertEquals("replace", op);
+                document = operation.get("value");
+                continue;
+            }
+            // walk to the parent of the target
+            String[] tokens = path.substring(1).split("/", -1);
+            Object parent = document;
+            for (int i = 0; i < tokens.length - 1; i++) {
+                parent = child(parent, unescape(tokens[i]));
+            }
+            String last = unescape(tokens[tokens.length - 1]);
+            if (parent instanceof Map) {
+                Map<String, Object> object = (Map<String, Object>) parent;
+                if (op.equals("remove")) {
+                    assertNotNull(path, object.remove(last));
+                } else {
+                    if (op.equals("replace")) {
+                        assertTrue(path, object.containsKey(last));
+                    }
+                    object.put(last, operation.get("value"));
+                }
+            } else {
+                List<Object> array = (List<Object>) parent;
+                int index = Integer.parseInt(last);
+                if (op.equals("add")) {
+                    array.add(index, operation.get("value"));
+                } else if (op.equals("remove")) {
+                    array.remove(index);
+                } else if (op.equals("replace")) {
+                    array.set(index, operation.get("value"));
+                } else {
+                    throw new AssertionError("Unexpected operation " + op);
+                }
+            }
+        }
+        return document;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object child(Object parent, String token) {
+        Object child;
+        if (parent instanceof Map) {
+            child = ((Map<String, Object>) parent).get(token);
+        } else {
+            child = ((List<Object>) parent).get(Integer.parseInt(token));
+        }
+        assertNotNull(token, child);
+        return child;
+    }
+
+    private static String unescape(String token) {
+        return token.replace("~1", "/").replace("~0", "~");
+    }
+
+}
@@ -0,0 +1,62 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.lightstreamer.examples.portfolio_demo.adapters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.lightstreamer.examples.portfolio_demo.feed_simulator.PortfolioFeedSimulator;
+import com.lightstreamer.interfaces.metadata.CreditsException;
+
+public class PortfolioMetadataAdapterTest {
+
+    @Test
+    public void ordersAreRefusedAfterTheFeedShutdown() throws Exception {
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("adapters_conf.id", "METADATA_TEST");
+        params.put("metrics_jmx", "N");
+        params.put("order_workers", "2");
+        new PortfolioDataAdapter().init(params, new File("."));
+        PortfolioFeedSimulator feed = PortfolioFeedSimulator.feedMap.get("METADATA_TEST");
+        PortfolioMetadataAdapter metadata = new PortfolioMetadataAdapter();
+        metadata.init(params, new File("."));
+
+        assertEquals("SUBMITTED", metadata.notifyUserMessage("user", "session", "BUY|portfolio1|item2|100")
+                .get(10, TimeUnit.SECONDS));
+        assertEquals("SUBMITTED", metadata.notifyUserMessage("user", "session", "SELL|portfolio2|item2|100")
+                .get(10, TimeUnit.SECONDS));
+        assertEquals(Long.valueOf(2), feed.getMetrics().getCounterValues().get("orders.received"));
+
+        // the order workers are stopped together with the feed
+        feed.shutdown();
+        try {
+            metadata.notifyUserMessage("user", "session", "BUY|portfolio1|item2|100");
+            fail("Order accepted after the shutdown");
+        } catch (CreditsException e) {
+            assertEquals("Too many pending orders", e.getMessage());
+        }
+        assertEquals(Long.valueOf(1), feed.getMetrics().getCounterValues().get("orders.refused"));
+    }
+
+}
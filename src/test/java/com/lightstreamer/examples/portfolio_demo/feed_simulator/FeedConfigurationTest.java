@@ -0,0 +1,57 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.lightstreamer.examples.portfolio_demo.feed_simulator;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.lightstreamer.examples.portfolio_demo.metrics.LoggingExporter;
+
+public class FeedConfigurationTest {
+
+    private static FeedConfiguration withExporter(String className) throws IOException {
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("metrics_exporter", className);
+        return FeedConfiguration.fromParams(params, new File("."));
+    }
+
+    @Test
+    public void createsTheMetricsExporter() throws IOException {
+        FeedConfiguration config = withExporter(" " + LoggingExporter.class.getName() + " ");
+        assertTrue(config.getMetricsExporter() instanceof LoggingExporter);
+    }
+
+    @Test
+    public void refusesAWrongMetricsExporter() throws IOException {
+        for (String className : new String[] { "java.lang.String", "no.such.Exporter", "java.lang.Runnable" }) {
+            try {
+                withExporter(className);
+                fail("Accepted " + className);
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage().contains(className));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,151 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.lightstreamer.examples.portfolio_demo.feed_simulator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PortfolioFeedSimulatorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void evictedPortfoliosAreReloadedOnTheHeap() throws Exception {
+        checkEviction(PositionStorage.HEAP, null);
+    }
+
+    @Test
+    public void evictedPortfoliosAreReloadedOffTheHeap() throws Exception {
+        checkEviction(PositionStorage.OFF_HEAP, null);
+    }
+
+    @Test
+    public void evictedPortfoliosAreReloadedFromTheStore() throws Exception {
+        File dir = new File(folder.getRoot(), "store");
+        Map<String, Map<String, Integer>> expected = checkEviction(PositionStorage.HEAP, dir);
+        // the spill file is only needed while running
+        File[] left = dir.listFiles((file, name) -> name.endsWith(".spill"));
+        assertEquals(0, left.length);
+
+        // a snapshot taken while the portfolios are evicted includes them
+        PortfolioFeedSimulator feed = openStore(dir, true);
+        try {
+            awaitEviction(feed);
+            long seq = lastSnapshotOf(dir);
+            String changed = feed.getUniverse().getPortfolios().symbolOf(0);
+            feed.getPortfolio(changed).buy(0, 1);
+            expected.put(changed, PortfolioProbe.contentsOf(feed.getPortfolio(changed)));
+            long deadline = System.currentTimeMillis() + 10000;
+            while (lastSnapshotOf(dir) == seq) {
+                assertTrue("No snapshot", System.currentTimeMillis() < deadline);
+                Thread.sleep(10);
+            }
+        } finally {
+            feed.shutdown();
+        }
+
+        feed = openStore(dir, false);
+        try {
+            for (Map.Entry<String, Map<String, Integer>> entry : expected.entrySet()) {
+                assertEquals(entry.getValue(), PortfolioProbe.contentsOf(feed.getPortfolio(entry.getKey())));
+            }
+        } finally {
+            feed.shutdown();
+        }
+    }
+
+    private static PortfolioFeedSimulator openStore(File dir, boolean eviction) throws Exception {
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("portfolio_count", "20");
+        // relative to the configuration directory
+        params.put("store_dir", dir.getName());
+        params.put("store_snapshot_millis", "10");
+        params.put("metrics_jmx", "N");
+        if (eviction) {
+            params.put("portfolio_idle_millis", "20");
+        }
+        return new PortfolioFeedSimulator(FeedConfiguration.fromParams(params, dir.getParentFile()));
+    }
+
+    private static long lastSnapshotOf(File dir) {
+        long last = 0;
+        for (String name : dir.list((file, n) -> n.startsWith("snapshot-") && n.endsWith(".snap"))) {
+            last = Math.max(last, Long.parseLong(name.substring(9, name.length() - 5)));
+        }
+        return last;
+    }
+
+    private static Map<String, Map<String, Integer>> checkEviction(PositionStorage storage, File storeDir)
+            throws Exception {
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("portfolio_count", "20");
+        params.put("portfolio_idle_millis", "20");
+        params.put("position_storage", storage.name());
+        params.put("metrics_jmx", "N");
+        if (storeDir != null) {
+            // relative to the configuration directory
+            params.put("store_dir", storeDir.getName());
+            params.put("store_snapshot_millis", "10");
+        }
+        File configDir = storeDir != null ? storeDir.getParentFile() : new File(".");
+        PortfolioFeedSimulator feed = new PortfolioFeedSimulator(FeedConfiguration.fromParams(params, configDir));
+        try {
+            SymbolRegistry ids = feed.getUniverse().getPortfolios();
+            Map<String, Map<String, Integer>> expected = new TreeMap<String, Map<String, Integer>>();
+            for (int round = 0; round < 3; round++) {
+                for (int i = 0; i < ids.size(); i++) {
+                    Portfolio portfolio = feed.getPortfolio(ids.symbolOf(i));
+                    portfolio.buy(round, 10 + i);
+                    expected.put(ids.symbolOf(i), PortfolioProbe.contentsOf(portfolio));
+                }
+                awaitEviction(feed);
+                if (storeDir != null) {
+                    // the contents are spilled to the store, rather than kept on the heap
+                    assertTrue(new File(storeDir, "evicted-1.spill").length() > 0);
+                }
+            }
+            for (int i = 0; i < ids.size(); i++) {
+                assertEquals(expected.get(ids.symbolOf(i)), PortfolioProbe.contentsOf(feed.getPortfolio(ids.symbolOf(i))));
+            }
+            Map<String, Long> counters = feed.getMetrics().getCounterValues();
+            assertTrue(counters.get("portfolios.evicted") >= 3 * ids.size());
+            assertTrue(counters.get("portfolios.reloaded") >= 2 * ids.size());
+            return expected;
+        } finally {
+            feed.shutdown();
+        }
+    }
+
+    private static void awaitEviction(PortfolioFeedSimulator feed) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (feed.getMetrics().getGaugeValues().get("portfolios") > 0) {
+            assertTrue("No eviction", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+}
@@ -0,0 +1,64 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.lightstreamer.examples.portfolio_demo.feed_simulator;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads the current contents of a portfolio in the tests, through
+ * a listener, as any other reader.
+ */
+public class PortfolioProbe {
+
+    /**
+     * Returns the current contents, as any listener would receive them.
+     */
+    public static PortfolioSnapshot snapshotOf(Portfolio portfolio) throws Exception {
+        final CompletableFuture<PortfolioSnapshot> status = new CompletableFuture<PortfolioSnapshot>();
+        PortfolioListener probe = new PortfolioListener() {
+            public void onActualStatus(PortfolioSnapshot currentStatus) {
+                status.complete(currentStatus);
+            }
+            public void update(String stock, int qty, int oldQty, PortfolioSnapshot currentStatus) {
+            }
+            public void empty() {
+            }
+            public void onDisconnected() {
+            }
+        };
+        portfolio.addListener(probe);
+        PortfolioSnapshot snapshot = status.get(10, TimeUnit.SECONDS);
+        portfolio.removeListener(probe);
+        return snapshot;
+    }
+
+    /**
+     * Returns the current quantities, by stock.
+     */
+    public static Map<String, Integer> contentsOf(Portfolio portfolio) throws Exception {
+        PortfolioSnapshot snapshot = snapshotOf(portfolio);
+        Map<String, Integer> contents = new TreeMap<String, Integer>();
+        for (int i = 0; i < snapshot.size(); i++) {
+            contents.put(snapshot.getStock(i), snapshot.getQuantity(i));
+        }
+        return contents;
+    }
+
+}
@@ -0,0 +1,235 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.lightstreamer.examples.portfolio_demo.feed_simulator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PortfolioTest {
+
+    private static final Logger LOGGER = LogManager.getLogger("LS_demos_Logger.Portfolio");
+
+    private final SymbolRegistry stocks = Universe.ofCounts(1, 30).getStocks();
+
+    private DispatchScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        scheduler = new DispatchScheduler("Test dispatch", ThreadMode.PLATFORM, 2);
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void concurrentSubmittersGiveTheSameTotals() throws Exception {
+        final Portfolio portfolio = new Portfolio("portfolio1", stocks, scheduler, new FeedConfiguration(), LOGGER);
+        final int threads = 8;
+        final int ordersPerThread = 20000;
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] submitters = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int index = t;
+            submitters[t] = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < ordersPerThread; i++) {
+                        // each thread buys 2 and sells 1 of its own stock,
+                        // and buys 1 of a stock shared by all
+                        portfolio.buy(index, 2);
+                        portfolio.sell(index, 1);
+                        portfolio.buy(threads, 1);
+                    }
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            submitters[t].start();
+        }
+        start.countDown();
+        for (Thread submitter : submitters) {
+            submitter.join();
+        }
+
+        PortfolioSnapshot contents = PortfolioProbe.snapshotOf(portfolio);
+        for (int t = 0; t < threads; t++) {
+            assertEquals(ordersPerThread, contents.getQuantity(stocks.symbolOf(t)));
+        }
+        assertEquals(threads * ordersPerThread, contents.getQuantity(stocks.symbolOf(threads)));
+        assertEquals(threads + 1, contents.size());
+    }
+
+    @Test
+    public void throttledSubmitterParksUntilTheBacklogDrops() throws Exception {
+        final Portfolio portfolio = new Portfolio("portfolio1", stocks, scheduler, new FeedConfiguration(), LOGGER);
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        // the store holds the writer on the first change
+        portfolio.attachStore(new PortfolioStore() {
+            public void open(Universe universe, PositionSource source) {
+            }
+            public int[] getRecoveredPositions(int portfolioOrdinal) {
+                return null;
+            }
+            public int[] getRecoveredPortfolios() {
+                return new int[0];
+            }
+            public void changed(int portfolioOrdinal, int stockOrdinal, int qty) {
+                if (writing.getCount() > 0) {
+                    writing.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            }
+            public void cleared(int portfolioOrdinal) {
+            }
+            public boolean evicted(int portfolioOrdinal, int[] pairs) {
+                return false;
+            }
+            public int[] getEvictedPositions(int portfolioOrdinal, boolean release) {
+                return null;
+            }
+            public void close() {
+            }
+        }, 0, null);
+
+        Thread writer = new Thread(() -> {
+            try {
+                portfolio.buy(0, 1);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        writer.start();
+        assertTrue(writing.await(10, TimeUnit.SECONDS));
+
+        final int orders = 2000;
+        final AtomicInteger submitted = new AtomicInteger();
+        Thread submitter = new Thread(() -> {
+            try {
+                for (int i = 0; i < orders; i++) {
+                    portfolio.buy(1, 1);
+                    submitted.incrementAndGet();
+                }
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        submitter.start();
+
+        // beyond the backlog, the submitter waits without spinning
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (submitted.get() < 1000 || submitter.getState() != Thread.State.TIMED_WAITING) {
+            assertTrue("The submitter is not parked", System.nanoTime() < deadline);
+            Thread.sleep(1);
+        }
+        assertTrue(submitted.get() < orders);
+
+        release.countDown();
+        submitter.join(10000);
+        writer.join(10000);
+        PortfolioSnapshot contents = PortfolioProbe.snapshotOf(portfolio);
+        assertEquals(1, contents.getQuantity(stocks.symbolOf(0)));
+        assertEquals(orders, contents.getQuantity(stocks.symbolOf(1)));
+    }
+
+    @Test
+    public void callerOnlyRunsABatchOfCommands() throws Exception {
+        final Portfolio portfolio = new Portfolio("portfolio1", stocks, scheduler, new FeedConfiguration(), LOGGER);
+        final Thread caller = Thread.currentThread();
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch enqueued = new CountDownLatch(1);
+        final AtomicInteger changesByCaller = new AtomicInteger();
+        final AtomicInteger changes = new AtomicInteger();
+        // the store is invoked by the writer on each change
+        portfolio.attachStore(new PortfolioStore() {
+            public void open(Universe universe, PositionSource source) {
+            }
+            public int[] getRecoveredPositions(int portfolioOrdinal) {
+                return null;
+            }
+            public int[] getRecoveredPortfolios() {
+                return new int[0];
+            }
+            public void changed(int portfolioOrdinal, int stockOrdinal, int qty) {
+                changes.incrementAndGet();
+                if (Thread.currentThread() == caller && changesByCaller.incrementAndGet() == 1) {
+                    // hold the first command until many others are waiting
+                    writing.countDown();
+                    try {
+                        enqueued.await();
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            }
+            public void cleared(int portfolioOrdinal) {
+            }
+            public boolean evicted(int portfolioOrdinal, int[] pairs) {
+                return false;
+            }
+            public int[] getEvictedPositions(int portfolioOrdinal, boolean release) {
+                return null;
+            }
+            public void close() {
+            }
+        }, 0, null);
+
+        final int others = 1000;
+        Thread submitter = new Thread(() -> {
+            try {
+                writing.await();
+                for (int i = 0; i < others; i++) {
+                    portfolio.buy(1, 1);
+                }
+                enqueued.countDown();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        submitter.start();
+
+        // this call makes the caller the writer, while the other
+        // orders are enqueued
+        portfolio.buy(0, 1);
+        submitter.join();
+        assertTrue("the caller ran " + changesByCaller.get() + " commands",
+                changesByCaller.get() <= 256);
+
+        // the rest is run by the lane
+        PortfolioSnapshot contents = PortfolioProbe.snapshotOf(portfolio);
+        assertEquals(1, contents.getQuantity(stocks.symbolOf(0)));
+        assertEquals(others, contents.getQuantity(stocks.symbolOf(1)));
+        assertEquals(others + 1, changes.get());
+    }
+
+}
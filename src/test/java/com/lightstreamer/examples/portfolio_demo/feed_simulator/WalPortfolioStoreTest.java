@@ -0,0 +1,352 @@
+/*
+ *  Copyright (c) Lightstreamer Srl
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.lightstreamer.examples.portfolio_demo.feed_simulator;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class WalPortfolioStoreTest {
+
+    private static final int HEADER_SIZE = 16;
+
+    private static final int RECORD_SIZE = 16;
+
+    private final Universe universe = Universe.ofCounts(3, 10);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * The expected contents, by portfolio and stock; also the source
+     * of the snapshots.
+     */
+    private final Model model = new Model();
+
+    private final List<WalPortfolioStore> opened = new ArrayList<WalPortfolioStore>();
+
+    @After
+    public void tearDown() {
+        for (WalPortfolioStore store : opened) {
+            store.close();
+        }
+    }
+
+    private WalPortfolioStore open(int segmentSize, PortfolioStore.PositionSource source) throws IOException {
+        WalPortfolioStore store = new WalPortfolioStore(folder.getRoot(), segmentSize, 0);
+        store.open(universe, source);
+        opened.add(store);
+        return store;
+    }
+
+    private void change(WalPortfolioStore store, int portfolio, int stock, int qty) {
+        store.changed(portfolio, stock, qty);
+        model.changed(portfolio, stock, qty);
+    }
+
+    private void assertRecovered(Model expected, WalPortfolioStore store) {
+        List<Integer> portfolios = new ArrayList<Integer>(expected.contents.keySet());
+        int[] ordinals = new int[portfolios.size()];
+        for (int i = 0; i < ordinals.length; i++) {
+            ordinals[i] = portfolios.get(i);
+        }
+        assertArrayEquals(ordinals, store.getRecoveredPortfolios());
+        for (int p = 0; p < universe.getPortfolios().size(); p++) {
+            int[] pairs = expected.pairsOf(p);
+            if (pairs == null) {
+                assertNull(store.getRecoveredPositions(p));
+            } else {
+                assertArrayEquals("portfolio " + p, pairs, store.getRecoveredPositions(p));
+            }
+        }
+    }
+
+    @Test
+    public void recoversTheChangesAfterACrash() throws IOException {
+        WalPortfolioStore store = open(4096, model);
+        change(store, 0, 1, 100);
+        change(store, 0, 2, 50);
+        change(store, 1, 3, 10);
+        change(store, 0, 1, 0);
+        store.cleared(1);
+        model.cleared(1);
+        change(store, 2, 9, 7);
+        Model beforeLast = model.copy();
+        change(store, 2, 9, 8);
+
+        // the process dies while writing the last record,
+        // hence the store is not closed
+        opened.remove(store);
+        File segment = new File(folder.getRoot(), "wal-1.log");
+        truncate(segment, HEADER_SIZE + 6 * RECORD_SIZE + RECORD_SIZE / 2);
+
+        WalPortfolioStore reopened = open(4096, model);
+        assertRecovered(beforeLast, reopened);
+        // a new segment is started, after the recovered one
+        assertTrue(new File(folder.getRoot(), "wal-2.log").exists());
+    }
+
+    @Test
+    public void skipsTheRecordsWithABadChecksum() throws IOException {
+        WalPortfolioStore store = open(4096, model);
+        for (int s = 0; s < 5; s++) {
+            change(store, 0, s, s + 1);
+        }
+        Model expected = model.copy();
+        expected.changed(0, 1, 0);
+        expected.changed(0, 4, 0);
+        store.close();
+
+        // a record in the middle and the one at the tail are damaged
+        File segment = new File(folder.getRoot(), "wal-1.log");
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.seek(HEADER_SIZE + 1 * RECORD_SIZE + 8);
+            file.writeInt(1000);
+            file.seek(HEADER_SIZE + 4 * RECORD_SIZE + 12);
+            file.writeInt(0);
+        }
+
+        assertRecovered(expected, open(4096, model));
+    }
+
+    @Test
+    public void replaysTheSegmentsAcrossRolls() throws IOException {
+        // the snapshots triggered by the rolls fail, so all segments are kept
+        PortfolioStore.PositionSource failing = new PortfolioStore.PositionSource() {
+            public CompletableFuture<int[][]> capturePositions() {
+                CompletableFuture<int[][]> future = new CompletableFuture<int[][]>();
+                future.completeExceptionally(new IllegalStateException("No snapshot"));
+                return future;
+            }
+        };
+        WalPortfolioStore store = open(HEADER_SIZE + 4 * RECORD_SIZE, failing);
+        for (int i = 0; i < 30; i++) {
+            change(store, i % 3, i % 10, i + 1);
+        }
+        store.close();
+        assertEquals(8, walFiles().size());
+
+        assertRecovered(model, open(HEADER_SIZE + 4 * RECORD_SIZE, failing));
+    }
+
+    @Test
+    public void replaysTheChangesAfterASnapshot() throws Exception {
+        WalPortfolioStore store = open(HEADER_SIZE + 4 * RECORD_SIZE, model);
+        for (int i = 0; i < 4; i++) {
+            change(store, 0, i, i + 1);
+        }
+        // the fifth record rolls the segment and triggers a snapshot
+        change(store, 1, 5, 10);
+        File snapshot = new File(folder.getRoot(), "snapshot-2.snap");
+        awaitRemoval(new File(folder.getRoot(), "wal-1.log"));
+        assertTrue(snapshot.exists());
+        change(store, 0, 0, 0);
+        change(store, 2, 7, 3);
+        store.close();
+
+        assertRecovered(model, open(HEADER_SIZE + 4 * RECORD_SIZE, model));
+    }
+
+    @Test
+    public void removesTheSupersededFiles() throws Exception {
+        File root = folder.getRoot();
+        // left by a crash while saving a snapshot
+        assertTrue(new File(root, "snapshot-1.tmp").createNewFile());
+        WalPortfolioStore store = open(HEADER_SIZE + 4 * RECORD_SIZE, model);
+        // each segment holds 4 records; wait for the snapshot
+        // taken upon each roll before the next one
+        for (int i = 0; i < 5; i++) {
+            change(store, 0, i, i + 1);
+        }
+        awaitRemoval(new File(root, "wal-1.log"));
+        for (int i = 5; i < 9; i++) {
+            change(store, 0, i, i + 1);
+        }
+        awaitRemoval(new File(root, "snapshot-2.snap"));
+        store.close();
+
+        List<String> names = new ArrayList<String>();
+        for (String name : root.list()) {
+            names.add(name);
+        }
+        Collections.sort(names);
+        List<String> expected = new ArrayList<String>();
+        expected.add("snapshot-3.snap");
+        expected.add("wal-3.log");
+        assertEquals(expected, names);
+
+        assertRecovered(model, open(HEADER_SIZE + 4 * RECORD_SIZE, model));
+    }
+
+    private List<File> walFiles() {
+        List<File> files = new ArrayList<File>();
+        for (File file : folder.getRoot().listFiles()) {
+            if (file.getName().startsWith("wal-")) {
+                files.add(file);
+            }
+        }
+        return files;
+    }
+
+    @Test
+    public void keepsTheEvictedContentsUntilReloaded() throws IOException {
+        // left by a previous run
+        File stale = new File(folder.getRoot(), "evicted-7.spill");
+        assertTrue(stale.createNewFile());
+        WalPortfolioStore store = open(4096, model);
+        assertFalse(stale.exists());
+
+        assertNull(store.getEvictedPositions(1, false));
+        int[] pairs = { 2, 100, 5, 30 };
+        assertTrue(store.evicted(1, pairs));
+        assertTrue(store.evicted(2, new int[0]));
+        assertArrayEquals(pairs, store.getEvictedPositions(1, false));
+        assertArrayEquals(pairs, store.getEvictedPositions(1, true));
+        assertNull(store.getEvictedPositions(1, false));
+        assertArrayEquals(new int[0], store.getEvictedPositions(2, true));
+
+        // only needed while running
+        File spill = new File(folder.getRoot(), "evicted-1.spill");
+        assertTrue(spill.exists());
+        store.close();
+        assertFalse(spill.exists());
+        assertFalse(store.evicted(1, pairs));
+    }
+
+    @Test
+    public void compactsTheSpillFile() throws IOException {
+        final int portfolios = 2000;
+        WalPortfolioStore store = new WalPortfolioStore(folder.getRoot(), 4096, 0);
+        store.open(Universe.ofCounts(portfolios, 100),
+                () -> CompletableFuture.completedFuture(new int[portfolios][]));
+        opened.add(store);
+        // about 800 bytes each, 1.6 MB in all
+        for (int p = 0; p < portfolios; p++) {
+            assertTrue(store.evicted(p, spilledPairsOf(p)));
+        }
+        // reloading three quarters leaves more unused space than used
+        for (int p = 0; p < portfolios * 3 / 4; p++) {
+            assertArrayEquals(spilledPairsOf(p), store.getEvictedPositions(p, true));
+        }
+        assertFalse(new File(folder.getRoot(), "evicted-1.spill").exists());
+        assertTrue(new File(folder.getRoot(), "evicted-2.spill").exists());
+        for (int p = 0; p < portfolios; p++) {
+            if (p < portfolios * 3 / 4) {
+                assertNull(store.getEvictedPositions(p, false));
+            } else {
+                assertArrayEquals(spilledPairsOf(p), store.getEvictedPositions(p, false));
+            }
+        }
+    }
+
+    private static int[] spilledPairsOf(int portfolio) {
+        int[] pairs = new int[200];
+        for (int i = 0; i < 100; i++) {
+            pairs[i * 2] = i;
+            pairs[i * 2 + 1] = portfolio + i + 1;
+        }
+        return pairs;
+    }
+
+    private static void truncate(File file, long size) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(size);
+        }
+    }
+
+    private static void awaitRemoval(File file) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (file.exists()) {
+            assertTrue(file + " not removed", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * The contents as they should be saved.
+     */
+    private static class Model implements PortfolioStore.PositionSource {
+
+        final Map<Integer, TreeMap<Integer, Integer>> contents =
+                new TreeMap<Integer, TreeMap<Integer, Integer>>();
+
+        synchronized void changed(int portfolio, int stock, int qty) {
+            TreeMap<Integer, Integer> stocks = contents.get(portfolio);
+            if (stocks == null) {
+                stocks = new TreeMap<Integer, Integer>();
+                contents.put(portfolio, stocks);
+            }
+            if (qty == 0) {
+                stocks.remove(stock);
+            } else {
+                stocks.put(stock, qty);
+            }
+        }
+
+        synchronized void cleared(int portfolio) {
+            contents.put(portfolio, new TreeMap<Integer, Integer>());
+        }
+
+        synchronized Model copy() {
+            Model copy = new Model();
+            for (Map.Entry<Integer, TreeMap<Integer, Integer>> entry : contents.entrySet()) {
+                copy.contents.put(entry.getKey(), new TreeMap<Integer, Integer>(entry.getValue()));
+            }
+            return copy;
+        }
+
+        synchronized int[] pairsOf(int portfolio) {
+            TreeMap<Integer, Integer> stocks = contents.get(portfolio);
+            if (stocks == null) {
+                return null;
+            }
+            int[] pairs = new int[stocks.size() * 2];
+            int i = 0;
+            for (Map.Entry<Integer, Integer> entry : stocks.entrySet()) {
+                pairs[i++] = entry.getKey();
+                pairs[i++] = entry.getValue();
+            }
+            return pairs;
+        }
+
+        public synchronized CompletableFuture<int[][]> capturePositions() {
+            int[][] positions = new int[3][];
+            for (int p = 0; p < positions.length; p++) {
+                positions[p] = pairsOf(p);
+            }
+            return CompletableFuture.completedFuture(positions);
+        }
+    }
+
+}